@@ -1,5 +1,7 @@
 package com.ltrudu.serverresponsetest.adapter;
 
+import android.text.format.DateFormat;
+import android.util.LongSparseArray;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -11,13 +13,25 @@ import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 import com.ltrudu.serverresponsetest.R;
 import com.ltrudu.serverresponsetest.data.Server;
+import com.ltrudu.serverresponsetest.service.CircuitBreaker;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
 
 public class TestServerAdapter extends ListAdapter<Server, TestServerAdapter.TestServerViewHolder> {
     
-    private Map<Long, ServerTestResult> testResults = new HashMap<>();
+    // Payload flags passed to notifyItemChanged so a row only rebinds the views that changed
+    private static final int PAYLOAD_STATUS = 1;
+    private static final int PAYLOAD_RESULT = 1 << 1;
+    private static final int PAYLOAD_LOAD_STATS = 1 << 2;
+    private static final int PAYLOAD_HISTORY = 1 << 3;
+    private static final int PAYLOAD_CIRCUIT = 1 << 4;
+    private static final int PAYLOAD_ALL = PAYLOAD_STATUS | PAYLOAD_RESULT | PAYLOAD_LOAD_STATS | PAYLOAD_HISTORY
+            | PAYLOAD_CIRCUIT;
+    
+    // Display state per server id, updated in place
+    private final LongSparseArray<ServerTestResult> testResults = new LongSparseArray<>();
     
     public enum ServerStatus {
         IDLE,
@@ -27,35 +41,67 @@ public class TestServerAdapter extends ListAdapter<Server, TestServerAdapter.Tes
         ERROR
     }
     
+    /**
+     * Everything a row shows besides the server definition. One instance per server lives for
+     * the whole adapter and is overwritten by each update, so a probe result allocates nothing here.
+     */
     public static class ServerTestResult {
-        public ServerStatus status;
+        // Adapter position of the server in the current list, NO_POSITION when it is not listed
+        int position = RecyclerView.NO_POSITION;
+        public ServerStatus status = ServerStatus.IDLE;
+        // False until the first result of the run, and again once the server is set pending
+        public boolean hasMeasurement;
         public boolean success;
-        public long responseTime;
+        // Latest probe, in nanoseconds
+        public long responseNanos;
+        // Latency from the intended send time, including any wait behind a stalled server
+        public long correctedResponseNanos;
+        // p50, p90, p99, p99.9 and max of the server's latency histogram since the run started
+        public long[] percentileNanos;
+        public long[] correctedPercentileNanos;
+        // DNS, connect, TLS, TTFB and body durations in nanoseconds, -1 when not measured
+        public long[] phaseNanos;
+        // The DNS phase was answered by the resolver cache
+        public boolean dnsCached;
+        // Body-read mode: bytes read, -1 when the body was not read
+        public long bodyBytes = -1;
+        public boolean bodyTruncated;
         public String errorMessage;
+        // Latest latency over a fresh connection and over a reused keep-alive connection, -1 if none yet
+        public long coldResponseNanos = -1;
+        public long warmResponseNanos = -1;
+        // Circuit breaker of the server in the current run; probes are skipped while it is open
+        public CircuitBreaker.State circuitState = CircuitBreaker.State.CLOSED;
+        public int consecutiveFailures;
+        public long circuitRetryAtMillis;
+        public String loadStatsLine;
+        // Stored latency summary of the last 24 hours, refreshed periodically by TestFragment
+        public String historyLine;
         
-        public ServerTestResult(ServerStatus status, boolean success, long responseTime, String errorMessage) {
-            this.status = status;
-            this.success = success;
-            this.responseTime = responseTime;
-            this.errorMessage = errorMessage;
-        }
-        
-        // Convenience constructors
-        public static ServerTestResult pending() {
-            return new ServerTestResult(ServerStatus.PENDING, false, 0, null);
-        }
-        
-        public static ServerTestResult processing() {
-            return new ServerTestResult(ServerStatus.PROCESSING, false, 0, null);
+        void clearMeasurement() {
+            hasMeasurement = false;
+            success = false;
+            responseNanos = 0;
+            correctedResponseNanos = 0;
+            percentileNanos = null;
+            correctedPercentileNanos = null;
+            phaseNanos = null;
+            dnsCached = false;
+            bodyBytes = -1;
+            bodyTruncated = false;
+            errorMessage = null;
         }
-        
-        public static ServerTestResult success(long responseTime) {
-            return new ServerTestResult(ServerStatus.SUCCESS, true, responseTime, null);
-        }
-        
-        public static ServerTestResult error(long responseTime, String errorMessage) {
-            return new ServerTestResult(ServerStatus.ERROR, false, responseTime, errorMessage);
+    }
+    
+    // Formats a nanosecond duration as milliseconds with precision suited to its magnitude
+    public static String formatMillis(long nanos) {
+        double millis = nanos / 1e6;
+        if (millis < 10) {
+            return String.format("%.2f", millis);
+        } else if (millis < 100) {
+            return String.format("%.1f", millis);
         }
+        return String.format("%.0f", millis);
     }
     
     public TestServerAdapter() {
@@ -70,8 +116,11 @@ public class TestServerAdapter extends ListAdapter<Server, TestServerAdapter.Tes
         
         @Override
         public boolean areContentsTheSame(@NonNull Server oldItem, @NonNull Server newItem) {
-            // Always return false to force refresh when server list updates
-            return false;
+            // Only what the row shows; results are pushed separately with payloads
+            return Objects.equals(oldItem.getName(), newItem.getName())
+                    && Objects.equals(oldItem.getAddress(), newItem.getAddress())
+                    && Objects.equals(oldItem.getPort(), newItem.getPort())
+                    && oldItem.getRequestType() == newItem.getRequestType();
         }
     };
     
@@ -86,36 +135,159 @@ public class TestServerAdapter extends ListAdapter<Server, TestServerAdapter.Tes
     @Override
     public void onBindViewHolder(@NonNull TestServerViewHolder holder, int position) {
         Server server = getItem(position);
-        ServerTestResult result = testResults.get(server.getId());
-        holder.bind(server, result);
+        holder.bind(server, obtainResult(server.getId()), PAYLOAD_ALL, true);
     }
     
-    public void updateServerResult(long serverId, boolean success, long responseTime, String errorMessage) {
+    @Override
+    public void onBindViewHolder(@NonNull TestServerViewHolder holder, int position, @NonNull List<Object> payloads) {
+        int changes = 0;
+        for (Object payload : payloads) {
+            if (payload instanceof Integer) {
+                changes |= (Integer) payload;
+            } else {
+                changes = PAYLOAD_ALL;
+            }
+        }
+        if (changes == 0 || changes == PAYLOAD_ALL) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+        Server server = getItem(position);
+        holder.bind(server, obtainResult(server.getId()), changes, false);
+    }
+    
+    @Override
+    public void onCurrentListChanged(@NonNull List<Server> previousList, @NonNull List<Server> currentList) {
+        // Rebuild the id to position index once per list change instead of searching on every update
+        for (int i = 0; i < testResults.size(); i++) {
+            testResults.valueAt(i).position = RecyclerView.NO_POSITION;
+        }
+        for (int i = 0; i < currentList.size(); i++) {
+            obtainResult(currentList.get(i).getId()).position = i;
+        }
+    }
+    
+    public void updateServerResult(long serverId, boolean success, long responseNanos, long correctedResponseNanos,
+                                   long[] percentileNanos, long[] correctedPercentileNanos,
+                                   boolean connectionReused, long[] phaseNanos, boolean dnsCached,
+                                   long bodyBytes, boolean bodyTruncated, String errorMessage) {
+        ServerTestResult result = obtainResult(serverId);
+        int changes = PAYLOAD_RESULT;
         ServerStatus status = success ? ServerStatus.SUCCESS : ServerStatus.ERROR;
-        testResults.put(serverId, new ServerTestResult(status, success, responseTime, errorMessage));
-        notifyDataSetChanged();
+        if (result.status != status) {
+            result.status = status;
+            changes |= PAYLOAD_STATUS;
+        }
+        result.hasMeasurement = true;
+        result.success = success;
+        result.responseNanos = responseNanos;
+        result.correctedResponseNanos = correctedResponseNanos;
+        result.percentileNanos = percentileNanos;
+        result.correctedPercentileNanos = correctedPercentileNanos;
+        result.phaseNanos = phaseNanos;
+        result.dnsCached = dnsCached;
+        result.bodyBytes = bodyBytes;
+        result.bodyTruncated = bodyTruncated;
+        result.errorMessage = errorMessage;
+        if (success) {
+            if (connectionReused) {
+                result.warmResponseNanos = responseNanos;
+            } else {
+                result.coldResponseNanos = responseNanos;
+            }
+        }
+        notifyRowChanged(result, changes);
+    }
+    
+    public void updateServerRejected(long serverId, String errorMessage) {
+        ServerTestResult result = obtainResult(serverId);
+        result.success = false;
+        result.errorMessage = errorMessage;
+        result.status = ServerStatus.ERROR;
+        notifyRowChanged(result, PAYLOAD_RESULT | PAYLOAD_STATUS);
+    }
+    
+    public void updateCircuitState(long serverId, CircuitBreaker.State state, int consecutiveFailures, long retryAtMillis) {
+        ServerTestResult result = obtainResult(serverId);
+        if (result.circuitState != state || result.consecutiveFailures != consecutiveFailures
+                || result.circuitRetryAtMillis != retryAtMillis) {
+            result.circuitState = state;
+            result.consecutiveFailures = consecutiveFailures;
+            result.circuitRetryAtMillis = retryAtMillis;
+            notifyRowChanged(result, PAYLOAD_CIRCUIT);
+        }
     }
     
     public void updateServerStatus(long serverId, ServerStatus status) {
-        ServerTestResult existingResult = testResults.get(serverId);
-        if (existingResult != null) {
-            testResults.put(serverId, new ServerTestResult(status, existingResult.success, existingResult.responseTime, existingResult.errorMessage));
-        } else {
-            testResults.put(serverId, new ServerTestResult(status, false, 0, null));
+        ServerTestResult result = obtainResult(serverId);
+        if (result.status != status) {
+            result.status = status;
+            notifyRowChanged(result, PAYLOAD_STATUS);
+        }
+    }
+    
+    public void updateLoadStats(long serverId, String statsText) {
+        ServerTestResult result = obtainResult(serverId);
+        if (!Objects.equals(result.loadStatsLine, statsText)) {
+            result.loadStatsLine = statsText;
+            notifyRowChanged(result, PAYLOAD_LOAD_STATS);
+        }
+    }
+    
+    public void updateLatencyHistory(LongSparseArray<String> historyLines) {
+        for (int i = 0; i < historyLines.size(); i++) {
+            obtainResult(historyLines.keyAt(i));
+        }
+        for (int i = 0; i < testResults.size(); i++) {
+            ServerTestResult result = testResults.valueAt(i);
+            String line = historyLines.get(testResults.keyAt(i));
+            if (!Objects.equals(result.historyLine, line)) {
+                result.historyLine = line;
+                notifyRowChanged(result, PAYLOAD_HISTORY);
+            }
         }
-        notifyDataSetChanged();
     }
     
+    // Servers that already have a status go back to pending for the new cycle
     public void setAllServersPending() {
-        for (Map.Entry<Long, ServerTestResult> entry : testResults.entrySet()) {
-            entry.setValue(ServerTestResult.pending());
+        for (int i = 0; i < testResults.size(); i++) {
+            ServerTestResult result = testResults.valueAt(i);
+            if (result.status != ServerStatus.IDLE) {
+                result.status = ServerStatus.PENDING;
+                result.clearMeasurement();
+                notifyRowChanged(result, PAYLOAD_STATUS | PAYLOAD_RESULT);
+            }
         }
-        notifyDataSetChanged();
     }
     
     public void clearResults() {
-        testResults.clear();
-        notifyDataSetChanged();
+        for (int i = 0; i < testResults.size(); i++) {
+            ServerTestResult result = testResults.valueAt(i);
+            result.status = ServerStatus.IDLE;
+            result.clearMeasurement();
+            result.coldResponseNanos = -1;
+            result.warmResponseNanos = -1;
+            result.circuitState = CircuitBreaker.State.CLOSED;
+            result.consecutiveFailures = 0;
+            result.circuitRetryAtMillis = 0;
+            result.loadStatsLine = null;
+        }
+        notifyItemRangeChanged(0, getItemCount(), PAYLOAD_STATUS | PAYLOAD_RESULT | PAYLOAD_LOAD_STATS | PAYLOAD_CIRCUIT);
+    }
+    
+    private ServerTestResult obtainResult(long serverId) {
+        ServerTestResult result = testResults.get(serverId);
+        if (result == null) {
+            result = new ServerTestResult();
+            testResults.put(serverId, result);
+        }
+        return result;
+    }
+    
+    private void notifyRowChanged(ServerTestResult result, int changes) {
+        if (result.position != RecyclerView.NO_POSITION) {
+            notifyItemChanged(result.position, changes);
+        }
     }
     
     static class TestServerViewHolder extends RecyclerView.ViewHolder {
@@ -123,6 +295,11 @@ public class TestServerAdapter extends ListAdapter<Server, TestServerAdapter.Tes
         private TextView serverName;
         private TextView serverAddress;
         private TextView requestType;
+        private TextView percentileText;
+        private TextView phaseText;
+        private TextView circuitText;
+        private TextView loadStatsText;
+        private TextView historyText;
         
         public TestServerViewHolder(@NonNull View itemView) {
             super(itemView);
@@ -130,51 +307,153 @@ public class TestServerAdapter extends ListAdapter<Server, TestServerAdapter.Tes
             serverName = itemView.findViewById(R.id.serverName);
             serverAddress = itemView.findViewById(R.id.serverAddress);
             requestType = itemView.findViewById(R.id.requestType);
+            percentileText = itemView.findViewById(R.id.percentileText);
+            phaseText = itemView.findViewById(R.id.phaseText);
+            circuitText = itemView.findViewById(R.id.circuitText);
+            loadStatsText = itemView.findViewById(R.id.loadStatsText);
+            historyText = itemView.findViewById(R.id.historyText);
         }
         
-        public void bind(Server server, ServerTestResult result) {
-            serverName.setText(server.getName());
-            
+        // Rebinds the parts named by changes; the server's name and type only on a full bind
+        public void bind(Server server, ServerTestResult result, int changes, boolean full) {
+            if (full) {
+                serverName.setText(server.getName());
+                requestType.setText(server.getRequestType().name());
+            }
+            if ((changes & PAYLOAD_RESULT) != 0) {
+                bindResult(server, result);
+            }
+            if ((changes & PAYLOAD_CIRCUIT) != 0) {
+                bindOptionalLine(circuitText, formatCircuit(result));
+            }
+            if ((changes & PAYLOAD_LOAD_STATS) != 0) {
+                bindOptionalLine(loadStatsText, result.loadStatsLine);
+            }
+            if ((changes & PAYLOAD_HISTORY) != 0) {
+                bindOptionalLine(historyText, result.historyLine);
+            }
+            if ((changes & PAYLOAD_STATUS) != 0) {
+                bindStatus(result.status);
+            }
+        }
+        
+        private void bindResult(Server server, ServerTestResult result) {
             String address = server.getAddress();
             if (server.getPort() != null) {
                 address += ":" + server.getPort();
             }
             
-            if (result != null) {
-                address += " (" + result.responseTime + "ms)";
+            if (result.hasMeasurement) {
+                String time = itemView.getContext().getString(R.string.response_time, formatMillis(result.responseNanos));
+                if (result.coldResponseNanos >= 0 && result.warmResponseNanos >= 0) {
+                    // Warm servers show what the handshake costs next to the reused-connection time
+                    time = itemView.getContext().getString(R.string.response_time_cold_warm,
+                            formatMillis(result.coldResponseNanos), formatMillis(result.warmResponseNanos));
+                }
+                if (result.correctedResponseNanos > result.responseNanos) {
+                    time += ", " + itemView.getContext().getString(R.string.response_time_corrected,
+                            formatMillis(result.correctedResponseNanos));
+                }
+                address += " (" + time + ")";
             }
             
             serverAddress.setText(address);
-            requestType.setText(server.getRequestType().name());
             
-            if (result != null) {
-                switch (result.status) {
-                    case PENDING:
-                        statusIcon.setImageResource(android.R.drawable.ic_menu_recent_history);
-                        statusIcon.setContentDescription("Pending");
-                        break;
-                    case PROCESSING:
-                        statusIcon.setImageResource(android.R.drawable.ic_popup_sync);
-                        statusIcon.setContentDescription("Processing");
-                        break;
-                    case SUCCESS:
-                        statusIcon.setImageResource(android.R.drawable.checkbox_on_background);
-                        statusIcon.setContentDescription(itemView.getContext().getString(R.string.status_success));
-                        break;
-                    case ERROR:
-                        statusIcon.setImageResource(android.R.drawable.ic_delete);
-                        statusIcon.setContentDescription(itemView.getContext().getString(R.string.status_error));
-                        break;
-                    case IDLE:
-                    default:
-                        statusIcon.setImageResource(android.R.drawable.ic_dialog_info);
-                        statusIcon.setContentDescription(itemView.getContext().getString(R.string.status_idle));
-                        break;
+            long[] percentiles = result.percentileNanos;
+            if (percentiles != null && percentiles.length >= 5 && percentiles[4] > 0) {
+                String text = itemView.getContext().getString(R.string.latency_percentiles, formatMillis(percentiles[0]),
+                        formatMillis(percentiles[1]), formatMillis(percentiles[2]), formatMillis(percentiles[3]),
+                        formatMillis(percentiles[4]));
+                long[] corrected = result.correctedPercentileNanos;
+                if (corrected != null && corrected.length >= 3 && corrected[2] > percentiles[2]) {
+                    // Only worth showing when a stall pushed the corrected tail above the measured one
+                    text += " · " + itemView.getContext().getString(R.string.latency_corrected_p99, formatMillis(corrected[2]));
                 }
+                percentileText.setText(text);
+                percentileText.setVisibility(View.VISIBLE);
             } else {
-                statusIcon.setImageResource(android.R.drawable.ic_dialog_info);
-                statusIcon.setContentDescription(itemView.getContext().getString(R.string.status_idle));
+                percentileText.setVisibility(View.GONE);
+            }
+            
+            String phases = formatPhases(result);
+            if (!result.success && result.errorMessage != null) {
+                // A failure leads with its reason
+                phases = phases != null ? result.errorMessage + " · " + phases : result.errorMessage;
+            }
+            bindOptionalLine(phaseText, phases);
+        }
+        
+        private static void bindOptionalLine(TextView view, String line) {
+            if (line != null) {
+                view.setText(line);
+                view.setVisibility(View.VISIBLE);
+            } else {
+                view.setVisibility(View.GONE);
+            }
+        }
+        
+        private void bindStatus(ServerStatus status) {
+            switch (status) {
+                case PENDING:
+                    statusIcon.setImageResource(android.R.drawable.ic_menu_recent_history);
+                    statusIcon.setContentDescription("Pending");
+                    break;
+                case PROCESSING:
+                    statusIcon.setImageResource(android.R.drawable.ic_popup_sync);
+                    statusIcon.setContentDescription("Processing");
+                    break;
+                case SUCCESS:
+                    statusIcon.setImageResource(android.R.drawable.checkbox_on_background);
+                    statusIcon.setContentDescription(itemView.getContext().getString(R.string.status_success));
+                    break;
+                case ERROR:
+                    statusIcon.setImageResource(android.R.drawable.ic_delete);
+                    statusIcon.setContentDescription(itemView.getContext().getString(R.string.status_error));
+                    break;
+                case IDLE:
+                default:
+                    statusIcon.setImageResource(android.R.drawable.ic_dialog_info);
+                    statusIcon.setContentDescription(itemView.getContext().getString(R.string.status_idle));
+                    break;
+            }
+        }
+        
+        // Only an open circuit is shown, with the time from which a trial probe may run
+        private String formatCircuit(ServerTestResult result) {
+            if (result.circuitState != CircuitBreaker.State.OPEN) {
+                return null;
+            }
+            String retryAt = DateFormat.getTimeFormat(itemView.getContext()).format(new Date(result.circuitRetryAtMillis));
+            return itemView.getContext().getString(R.string.circuit_open, result.consecutiveFailures, retryAt);
+        }
+        
+        // Joins the measured phases, e.g. "DNS 2.1 ms · TCP 14.0 ms · TLS 31.5 ms · TTFB 48.2 ms · Body 0.4 ms",
+        // followed by the throughput in body-read mode
+        private String formatPhases(ServerTestResult result) {
+            long[] phaseNanos = result.phaseNanos;
+            if (phaseNanos == null) {
+                return null;
+            }
+            int[] labels = { result.dnsCached ? R.string.phase_dns_cached : R.string.phase_dns, R.string.phase_connect,
+                    R.string.phase_tls, R.string.phase_ttfb, R.string.phase_body };
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < labels.length && i < phaseNanos.length; i++) {
+                if (phaseNanos[i] < 0) {
+                    continue;
+                }
+                if (builder.length() > 0) {
+                    builder.append(" · ");
+                }
+                builder.append(itemView.getContext().getString(labels[i], phaseNanos[i] / 1e6));
+            }
+            long bodyNanos = phaseNanos.length >= 5 ? phaseNanos[4] : -1;
+            if (result.bodyBytes >= 0 && bodyNanos > 0) {
+                // Bytes per nanosecond times 1000 is decimal megabytes per second
+                builder.append(" · ").append(itemView.getContext().getString(
+                        result.bodyTruncated ? R.string.throughput_truncated : R.string.throughput,
+                        result.bodyBytes / 1e3, result.bodyBytes * 1e3 / bodyNanos));
             }
+            return builder.length() > 0 ? builder.toString() : null;
         }
     }
 }
\ No newline at end of file
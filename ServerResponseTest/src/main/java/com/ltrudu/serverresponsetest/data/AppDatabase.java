@@ -8,7 +8,7 @@ import androidx.room.migration.Migration;
 import androidx.sqlite.db.SupportSQLiteDatabase;
 import android.content.Context;
 
-@Database(entities = {Server.class, Settings.class}, version = 2, exportSchema = false)
+@Database(entities = {Server.class, Settings.class, ProbeResult.class, ProbeRollup.class}, version = 16, exportSchema = false)
 @TypeConverters({Converters.class})
 public abstract class AppDatabase extends RoomDatabase {
     
@@ -16,6 +16,8 @@ public abstract class AppDatabase extends RoomDatabase {
     
     public abstract ServerDao serverDao();
     public abstract SettingsDao settingsDao();
+    public abstract ProbeResultDao probeResultDao();
+    public abstract ProbeRollupDao probeRollupDao();
     
     static final Migration MIGRATION_1_2 = new Migration(1, 2) {
         @Override
@@ -38,13 +40,171 @@ public abstract class AppDatabase extends RoomDatabase {
         }
     };
     
+    static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            // Concurrent cycle mode and its parallelism limit
+            database.execSQL("ALTER TABLE settings ADD COLUMN `concurrent_mode` INTEGER NOT NULL DEFAULT 0");
+            database.execSQL("ALTER TABLE settings ADD COLUMN `max_concurrency` INTEGER NOT NULL DEFAULT 8");
+        }
+    };
+    
+    static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            // Per-server schedule, NULL means "use the global time between requests"
+            database.execSQL("ALTER TABLE servers ADD COLUMN `intervalMs` INTEGER");
+            database.execSQL("ALTER TABLE servers ADD COLUMN `initialOffsetMs` INTEGER");
+        }
+    };
+    
+    static final Migration MIGRATION_4_5 = new Migration(4, 5) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            // Load generator mode per server and the global in-flight cap
+            database.execSQL("ALTER TABLE servers ADD COLUMN `loadMode` TEXT");
+            database.execSQL("ALTER TABLE servers ADD COLUMN `loadTarget` INTEGER");
+            database.execSQL("ALTER TABLE settings ADD COLUMN `load_max_in_flight` INTEGER NOT NULL DEFAULT 256");
+        }
+    };
+    
+    static final Migration MIGRATION_5_6 = new Migration(5, 6) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            // Keep-alive connection reuse per server and the per-host pool limit
+            database.execSQL("ALTER TABLE servers ADD COLUMN `warmConnection` INTEGER NOT NULL DEFAULT 0");
+            database.execSQL("ALTER TABLE settings ADD COLUMN `max_connections_per_host` INTEGER NOT NULL DEFAULT 8");
+        }
+    };
+    
+    static final Migration MIGRATION_6_7 = new Migration(6, 7) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            // History of every probe, queried per server over a time range
+            database.execSQL("CREATE TABLE IF NOT EXISTS `probe_results` ("
+                    + "`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                    + "`server_id` INTEGER NOT NULL, "
+                    + "`timestamp` INTEGER NOT NULL, "
+                    + "`success` INTEGER NOT NULL, "
+                    + "`response_nanos` INTEGER NOT NULL, "
+                    + "`corrected_response_nanos` INTEGER NOT NULL, "
+                    + "`error_message` TEXT, "
+                    + "`connection_reused` INTEGER NOT NULL, "
+                    + "`dns_nanos` INTEGER NOT NULL, "
+                    + "`connect_nanos` INTEGER NOT NULL, "
+                    + "`tls_nanos` INTEGER NOT NULL, "
+                    + "`ttfb_nanos` INTEGER NOT NULL, "
+                    + "`body_nanos` INTEGER NOT NULL)");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_probe_results_server_id_timestamp` "
+                    + "ON `probe_results` (`server_id`, `timestamp`)");
+        }
+    };
+    
+    static final Migration MIGRATION_7_8 = new Migration(7, 8) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            // Minute and hour aggregates of the probe results and the raw result retention
+            database.execSQL("CREATE TABLE IF NOT EXISTS `probe_rollups` ("
+                    + "`server_id` INTEGER NOT NULL, "
+                    + "`resolution_ms` INTEGER NOT NULL, "
+                    + "`bucket_start` INTEGER NOT NULL, "
+                    + "`count` INTEGER NOT NULL, "
+                    + "`errors` INTEGER NOT NULL, "
+                    + "`min_nanos` INTEGER NOT NULL, "
+                    + "`max_nanos` INTEGER NOT NULL, "
+                    + "`sum_nanos` INTEGER NOT NULL, "
+                    + "`sketch` BLOB NOT NULL, "
+                    + "PRIMARY KEY(`server_id`, `resolution_ms`, `bucket_start`))");
+            database.execSQL("ALTER TABLE settings ADD COLUMN `raw_retention_hours` INTEGER NOT NULL DEFAULT 48");
+        }
+    };
+    
+    static final Migration MIGRATION_8_9 = new Migration(8, 9) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            // Minimum interval between two foreground notification updates
+            database.execSQL("ALTER TABLE settings ADD COLUMN `notification_interval_ms` INTEGER NOT NULL DEFAULT 1000");
+        }
+    };
+    
+    static final Migration MIGRATION_9_10 = new Migration(9, 10) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            // Choice between the blocking and the selector-based probe engine
+            database.execSQL("ALTER TABLE settings ADD COLUMN `non_blocking_engine` INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+    
+    static final Migration MIGRATION_10_11 = new Migration(10, 11) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            // TCP request type: requestType is stored by name, so existing rows need no change
+            database.execSQL("ALTER TABLE settings ADD COLUMN `tcp_connect_timeout_ms` INTEGER NOT NULL DEFAULT 3000");
+        }
+    };
+    
+    static final Migration MIGRATION_11_12 = new Migration(11, 12) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            // DNS request type and the shared resolver cache
+            database.execSQL("ALTER TABLE probe_results ADD COLUMN `dns_cached` INTEGER NOT NULL DEFAULT 0");
+            database.execSQL("ALTER TABLE settings ADD COLUMN `dns_cache_ttl_ms` INTEGER NOT NULL DEFAULT 60000");
+        }
+    };
+    
+    static final Migration MIGRATION_12_13 = new Migration(12, 13) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            // Body-read (throughput) mode per server, its byte limit and the bytes read per probe
+            database.execSQL("ALTER TABLE servers ADD COLUMN `readBody` INTEGER NOT NULL DEFAULT 0");
+            database.execSQL("ALTER TABLE settings ADD COLUMN `max_body_bytes` INTEGER NOT NULL DEFAULT 1048576");
+            database.execSQL("ALTER TABLE probe_results ADD COLUMN `body_bytes` INTEGER NOT NULL DEFAULT -1");
+            database.execSQL("ALTER TABLE probe_results ADD COLUMN `body_truncated` INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+    
+    static final Migration MIGRATION_13_14 = new Migration(13, 14) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            // HTTP method, extra headers and request body per server; NULL method means GET
+            database.execSQL("ALTER TABLE servers ADD COLUMN `httpMethod` TEXT");
+            database.execSQL("ALTER TABLE servers ADD COLUMN `requestHeaders` TEXT");
+            database.execSQL("ALTER TABLE servers ADD COLUMN `requestBody` TEXT");
+        }
+    };
+    
+    static final Migration MIGRATION_14_15 = new Migration(14, 15) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            // Response checks per server and the error class of each result
+            database.execSQL("ALTER TABLE servers ADD COLUMN `expectedStatus` TEXT");
+            database.execSQL("ALTER TABLE servers ADD COLUMN `expectedHeaders` TEXT");
+            database.execSQL("ALTER TABLE servers ADD COLUMN `expectedBody` TEXT");
+            database.execSQL("ALTER TABLE probe_results ADD COLUMN `error_class` TEXT");
+        }
+    };
+    
+    static final Migration MIGRATION_15_16 = new Migration(15, 16) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            // Per-server timeout, the bounds of adaptive timeouts and the timeout each probe ran with
+            database.execSQL("ALTER TABLE servers ADD COLUMN `timeoutMs` INTEGER");
+            database.execSQL("ALTER TABLE settings ADD COLUMN `min_timeout_ms` INTEGER NOT NULL DEFAULT 1000");
+            database.execSQL("ALTER TABLE settings ADD COLUMN `max_timeout_ms` INTEGER NOT NULL DEFAULT 10000");
+            database.execSQL("ALTER TABLE probe_results ADD COLUMN `timeout_ms` INTEGER NOT NULL DEFAULT -1");
+        }
+    };
+    
     public static AppDatabase getDatabase(final Context context) {
         if (INSTANCE == null) {
             synchronized (AppDatabase.class) {
                 if (INSTANCE == null) {
                     INSTANCE = Room.databaseBuilder(context.getApplicationContext(),
                             AppDatabase.class, "server_database")
-                            .addMigrations(MIGRATION_1_2)
+                            .addMigrations(MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4, MIGRATION_4_5, MIGRATION_5_6,
+                                    MIGRATION_6_7, MIGRATION_7_8, MIGRATION_8_9, MIGRATION_9_10, MIGRATION_10_11, MIGRATION_11_12,
+                                    MIGRATION_12_13, MIGRATION_13_14, MIGRATION_14_15,
+                                    MIGRATION_15_16)
                             .build();
                 }
             }
@@ -9,8 +9,39 @@ public class Converters {
         return requestType == null ? null : requestType.name();
     }
     
+    // Stored by name, so new request types need no schema change
     @TypeConverter
     public static Server.RequestType toRequestType(String requestType) {
         return requestType == null ? null : Server.RequestType.valueOf(requestType);
     }
+    
+    @TypeConverter
+    public static String fromLoadMode(Server.LoadMode loadMode) {
+        return loadMode == null ? null : loadMode.name();
+    }
+    
+    @TypeConverter
+    public static Server.LoadMode toLoadMode(String loadMode) {
+        return loadMode == null ? null : Server.LoadMode.valueOf(loadMode);
+    }
+    
+    @TypeConverter
+    public static String fromHttpMethod(Server.HttpMethod httpMethod) {
+        return httpMethod == null ? null : httpMethod.name();
+    }
+    
+    @TypeConverter
+    public static Server.HttpMethod toHttpMethod(String httpMethod) {
+        return httpMethod == null ? null : Server.HttpMethod.valueOf(httpMethod);
+    }
+    
+    @TypeConverter
+    public static String fromErrorClass(ProbeResult.ErrorClass errorClass) {
+        return errorClass == null ? null : errorClass.name();
+    }
+    
+    @TypeConverter
+    public static ProbeResult.ErrorClass toErrorClass(String errorClass) {
+        return errorClass == null ? null : ProbeResult.ErrorClass.valueOf(errorClass);
+    }
 }
\ No newline at end of file
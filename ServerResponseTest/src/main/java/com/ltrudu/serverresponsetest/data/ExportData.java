@@ -5,6 +5,8 @@ import java.util.List;
 public class ExportData {
     private List<Server> servers;
     private Settings settings;
+    // Last 24 hours per server, informational only (ignored on import)
+    private List<LatencySummary> latencySummaries;
     private String exportVersion = "2.0"; // Version for future compatibility
     private long exportTimestamp;
     
@@ -34,6 +36,14 @@ public class ExportData {
         this.settings = settings;
     }
     
+    public List<LatencySummary> getLatencySummaries() {
+        return latencySummaries;
+    }
+    
+    public void setLatencySummaries(List<LatencySummary> latencySummaries) {
+        this.latencySummaries = latencySummaries;
+    }
+    
     public String getExportVersion() {
         return exportVersion;
     }
@@ -0,0 +1,118 @@
+package com.ltrudu.serverresponsetest.data;
+
+/**
+ * Latency of one server over a time window, computed from the stored rollup sketches.
+ * Latencies are in milliseconds and cover successful probes only.
+ */
+public class LatencySummary {
+    private long serverId;
+    private String serverName;
+    private long fromTimestamp;
+    private long toTimestamp;
+    private long count;
+    private long errors;
+    private double meanMs;
+    private double p50Ms;
+    private double p90Ms;
+    private double p99Ms;
+    private double p999Ms;
+    private double maxMs;
+    
+    public LatencySummary() {}
+    
+    public long getServerId() {
+        return serverId;
+    }
+    
+    public void setServerId(long serverId) {
+        this.serverId = serverId;
+    }
+    
+    public String getServerName() {
+        return serverName;
+    }
+    
+    public void setServerName(String serverName) {
+        this.serverName = serverName;
+    }
+    
+    public long getFromTimestamp() {
+        return fromTimestamp;
+    }
+    
+    public void setFromTimestamp(long fromTimestamp) {
+        this.fromTimestamp = fromTimestamp;
+    }
+    
+    public long getToTimestamp() {
+        return toTimestamp;
+    }
+    
+    public void setToTimestamp(long toTimestamp) {
+        this.toTimestamp = toTimestamp;
+    }
+    
+    public long getCount() {
+        return count;
+    }
+    
+    public void setCount(long count) {
+        this.count = count;
+    }
+    
+    public long getErrors() {
+        return errors;
+    }
+    
+    public void setErrors(long errors) {
+        this.errors = errors;
+    }
+    
+    public double getMeanMs() {
+        return meanMs;
+    }
+    
+    public void setMeanMs(double meanMs) {
+        this.meanMs = meanMs;
+    }
+    
+    public double getP50Ms() {
+        return p50Ms;
+    }
+    
+    public void setP50Ms(double p50Ms) {
+        this.p50Ms = p50Ms;
+    }
+    
+    public double getP90Ms() {
+        return p90Ms;
+    }
+    
+    public void setP90Ms(double p90Ms) {
+        this.p90Ms = p90Ms;
+    }
+    
+    public double getP99Ms() {
+        return p99Ms;
+    }
+    
+    public void setP99Ms(double p99Ms) {
+        this.p99Ms = p99Ms;
+    }
+    
+    public double getP999Ms() {
+        return p999Ms;
+    }
+    
+    public void setP999Ms(double p999Ms) {
+        this.p999Ms = p999Ms;
+    }
+    
+    public double getMaxMs() {
+        return maxMs;
+    }
+    
+    public void setMaxMs(double maxMs) {
+        this.maxMs = maxMs;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,249 @@
+package com.ltrudu.serverresponsetest.data;
+
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Ignore;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+@Entity(tableName = "probe_results",
+        indices = {@Index(name = "index_probe_results_server_id_timestamp", value = {"server_id", "timestamp"})})
+public class ProbeResult {
+    
+    public enum ErrorClass {
+        NETWORK,        // DNS, connection, TLS, timeout or protocol error
+        HTTP_STATUS,    // Status outside 200-399 on a server without a status check
+        ASSERTION       // The response failed one of the server's checks
+    }
+    
+    @PrimaryKey(autoGenerate = true)
+    @ColumnInfo(name = "id")
+    private long id;
+    
+    @ColumnInfo(name = "server_id")
+    private long serverId;
+    
+    // Wall-clock time the probe completed, in epoch milliseconds
+    @ColumnInfo(name = "timestamp")
+    private long timestamp;
+    
+    @ColumnInfo(name = "success")
+    private boolean success;
+    
+    @ColumnInfo(name = "response_nanos")
+    private long responseNanos;
+    
+    @ColumnInfo(name = "corrected_response_nanos")
+    private long correctedResponseNanos;
+    
+    @ColumnInfo(name = "error_message")
+    private String errorMessage;
+    
+    // Null for a successful probe
+    @ColumnInfo(name = "error_class")
+    private ErrorClass errorClass;
+    
+    @ColumnInfo(name = "connection_reused")
+    private boolean connectionReused;
+    
+    // Phase durations in nanoseconds, -1 when not measured
+    @ColumnInfo(name = "dns_nanos")
+    private long dnsNanos = -1;
+    
+    // The host name came from DnsCache, so dns_nanos is only the cache lookup
+    @ColumnInfo(name = "dns_cached")
+    private boolean dnsCached;
+    
+    @ColumnInfo(name = "connect_nanos")
+    private long connectNanos = -1;
+    
+    @ColumnInfo(name = "tls_nanos")
+    private long tlsNanos = -1;
+    
+    @ColumnInfo(name = "ttfb_nanos")
+    private long ttfbNanos = -1;
+    
+    @ColumnInfo(name = "body_nanos")
+    private long bodyNanos = -1;
+    
+    // Body-read mode only, -1 otherwise
+    @ColumnInfo(name = "body_bytes")
+    private long bodyBytes = -1;
+    
+    // The body was longer than max_body_bytes and only its start was read
+    @ColumnInfo(name = "body_truncated")
+    private boolean bodyTruncated;
+    
+    // Connect and read timeout the probe ran with, -1 when none applied (DNS)
+    @ColumnInfo(name = "timeout_ms")
+    private int timeoutMs = -1;
+    
+    // Load-generator request: rolled up, but not stored as a raw row
+    @Ignore
+    private boolean load;
+    
+    public ProbeResult() {}
+    
+    @Ignore
+    public ProbeResult(long serverId, long timestamp, boolean success, long responseNanos, long correctedResponseNanos,
+                       String errorMessage) {
+        this.serverId = serverId;
+        this.timestamp = timestamp;
+        this.success = success;
+        this.responseNanos = responseNanos;
+        this.correctedResponseNanos = correctedResponseNanos;
+        this.errorMessage = errorMessage;
+    }
+    
+    public long getId() {
+        return id;
+    }
+    
+    public void setId(long id) {
+        this.id = id;
+    }
+    
+    public long getServerId() {
+        return serverId;
+    }
+    
+    public void setServerId(long serverId) {
+        this.serverId = serverId;
+    }
+    
+    public long getTimestamp() {
+        return timestamp;
+    }
+    
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+    
+    public boolean isSuccess() {
+        return success;
+    }
+    
+    public void setSuccess(boolean success) {
+        this.success = success;
+    }
+    
+    public long getResponseNanos() {
+        return responseNanos;
+    }
+    
+    public void setResponseNanos(long responseNanos) {
+        this.responseNanos = responseNanos;
+    }
+    
+    public long getCorrectedResponseNanos() {
+        return correctedResponseNanos;
+    }
+    
+    public void setCorrectedResponseNanos(long correctedResponseNanos) {
+        this.correctedResponseNanos = correctedResponseNanos;
+    }
+    
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+    
+    public void setErrorMessage(String errorMessage) {
+        this.errorMessage = errorMessage;
+    }
+    
+    public boolean isConnectionReused() {
+        return connectionReused;
+    }
+    
+    public void setConnectionReused(boolean connectionReused) {
+        this.connectionReused = connectionReused;
+    }
+    
+    public long getDnsNanos() {
+        return dnsNanos;
+    }
+    
+    public void setDnsNanos(long dnsNanos) {
+        this.dnsNanos = dnsNanos;
+    }
+    
+    public long getConnectNanos() {
+        return connectNanos;
+    }
+    
+    public void setConnectNanos(long connectNanos) {
+        this.connectNanos = connectNanos;
+    }
+    
+    public long getTlsNanos() {
+        return tlsNanos;
+    }
+    
+    public void setTlsNanos(long tlsNanos) {
+        this.tlsNanos = tlsNanos;
+    }
+    
+    public long getTtfbNanos() {
+        return ttfbNanos;
+    }
+    
+    public void setTtfbNanos(long ttfbNanos) {
+        this.ttfbNanos = ttfbNanos;
+    }
+    
+    public long getBodyNanos() {
+        return bodyNanos;
+    }
+    
+    public void setBodyNanos(long bodyNanos) {
+        this.bodyNanos = bodyNanos;
+    }
+    
+    public boolean isDnsCached() {
+        return dnsCached;
+    }
+    
+    public void setDnsCached(boolean dnsCached) {
+        this.dnsCached = dnsCached;
+    }
+    
+    public long getBodyBytes() {
+        return bodyBytes;
+    }
+    
+    public void setBodyBytes(long bodyBytes) {
+        this.bodyBytes = bodyBytes;
+    }
+    
+    public boolean isBodyTruncated() {
+        return bodyTruncated;
+    }
+    
+    public void setBodyTruncated(boolean bodyTruncated) {
+        this.bodyTruncated = bodyTruncated;
+    }
+    
+    public ErrorClass getErrorClass() {
+        return errorClass;
+    }
+    
+    public void setErrorClass(ErrorClass errorClass) {
+        this.errorClass = errorClass;
+    }
+    
+    public int getTimeoutMs() {
+        return timeoutMs;
+    }
+    
+    public void setTimeoutMs(int timeoutMs) {
+        this.timeoutMs = timeoutMs;
+    }
+    
+    public boolean isLoad() {
+        return load;
+    }
+    
+    public void setLoad(boolean load) {
+        this.load = load;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,36 @@
+package com.ltrudu.serverresponsetest.data;
+
+import androidx.lifecycle.LiveData;
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.Query;
+
+import java.util.List;
+
+@Dao
+public interface ProbeResultDao {
+    
+    @Insert
+    void insertProbeResults(List<ProbeResult> results);
+    
+    @Query("SELECT * FROM probe_results WHERE server_id = :serverId AND timestamp >= :fromTimestamp "
+            + "ORDER BY timestamp ASC")
+    List<ProbeResult> getResultsSince(long serverId, long fromTimestamp);
+    
+    @Query("SELECT * FROM probe_results WHERE server_id = :serverId ORDER BY timestamp DESC LIMIT :limit")
+    LiveData<List<ProbeResult>> getLatestResults(long serverId, int limit);
+    
+    @Query("SELECT COUNT(*) FROM probe_results")
+    int getResultCount();
+    
+    // Oldest rows first, in chunks so a large purge does not hold the write lock for long
+    @Query("DELETE FROM probe_results WHERE id IN (SELECT id FROM probe_results WHERE timestamp < :cutoffTimestamp "
+            + "ORDER BY id ASC LIMIT :limit)")
+    int deleteResultsBefore(long cutoffTimestamp, int limit);
+    
+    @Query("DELETE FROM probe_results WHERE server_id = :serverId")
+    void deleteResultsForServer(long serverId);
+    
+    @Query("DELETE FROM probe_results")
+    void deleteAllResults();
+}
\ No newline at end of file
@@ -0,0 +1,121 @@
+package com.ltrudu.serverresponsetest.data;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+
+/**
+ * Aggregate of the probes of one server over one minute or one hour. Latency columns and the
+ * sketch cover successful probes only, like the live histograms.
+ */
+@Entity(tableName = "probe_rollups", primaryKeys = {"server_id", "resolution_ms", "bucket_start"})
+public class ProbeRollup {
+    
+    public static final long RESOLUTION_MINUTE_MS = 60_000L;
+    public static final long RESOLUTION_HOUR_MS = 3_600_000L;
+    
+    @ColumnInfo(name = "server_id")
+    private long serverId;
+    
+    @ColumnInfo(name = "resolution_ms")
+    private long resolutionMs;
+    
+    // Start of the bucket in epoch milliseconds, a multiple of resolution_ms
+    @ColumnInfo(name = "bucket_start")
+    private long bucketStart;
+    
+    @ColumnInfo(name = "count")
+    private long count;
+    
+    @ColumnInfo(name = "errors")
+    private long errors;
+    
+    @ColumnInfo(name = "min_nanos")
+    private long minNanos;
+    
+    @ColumnInfo(name = "max_nanos")
+    private long maxNanos;
+    
+    @ColumnInfo(name = "sum_nanos")
+    private long sumNanos;
+    
+    // LatencyHistogram.toBytes() of the bucket
+    @NonNull
+    @ColumnInfo(name = "sketch", typeAffinity = ColumnInfo.BLOB)
+    private byte[] sketch = new byte[0];
+    
+    public ProbeRollup() {}
+    
+    public long getServerId() {
+        return serverId;
+    }
+    
+    public void setServerId(long serverId) {
+        this.serverId = serverId;
+    }
+    
+    public long getResolutionMs() {
+        return resolutionMs;
+    }
+    
+    public void setResolutionMs(long resolutionMs) {
+        this.resolutionMs = resolutionMs;
+    }
+    
+    public long getBucketStart() {
+        return bucketStart;
+    }
+    
+    public void setBucketStart(long bucketStart) {
+        this.bucketStart = bucketStart;
+    }
+    
+    public long getCount() {
+        return count;
+    }
+    
+    public void setCount(long count) {
+        this.count = count;
+    }
+    
+    public long getErrors() {
+        return errors;
+    }
+    
+    public void setErrors(long errors) {
+        this.errors = errors;
+    }
+    
+    public long getMinNanos() {
+        return minNanos;
+    }
+    
+    public void setMinNanos(long minNanos) {
+        this.minNanos = minNanos;
+    }
+    
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+    
+    public void setMaxNanos(long maxNanos) {
+        this.maxNanos = maxNanos;
+    }
+    
+    public long getSumNanos() {
+        return sumNanos;
+    }
+    
+    public void setSumNanos(long sumNanos) {
+        this.sumNanos = sumNanos;
+    }
+    
+    @NonNull
+    public byte[] getSketch() {
+        return sketch;
+    }
+    
+    public void setSketch(@NonNull byte[] sketch) {
+        this.sketch = sketch;
+    }
+}
\ No newline at end of file
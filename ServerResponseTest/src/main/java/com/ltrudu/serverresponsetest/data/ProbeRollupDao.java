@@ -0,0 +1,37 @@
+package com.ltrudu.serverresponsetest.data;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+
+import java.util.List;
+
+@Dao
+public interface ProbeRollupDao {
+    
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void upsertRollups(List<ProbeRollup> rollups);
+    
+    @Query("SELECT * FROM probe_rollups WHERE server_id = :serverId AND resolution_ms = :resolutionMs "
+            + "AND bucket_start = :bucketStart")
+    ProbeRollup getRollup(long serverId, long resolutionMs, long bucketStart);
+    
+    // Null when the bucket has no row
+    @Query("SELECT count FROM probe_rollups WHERE server_id = :serverId AND resolution_ms = :resolutionMs "
+            + "AND bucket_start = :bucketStart")
+    Long getRollupCount(long serverId, long resolutionMs, long bucketStart);
+    
+    @Query("SELECT * FROM probe_rollups WHERE server_id = :serverId AND resolution_ms = :resolutionMs "
+            + "AND bucket_start >= :fromBucketStart AND bucket_start < :toTimestamp ORDER BY bucket_start ASC")
+    List<ProbeRollup> getRollups(long serverId, long resolutionMs, long fromBucketStart, long toTimestamp);
+    
+    @Query("DELETE FROM probe_rollups WHERE resolution_ms = :resolutionMs AND bucket_start < :cutoffTimestamp")
+    int deleteRollupsBefore(long resolutionMs, long cutoffTimestamp);
+    
+    @Query("DELETE FROM probe_rollups WHERE server_id = :serverId")
+    void deleteRollupsForServer(long serverId);
+    
+    @Query("DELETE FROM probe_rollups")
+    void deleteAllRollups();
+}
\ No newline at end of file
@@ -12,9 +12,48 @@ public class Server {
     private String address;
     private Integer port;
     private RequestType requestType;
+    private Integer intervalMs;
+    private Integer initialOffsetMs;
+    // Connect and read timeout, null to derive it from the server's recent latency
+    private Integer timeoutMs;
+    private LoadMode loadMode;
+    private Integer loadTarget;
+    private boolean warmConnection;
+    // HTTP only: read the response body to measure throughput
+    private boolean readBody;
+    // HTTP only: null means GET
+    private HttpMethod httpMethod;
+    // HTTP only: extra "Name: value" header lines, one per line
+    private String requestHeaders;
+    // HTTP only: body sent with POST and PUT requests
+    private String requestBody;
+    // HTTP only: response checks, see ResponseAssertions; null when not set
+    private String expectedStatus;
+    private String expectedHeaders;
+    private String expectedBody;
     
     public enum RequestType {
-        HTTPS, PING
+        HTTPS,
+        PING,
+        TCP,    // Connect-only probe to the configured port
+        DNS     // Host name resolution only, bypassing the resolver cache
+    }
+    
+    public enum HttpMethod {
+        GET,
+        HEAD,   // Headers only, the cheapest HTTP health check
+        POST,
+        PUT;
+        
+        public boolean hasRequestBody() {
+            return this == POST || this == PUT;
+        }
+    }
+    
+    public enum LoadMode {
+        NONE,           // One request per schedule slot
+        RPS,            // Open-loop, loadTarget requests per second
+        VIRTUAL_USERS   // Closed-loop, loadTarget concurrent users
     }
     
     public Server() {}
@@ -65,4 +104,112 @@ public class Server {
     public void setRequestType(RequestType requestType) {
         this.requestType = requestType;
     }
+    
+    public Integer getIntervalMs() {
+        return intervalMs;
+    }
+    
+    public void setIntervalMs(Integer intervalMs) {
+        this.intervalMs = intervalMs;
+    }
+    
+    public Integer getInitialOffsetMs() {
+        return initialOffsetMs;
+    }
+    
+    public void setInitialOffsetMs(Integer initialOffsetMs) {
+        this.initialOffsetMs = initialOffsetMs;
+    }
+    
+    public Integer getTimeoutMs() {
+        return timeoutMs;
+    }
+    
+    public void setTimeoutMs(Integer timeoutMs) {
+        this.timeoutMs = timeoutMs;
+    }
+    
+    public LoadMode getLoadMode() {
+        return loadMode;
+    }
+    
+    public void setLoadMode(LoadMode loadMode) {
+        this.loadMode = loadMode;
+    }
+    
+    public Integer getLoadTarget() {
+        return loadTarget;
+    }
+    
+    public void setLoadTarget(Integer loadTarget) {
+        this.loadTarget = loadTarget;
+    }
+    
+    public boolean isWarmConnection() {
+        return warmConnection;
+    }
+    
+    public void setWarmConnection(boolean warmConnection) {
+        this.warmConnection = warmConnection;
+    }
+    
+    public boolean isReadBody() {
+        return readBody;
+    }
+    
+    public void setReadBody(boolean readBody) {
+        this.readBody = readBody;
+    }
+    
+    public HttpMethod getHttpMethod() {
+        return httpMethod;
+    }
+    
+    public void setHttpMethod(HttpMethod httpMethod) {
+        this.httpMethod = httpMethod;
+    }
+    
+    public String getRequestHeaders() {
+        return requestHeaders;
+    }
+    
+    public void setRequestHeaders(String requestHeaders) {
+        this.requestHeaders = requestHeaders;
+    }
+    
+    public String getRequestBody() {
+        return requestBody;
+    }
+    
+    public void setRequestBody(String requestBody) {
+        this.requestBody = requestBody;
+    }
+    
+    public String getExpectedStatus() {
+        return expectedStatus;
+    }
+    
+    public void setExpectedStatus(String expectedStatus) {
+        this.expectedStatus = expectedStatus;
+    }
+    
+    public String getExpectedHeaders() {
+        return expectedHeaders;
+    }
+    
+    public void setExpectedHeaders(String expectedHeaders) {
+        this.expectedHeaders = expectedHeaders;
+    }
+    
+    public String getExpectedBody() {
+        return expectedBody;
+    }
+    
+    public void setExpectedBody(String expectedBody) {
+        this.expectedBody = expectedBody;
+    }
+    
+    public boolean isLoadTest() {
+        return loadMode != null && loadMode != LoadMode.NONE;
+    }
 }
\ No newline at end of file
@@ -18,6 +18,9 @@ public interface ServerDao {
     @Query("SELECT * FROM servers ORDER BY name ASC")
     List<Server> getAllServersSync();
     
+    @Query("SELECT id FROM servers")
+    List<Long> getAllServerIds();
+    
     @Query("SELECT * FROM servers WHERE id = :id")
     LiveData<Server> getServerById(long id);
     
@@ -30,6 +30,42 @@ public class Settings {
     @ColumnInfo(name = "number_of_requests")
     private int numberOfRequests = 10;
     
+    @ColumnInfo(name = "concurrent_mode")
+    private boolean concurrentMode = false;
+    
+    @ColumnInfo(name = "max_concurrency")
+    private int maxConcurrency = 8;
+    
+    @ColumnInfo(name = "non_blocking_engine")
+    private boolean nonBlockingEngine = false;
+    
+    @ColumnInfo(name = "load_max_in_flight")
+    private int loadMaxInFlight = 256;
+    
+    @ColumnInfo(name = "max_connections_per_host")
+    private int maxConnectionsPerHost = 8;
+    
+    @ColumnInfo(name = "raw_retention_hours")
+    private int rawRetentionHours = 48;
+    
+    @ColumnInfo(name = "notification_interval_ms")
+    private int notificationIntervalMs = 1000;
+    
+    @ColumnInfo(name = "tcp_connect_timeout_ms")
+    private int tcpConnectTimeoutMs = 3000;
+    
+    @ColumnInfo(name = "dns_cache_ttl_ms")
+    private int dnsCacheTtlMs = 60000;
+    
+    @ColumnInfo(name = "max_body_bytes")
+    private int maxBodyBytes = 1048576;
+    
+    @ColumnInfo(name = "min_timeout_ms")
+    private int minTimeoutMs = 1000;
+    
+    @ColumnInfo(name = "max_timeout_ms")
+    private int maxTimeoutMs = 10000;
+    
     // Constructor
     public Settings() {}
     
@@ -101,6 +137,102 @@ public class Settings {
         this.numberOfRequests = numberOfRequests;
     }
     
+    public boolean isConcurrentMode() {
+        return concurrentMode;
+    }
+    
+    public void setConcurrentMode(boolean concurrentMode) {
+        this.concurrentMode = concurrentMode;
+    }
+    
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+    
+    public void setMaxConcurrency(int maxConcurrency) {
+        this.maxConcurrency = maxConcurrency;
+    }
+    
+    public boolean isNonBlockingEngine() {
+        return nonBlockingEngine;
+    }
+    
+    public void setNonBlockingEngine(boolean nonBlockingEngine) {
+        this.nonBlockingEngine = nonBlockingEngine;
+    }
+    
+    public int getLoadMaxInFlight() {
+        return loadMaxInFlight;
+    }
+    
+    public void setLoadMaxInFlight(int loadMaxInFlight) {
+        this.loadMaxInFlight = loadMaxInFlight;
+    }
+    
+    public int getMaxConnectionsPerHost() {
+        return maxConnectionsPerHost;
+    }
+    
+    public void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+    }
+    
+    public int getRawRetentionHours() {
+        return rawRetentionHours;
+    }
+    
+    public void setRawRetentionHours(int rawRetentionHours) {
+        this.rawRetentionHours = rawRetentionHours;
+    }
+    
+    public int getNotificationIntervalMs() {
+        return notificationIntervalMs;
+    }
+    
+    public void setNotificationIntervalMs(int notificationIntervalMs) {
+        this.notificationIntervalMs = notificationIntervalMs;
+    }
+    
+    public int getTcpConnectTimeoutMs() {
+        return tcpConnectTimeoutMs;
+    }
+    
+    public void setTcpConnectTimeoutMs(int tcpConnectTimeoutMs) {
+        this.tcpConnectTimeoutMs = tcpConnectTimeoutMs;
+    }
+    
+    public int getDnsCacheTtlMs() {
+        return dnsCacheTtlMs;
+    }
+    
+    public void setDnsCacheTtlMs(int dnsCacheTtlMs) {
+        this.dnsCacheTtlMs = dnsCacheTtlMs;
+    }
+    
+    public int getMaxBodyBytes() {
+        return maxBodyBytes;
+    }
+    
+    public void setMaxBodyBytes(int maxBodyBytes) {
+        this.maxBodyBytes = maxBodyBytes;
+    }
+    
+    public int getMinTimeoutMs() {
+        return minTimeoutMs;
+    }
+    
+    public void setMinTimeoutMs(int minTimeoutMs) {
+        this.minTimeoutMs = minTimeoutMs;
+    }
+    
+    public int getMaxTimeoutMs() {
+        return maxTimeoutMs;
+    }
+    
+    public void setMaxTimeoutMs(int maxTimeoutMs) {
+        this.maxTimeoutMs = maxTimeoutMs;
+    }
+    
     // Create default settings instance
     public static Settings getDefault() {
         return new Settings(5000, 100, 50, 100, true, 10);
@@ -43,4 +43,40 @@ public interface SettingsDao {
     
     @Query("UPDATE settings SET number_of_requests = :value WHERE id = 1")
     void updateNumberOfRequests(int value);
+    
+    @Query("UPDATE settings SET concurrent_mode = :value WHERE id = 1")
+    void updateConcurrentMode(boolean value);
+    
+    @Query("UPDATE settings SET non_blocking_engine = :value WHERE id = 1")
+    void updateNonBlockingEngine(boolean value);
+    
+    @Query("UPDATE settings SET max_concurrency = :value WHERE id = 1")
+    void updateMaxConcurrency(int value);
+    
+    @Query("UPDATE settings SET load_max_in_flight = :value WHERE id = 1")
+    void updateLoadMaxInFlight(int value);
+    
+    @Query("UPDATE settings SET max_connections_per_host = :value WHERE id = 1")
+    void updateMaxConnectionsPerHost(int value);
+    
+    @Query("UPDATE settings SET raw_retention_hours = :value WHERE id = 1")
+    void updateRawRetentionHours(int value);
+    
+    @Query("UPDATE settings SET notification_interval_ms = :value WHERE id = 1")
+    void updateNotificationIntervalMs(int value);
+    
+    @Query("UPDATE settings SET tcp_connect_timeout_ms = :value WHERE id = 1")
+    void updateTcpConnectTimeoutMs(int value);
+    
+    @Query("UPDATE settings SET dns_cache_ttl_ms = :value WHERE id = 1")
+    void updateDnsCacheTtlMs(int value);
+    
+    @Query("UPDATE settings SET max_body_bytes = :value WHERE id = 1")
+    void updateMaxBodyBytes(int value);
+    
+    @Query("UPDATE settings SET min_timeout_ms = :value WHERE id = 1")
+    void updateMinTimeoutMs(int value);
+    
+    @Query("UPDATE settings SET max_timeout_ms = :value WHERE id = 1")
+    void updateMaxTimeoutMs(int value);
 }
\ No newline at end of file
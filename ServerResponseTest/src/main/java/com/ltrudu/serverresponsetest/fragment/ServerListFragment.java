@@ -16,14 +16,19 @@ import androidx.lifecycle.ViewModelProvider;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 import com.google.android.material.button.MaterialButtonToggleGroup;
+import com.google.android.material.checkbox.MaterialCheckBox;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 import com.google.android.material.textfield.TextInputEditText;
 import com.google.android.material.textfield.TextInputLayout;
 import com.ltrudu.serverresponsetest.R;
 import com.ltrudu.serverresponsetest.adapter.ServerAdapter;
 import com.ltrudu.serverresponsetest.data.Server;
+import com.ltrudu.serverresponsetest.service.HttpProbeClient;
+import com.ltrudu.serverresponsetest.service.ResponseAssertions;
 import com.ltrudu.serverresponsetest.viewmodel.ServerViewModel;
 
+import java.net.MalformedURLException;
+
 public class ServerListFragment extends Fragment {
     
     private ServerViewModel serverViewModel;
@@ -90,9 +95,31 @@ public class ServerListFragment extends Fragment {
         TextInputEditText nameEditText = dialogView.findViewById(R.id.nameEditText);
         TextInputEditText addressEditText = dialogView.findViewById(R.id.addressEditText);
         TextInputEditText portEditText = dialogView.findViewById(R.id.portEditText);
+        TextInputLayout intervalInputLayout = dialogView.findViewById(R.id.intervalInputLayout);
+        TextInputLayout initialOffsetInputLayout = dialogView.findViewById(R.id.initialOffsetInputLayout);
+        TextInputEditText intervalEditText = dialogView.findViewById(R.id.intervalEditText);
+        TextInputEditText initialOffsetEditText = dialogView.findViewById(R.id.initialOffsetEditText);
+        TextInputLayout timeoutInputLayout = dialogView.findViewById(R.id.timeoutInputLayout);
+        TextInputEditText timeoutEditText = dialogView.findViewById(R.id.timeoutEditText);
         MaterialButtonToggleGroup requestTypeToggleGroup = dialogView.findViewById(R.id.requestTypeToggleGroup);
         Button httpButton = dialogView.findViewById(R.id.httpButton);
         Button pingButton = dialogView.findViewById(R.id.pingButton);
+        View httpOptionsLayout = dialogView.findViewById(R.id.httpOptionsLayout);
+        MaterialButtonToggleGroup httpMethodToggleGroup = dialogView.findViewById(R.id.httpMethodToggleGroup);
+        TextInputLayout requestHeadersInputLayout = dialogView.findViewById(R.id.requestHeadersInputLayout);
+        TextInputEditText requestHeadersEditText = dialogView.findViewById(R.id.requestHeadersEditText);
+        TextInputLayout requestBodyInputLayout = dialogView.findViewById(R.id.requestBodyInputLayout);
+        TextInputEditText requestBodyEditText = dialogView.findViewById(R.id.requestBodyEditText);
+        MaterialCheckBox warmConnectionCheckBox = dialogView.findViewById(R.id.warmConnectionCheckBox);
+        MaterialCheckBox readBodyCheckBox = dialogView.findViewById(R.id.readBodyCheckBox);
+        TextInputLayout expectedStatusInputLayout = dialogView.findViewById(R.id.expectedStatusInputLayout);
+        TextInputEditText expectedStatusEditText = dialogView.findViewById(R.id.expectedStatusEditText);
+        TextInputLayout expectedHeadersInputLayout = dialogView.findViewById(R.id.expectedHeadersInputLayout);
+        TextInputEditText expectedHeadersEditText = dialogView.findViewById(R.id.expectedHeadersEditText);
+        TextInputEditText expectedBodyEditText = dialogView.findViewById(R.id.expectedBodyEditText);
+        MaterialButtonToggleGroup loadModeToggleGroup = dialogView.findViewById(R.id.loadModeToggleGroup);
+        TextInputLayout loadTargetInputLayout = dialogView.findViewById(R.id.loadTargetInputLayout);
+        TextInputEditText loadTargetEditText = dialogView.findViewById(R.id.loadTargetEditText);
         Button deleteButton = dialogView.findViewById(R.id.deleteButton);
         Button cancelButton = dialogView.findViewById(R.id.cancelButton);
         Button saveButton = dialogView.findViewById(R.id.saveButton);
@@ -105,19 +132,63 @@ public class ServerListFragment extends Fragment {
             if (existingServer.getPort() != null) {
                 portEditText.setText(String.valueOf(existingServer.getPort()));
             }
+            if (existingServer.getIntervalMs() != null) {
+                intervalEditText.setText(String.valueOf(existingServer.getIntervalMs()));
+            }
+            if (existingServer.getInitialOffsetMs() != null) {
+                initialOffsetEditText.setText(String.valueOf(existingServer.getInitialOffsetMs()));
+            }
+            if (existingServer.getTimeoutMs() != null) {
+                timeoutEditText.setText(String.valueOf(existingServer.getTimeoutMs()));
+            }
             
             if (existingServer.getRequestType() == Server.RequestType.HTTPS) {
                 requestTypeToggleGroup.check(R.id.httpButton);
+            } else if (existingServer.getRequestType() == Server.RequestType.TCP) {
+                requestTypeToggleGroup.check(R.id.tcpButton);
+            } else if (existingServer.getRequestType() == Server.RequestType.DNS) {
+                requestTypeToggleGroup.check(R.id.dnsButton);
             } else {
                 requestTypeToggleGroup.check(R.id.pingButton);
             }
             
+            warmConnectionCheckBox.setChecked(existingServer.isWarmConnection());
+            readBodyCheckBox.setChecked(existingServer.isReadBody());
+            httpMethodToggleGroup.check(methodButtonId(existingServer.getHttpMethod()));
+            requestHeadersEditText.setText(existingServer.getRequestHeaders());
+            requestBodyEditText.setText(existingServer.getRequestBody());
+            expectedStatusEditText.setText(existingServer.getExpectedStatus());
+            expectedHeadersEditText.setText(existingServer.getExpectedHeaders());
+            expectedBodyEditText.setText(existingServer.getExpectedBody());
+            
+            if (existingServer.getLoadMode() == Server.LoadMode.RPS) {
+                loadModeToggleGroup.check(R.id.loadRpsButton);
+            } else if (existingServer.getLoadMode() == Server.LoadMode.VIRTUAL_USERS) {
+                loadModeToggleGroup.check(R.id.loadUsersButton);
+            } else {
+                loadModeToggleGroup.check(R.id.loadOffButton);
+            }
+            if (existingServer.getLoadTarget() != null) {
+                loadTargetEditText.setText(String.valueOf(existingServer.getLoadTarget()));
+            }
+            
             // Show delete button only when editing
             deleteButton.setVisibility(View.VISIBLE);
         } else {
             requestTypeToggleGroup.check(R.id.httpButton);
+            httpMethodToggleGroup.check(R.id.methodGetButton);
+            loadModeToggleGroup.check(R.id.loadOffButton);
             deleteButton.setVisibility(View.GONE);
         }
+        updateLoadTargetField(loadModeToggleGroup.getCheckedButtonId(), loadTargetInputLayout);
+        // Method, headers, connection reuse and body reading only apply to HTTP
+        httpOptionsLayout.setVisibility(requestTypeToggleGroup.getCheckedButtonId() == R.id.httpButton ? View.VISIBLE : View.GONE);
+        updateHttpMethodFields(httpMethodToggleGroup.getCheckedButtonId(), requestBodyInputLayout, readBodyCheckBox);
+        httpMethodToggleGroup.addOnButtonCheckedListener((group, checkedId, isChecked) -> {
+            if (isChecked) {
+                updateHttpMethodFields(checkedId, requestBodyInputLayout, readBodyCheckBox);
+            }
+        });
         
         AlertDialog dialog = new AlertDialog.Builder(requireContext())
                 .setTitle(isEdit ? R.string.edit_server : R.string.add_server)
@@ -130,6 +201,7 @@ public class ServerListFragment extends Fragment {
         // Setup automatic HTTPS prefix handling
         requestTypeToggleGroup.addOnButtonCheckedListener((group, checkedId, isChecked) -> {
             if (isChecked) {
+                httpOptionsLayout.setVisibility(checkedId == R.id.httpButton ? View.VISIBLE : View.GONE);
                 String currentAddress = addressEditText.getText().toString().trim();
                 
                 if (checkedId == R.id.httpButton) { // HTTPS selected
@@ -140,8 +212,8 @@ public class ServerListFragment extends Fragment {
                         }
                         addressEditText.setText("https://" + currentAddress);
                     }
-                } else if (checkedId == R.id.pingButton) { // Ping selected
-                    // Remove protocol prefix for ping
+                } else { // Ping, TCP or DNS selected
+                    // Remove protocol prefix, these types only take a host
                     if (currentAddress.startsWith("https://")) {
                         currentAddress = currentAddress.substring(8);
                         addressEditText.setText(currentAddress);
@@ -153,6 +225,13 @@ public class ServerListFragment extends Fragment {
             }
         });
         
+        // The load target only applies to, and is labelled after, the selected load mode
+        loadModeToggleGroup.addOnButtonCheckedListener((group, checkedId, isChecked) -> {
+            if (isChecked) {
+                updateLoadTargetField(checkedId, loadTargetInputLayout);
+            }
+        });
+        
         // Initialize address field if creating new HTTPS server
         if (!isEdit && requestTypeToggleGroup.getCheckedButtonId() == R.id.httpButton) {
             if (addressEditText.getText().toString().isEmpty()) {
@@ -162,9 +241,24 @@ public class ServerListFragment extends Fragment {
         
         // Setup custom button click listeners
         saveButton.setOnClickListener(view -> {
-            if (validateInput(nameInputLayout, addressInputLayout, portInputLayout, 
-                    nameEditText, addressEditText, portEditText)) {
-                saveServer(existingServer, nameEditText, addressEditText, portEditText, requestTypeToggleGroup);
+            boolean isValid = validateInput(nameInputLayout, addressInputLayout, portInputLayout, 
+                    nameEditText, addressEditText, portEditText);
+            isValid &= validateOptionalDuration(intervalInputLayout, intervalEditText, false);
+            isValid &= validateOptionalDuration(initialOffsetInputLayout, initialOffsetEditText, true);
+            isValid &= validateOptionalDuration(timeoutInputLayout, timeoutEditText, false);
+            isValid &= validateLoadTarget(loadModeToggleGroup, loadTargetInputLayout, loadTargetEditText);
+            isValid &= validateTcpPort(requestTypeToggleGroup, portInputLayout, portEditText);
+            isValid &= validateHeaders(requestTypeToggleGroup, requestHeadersInputLayout, requestHeadersEditText,
+                    true, R.string.error_invalid_headers);
+            isValid &= validateExpectedStatus(requestTypeToggleGroup, expectedStatusInputLayout, expectedStatusEditText);
+            isValid &= validateHeaders(requestTypeToggleGroup, expectedHeadersInputLayout, expectedHeadersEditText,
+                    false, R.string.error_invalid_expected_headers);
+            if (isValid) {
+                saveServer(existingServer, nameEditText, addressEditText, portEditText, requestTypeToggleGroup,
+                        intervalEditText, initialOffsetEditText, timeoutEditText, loadModeToggleGroup,
+                        loadTargetEditText, warmConnectionCheckBox, readBodyCheckBox, httpMethodToggleGroup,
+                        requestHeadersEditText, requestBodyEditText, expectedStatusEditText, expectedHeadersEditText,
+                        expectedBodyEditText);
                 dialog.dismiss();
             }
         });
@@ -198,6 +292,14 @@ public class ServerListFragment extends Fragment {
         if (TextUtils.isEmpty(address)) {
             addressInputLayout.setError(getString(R.string.error_empty_address));
             isValid = false;
+        } else {
+            // Same check as the probe plan compiled when a run starts
+            try {
+                HttpProbeClient.Target.hostOf(address);
+            } catch (MalformedURLException e) {
+                addressInputLayout.setError(getString(R.string.error_invalid_address));
+                isValid = false;
+            }
         }
         
         String portText = portEditText.getText().toString().trim();
@@ -217,25 +319,203 @@ public class ServerListFragment extends Fragment {
         return isValid;
     }
     
+    // A TCP probe connects to the configured port, there is no default to fall back on
+    private boolean validateTcpPort(MaterialButtonToggleGroup requestTypeToggleGroup, TextInputLayout portInputLayout,
+                                    TextInputEditText portEditText) {
+        if (requestTypeToggleGroup.getCheckedButtonId() != R.id.tcpButton
+                || !TextUtils.isEmpty(portEditText.getText().toString().trim())) {
+            return true;
+        }
+        portInputLayout.setError(getString(R.string.error_tcp_port_required));
+        return false;
+    }
+    
+    // Every non-blank line must read "Name: value", or just "Name" when the value is optional
+    private boolean validateHeaders(MaterialButtonToggleGroup requestTypeToggleGroup, TextInputLayout headersInputLayout,
+                                    TextInputEditText headersEditText, boolean valueRequired, int errorRes) {
+        headersInputLayout.setError(null);
+        if (requestTypeToggleGroup.getCheckedButtonId() != R.id.httpButton) {
+            return true;
+        }
+        for (String line : headersEditText.getText().toString().split("\n")) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            int colon = line.indexOf(':');
+            String name = colon >= 0 ? line.substring(0, colon).trim() : valueRequired ? "" : line.trim();
+            if (name.isEmpty() || !name.matches("[!#$%&'*+.^_`|~0-9A-Za-z-]+")) {
+                headersInputLayout.setError(getString(errorRes));
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private boolean validateExpectedStatus(MaterialButtonToggleGroup requestTypeToggleGroup, TextInputLayout statusInputLayout,
+                                           TextInputEditText statusEditText) {
+        statusInputLayout.setError(null);
+        String text = statusEditText.getText().toString().trim();
+        if (requestTypeToggleGroup.getCheckedButtonId() != R.id.httpButton || text.isEmpty()
+                || ResponseAssertions.parseStatusRanges(text) != null) {
+            return true;
+        }
+        statusInputLayout.setError(getString(R.string.error_invalid_status));
+        return false;
+    }
+    
+    private static int methodButtonId(Server.HttpMethod method) {
+        if (method == Server.HttpMethod.HEAD) {
+            return R.id.methodHeadButton;
+        } else if (method == Server.HttpMethod.POST) {
+            return R.id.methodPostButton;
+        } else if (method == Server.HttpMethod.PUT) {
+            return R.id.methodPutButton;
+        }
+        return R.id.methodGetButton;
+    }
+    
+    // The body field is for POST and PUT; a HEAD response has no body to read
+    private void updateHttpMethodFields(int checkedId, TextInputLayout requestBodyInputLayout, MaterialCheckBox readBodyCheckBox) {
+        boolean sendsBody = checkedId == R.id.methodPostButton || checkedId == R.id.methodPutButton;
+        requestBodyInputLayout.setVisibility(sendsBody ? View.VISIBLE : View.GONE);
+        readBodyCheckBox.setVisibility(checkedId == R.id.methodHeadButton ? View.GONE : View.VISIBLE);
+    }
+    
+    private static String emptyToNull(String text) {
+        return text.isEmpty() ? null : text;
+    }
+    
+    private boolean validateOptionalDuration(TextInputLayout inputLayout, TextInputEditText editText, boolean allowZero) {
+        inputLayout.setError(null);
+        String text = editText.getText().toString().trim();
+        if (TextUtils.isEmpty(text)) {
+            return true;
+        }
+        try {
+            int value = Integer.parseInt(text);
+            if (value > 0 || (allowZero && value == 0)) {
+                return true;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        inputLayout.setError(getString(R.string.error_invalid_duration));
+        return false;
+    }
+    
+    private void updateLoadTargetField(int checkedId, TextInputLayout loadTargetInputLayout) {
+        if (checkedId == R.id.loadRpsButton) {
+            loadTargetInputLayout.setHint(getString(R.string.load_target_rps));
+            loadTargetInputLayout.setVisibility(View.VISIBLE);
+        } else if (checkedId == R.id.loadUsersButton) {
+            loadTargetInputLayout.setHint(getString(R.string.load_target_virtual_users));
+            loadTargetInputLayout.setVisibility(View.VISIBLE);
+        } else {
+            loadTargetInputLayout.setError(null);
+            loadTargetInputLayout.setVisibility(View.GONE);
+        }
+    }
+    
+    private boolean validateLoadTarget(MaterialButtonToggleGroup loadModeToggleGroup, TextInputLayout loadTargetInputLayout,
+                                       TextInputEditText loadTargetEditText) {
+        loadTargetInputLayout.setError(null);
+        if (loadModeToggleGroup.getCheckedButtonId() == R.id.loadOffButton) {
+            return true;
+        }
+        try {
+            int value = Integer.parseInt(loadTargetEditText.getText().toString().trim());
+            if (value > 0) {
+                return true;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        loadTargetInputLayout.setError(getString(R.string.error_invalid_load_target));
+        return false;
+    }
+    
+    private Integer parseOptionalInt(TextInputEditText editText) {
+        String text = editText.getText().toString().trim();
+        return TextUtils.isEmpty(text) ? null : Integer.parseInt(text);
+    }
+    
     private void saveServer(Server existingServer, TextInputEditText nameEditText, 
                            TextInputEditText addressEditText, TextInputEditText portEditText, 
-                           MaterialButtonToggleGroup requestTypeToggleGroup) {
+                           MaterialButtonToggleGroup requestTypeToggleGroup,
+                           TextInputEditText intervalEditText, TextInputEditText initialOffsetEditText,
+                           TextInputEditText timeoutEditText,
+                           MaterialButtonToggleGroup loadModeToggleGroup, TextInputEditText loadTargetEditText,
+                           MaterialCheckBox warmConnectionCheckBox, MaterialCheckBox readBodyCheckBox,
+                           MaterialButtonToggleGroup httpMethodToggleGroup, TextInputEditText requestHeadersEditText,
+                           TextInputEditText requestBodyEditText, TextInputEditText expectedStatusEditText,
+                           TextInputEditText expectedHeadersEditText, TextInputEditText expectedBodyEditText) {
         String name = nameEditText.getText().toString().trim();
         String address = addressEditText.getText().toString().trim();
         String portText = portEditText.getText().toString().trim();
         Integer port = TextUtils.isEmpty(portText) ? null : Integer.parseInt(portText);
         
-        Server.RequestType requestType = requestTypeToggleGroup.getCheckedButtonId() == R.id.httpButton 
-                ? Server.RequestType.HTTPS : Server.RequestType.PING;
+        int requestTypeId = requestTypeToggleGroup.getCheckedButtonId();
+        Server.RequestType requestType = requestTypeId == R.id.httpButton ? Server.RequestType.HTTPS
+                : requestTypeId == R.id.tcpButton ? Server.RequestType.TCP
+                : requestTypeId == R.id.dnsButton ? Server.RequestType.DNS : Server.RequestType.PING;
+        
+        Integer intervalMs = parseOptionalInt(intervalEditText);
+        Integer initialOffsetMs = parseOptionalInt(initialOffsetEditText);
+        Integer timeoutMs = parseOptionalInt(timeoutEditText);
+        
+        int loadModeId = loadModeToggleGroup.getCheckedButtonId();
+        Server.LoadMode loadMode = loadModeId == R.id.loadRpsButton ? Server.LoadMode.RPS
+                : loadModeId == R.id.loadUsersButton ? Server.LoadMode.VIRTUAL_USERS : Server.LoadMode.NONE;
+        Integer loadTarget = loadMode == Server.LoadMode.NONE ? null : parseOptionalInt(loadTargetEditText);
+        boolean warmConnection = requestType == Server.RequestType.HTTPS && warmConnectionCheckBox.isChecked();
+        boolean http = requestType == Server.RequestType.HTTPS;
+        int methodId = httpMethodToggleGroup.getCheckedButtonId();
+        Server.HttpMethod httpMethod = !http ? null
+                : methodId == R.id.methodHeadButton ? Server.HttpMethod.HEAD
+                : methodId == R.id.methodPostButton ? Server.HttpMethod.POST
+                : methodId == R.id.methodPutButton ? Server.HttpMethod.PUT : Server.HttpMethod.GET;
+        boolean readBody = http && httpMethod != Server.HttpMethod.HEAD && readBodyCheckBox.isChecked();
+        String requestHeaders = http ? emptyToNull(requestHeadersEditText.getText().toString().trim()) : null;
+        // Kept as typed: whitespace may matter to the endpoint
+        String requestBody = http && httpMethod.hasRequestBody() ? emptyToNull(requestBodyEditText.getText().toString()) : null;
+        String expectedStatus = http ? emptyToNull(expectedStatusEditText.getText().toString().trim()) : null;
+        String expectedHeaders = http ? emptyToNull(expectedHeadersEditText.getText().toString().trim()) : null;
+        String expectedBody = http ? emptyToNull(expectedBodyEditText.getText().toString()) : null;
         
         if (existingServer == null) {
             Server newServer = new Server(name, address, port, requestType);
+            newServer.setIntervalMs(intervalMs);
+            newServer.setInitialOffsetMs(initialOffsetMs);
+            newServer.setTimeoutMs(timeoutMs);
+            newServer.setLoadMode(loadMode);
+            newServer.setLoadTarget(loadTarget);
+            newServer.setWarmConnection(warmConnection);
+            newServer.setReadBody(readBody);
+            newServer.setHttpMethod(httpMethod);
+            newServer.setRequestHeaders(requestHeaders);
+            newServer.setRequestBody(requestBody);
+            newServer.setExpectedStatus(expectedStatus);
+            newServer.setExpectedHeaders(expectedHeaders);
+            newServer.setExpectedBody(expectedBody);
             serverViewModel.insertServer(newServer, null);
         } else {
             existingServer.setName(name);
             existingServer.setAddress(address);
             existingServer.setPort(port);
             existingServer.setRequestType(requestType);
+            existingServer.setIntervalMs(intervalMs);
+            existingServer.setInitialOffsetMs(initialOffsetMs);
+            existingServer.setTimeoutMs(timeoutMs);
+            existingServer.setLoadMode(loadMode);
+            existingServer.setLoadTarget(loadTarget);
+            existingServer.setWarmConnection(warmConnection);
+            existingServer.setReadBody(readBody);
+            existingServer.setHttpMethod(httpMethod);
+            existingServer.setRequestHeaders(requestHeaders);
+            existingServer.setRequestBody(requestBody);
+            existingServer.setExpectedStatus(expectedStatus);
+            existingServer.setExpectedHeaders(expectedHeaders);
+            existingServer.setExpectedBody(expectedBody);
             serverViewModel.updateServer(existingServer);
         }
     }
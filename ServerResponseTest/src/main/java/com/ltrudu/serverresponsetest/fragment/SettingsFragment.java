@@ -36,6 +36,7 @@ import com.ltrudu.serverresponsetest.R;
 import com.ltrudu.serverresponsetest.data.ExportData;
 import com.ltrudu.serverresponsetest.data.Server;
 import com.ltrudu.serverresponsetest.data.Settings;
+import com.ltrudu.serverresponsetest.repository.ProbeResultRepository;
 import com.ltrudu.serverresponsetest.repository.SettingsRepository;
 import com.ltrudu.serverresponsetest.viewmodel.ServerViewModel;
 
@@ -54,6 +55,7 @@ public class SettingsFragment extends Fragment {
     
     private ServerViewModel serverViewModel;
     private SettingsRepository settingsRepository;
+    private ProbeResultRepository probeResultRepository;
     private ExecutorService executorService;
     private Settings currentSettings;
     
@@ -64,6 +66,19 @@ public class SettingsFragment extends Fragment {
     private MaterialCheckBox infiniteRequestsCheckBox;
     private TextInputLayout numberOfRequestsInputLayout;
     private TextInputEditText numberOfRequestsEditText;
+    private MaterialCheckBox concurrentModeCheckBox;
+    private TextInputLayout maxConcurrencyInputLayout;
+    private TextInputEditText maxConcurrencyEditText;
+    private MaterialCheckBox nonBlockingEngineCheckBox;
+    private TextInputEditText loadMaxInFlightEditText;
+    private TextInputEditText maxConnectionsPerHostEditText;
+    private TextInputEditText rawRetentionHoursEditText;
+    private TextInputEditText notificationIntervalMsEditText;
+    private TextInputEditText tcpConnectTimeoutMsEditText;
+    private TextInputEditText dnsCacheTtlMsEditText;
+    private TextInputEditText maxBodyBytesEditText;
+    private TextInputEditText minTimeoutMsEditText;
+    private TextInputEditText maxTimeoutMsEditText;
     private LinearLayout layoutExportData;
     private LinearLayout layoutImportData;
     private LinearLayout layoutShareData;
@@ -148,6 +163,19 @@ public class SettingsFragment extends Fragment {
         infiniteRequestsCheckBox = view.findViewById(R.id.infiniteRequestsCheckBox);
         numberOfRequestsInputLayout = view.findViewById(R.id.numberOfRequestsInputLayout);
         numberOfRequestsEditText = view.findViewById(R.id.numberOfRequestsEditText);
+        concurrentModeCheckBox = view.findViewById(R.id.concurrentModeCheckBox);
+        maxConcurrencyInputLayout = view.findViewById(R.id.maxConcurrencyInputLayout);
+        maxConcurrencyEditText = view.findViewById(R.id.maxConcurrencyEditText);
+        nonBlockingEngineCheckBox = view.findViewById(R.id.nonBlockingEngineCheckBox);
+        loadMaxInFlightEditText = view.findViewById(R.id.loadMaxInFlightEditText);
+        maxConnectionsPerHostEditText = view.findViewById(R.id.maxConnectionsPerHostEditText);
+        rawRetentionHoursEditText = view.findViewById(R.id.rawRetentionHoursEditText);
+        notificationIntervalMsEditText = view.findViewById(R.id.notificationIntervalMsEditText);
+        tcpConnectTimeoutMsEditText = view.findViewById(R.id.tcpConnectTimeoutMsEditText);
+        dnsCacheTtlMsEditText = view.findViewById(R.id.dnsCacheTtlMsEditText);
+        maxBodyBytesEditText = view.findViewById(R.id.maxBodyBytesEditText);
+        minTimeoutMsEditText = view.findViewById(R.id.minTimeoutMsEditText);
+        maxTimeoutMsEditText = view.findViewById(R.id.maxTimeoutMsEditText);
         layoutExportData = view.findViewById(R.id.layoutExportData);
         layoutImportData = view.findViewById(R.id.layoutImportData);
         layoutShareData = view.findViewById(R.id.layoutShareData);
@@ -160,6 +188,7 @@ public class SettingsFragment extends Fragment {
     private void setupViewModel() {
         serverViewModel = new ViewModelProvider(this).get(ServerViewModel.class);
         settingsRepository = new SettingsRepository(requireActivity().getApplication());
+        probeResultRepository = new ProbeResultRepository(requireActivity().getApplication());
         executorService = Executors.newSingleThreadExecutor();
         
         // Observe settings changes
@@ -187,6 +216,19 @@ public class SettingsFragment extends Fragment {
             infiniteRequestsCheckBox.setChecked(settings.isInfiniteRequests());
             numberOfRequestsEditText.setText(String.valueOf(settings.getNumberOfRequests()));
             numberOfRequestsInputLayout.setEnabled(!settings.isInfiniteRequests());
+            concurrentModeCheckBox.setChecked(settings.isConcurrentMode());
+            maxConcurrencyEditText.setText(String.valueOf(settings.getMaxConcurrency()));
+            maxConcurrencyInputLayout.setEnabled(settings.isConcurrentMode());
+            nonBlockingEngineCheckBox.setChecked(settings.isNonBlockingEngine());
+            loadMaxInFlightEditText.setText(String.valueOf(settings.getLoadMaxInFlight()));
+            maxConnectionsPerHostEditText.setText(String.valueOf(settings.getMaxConnectionsPerHost()));
+            rawRetentionHoursEditText.setText(String.valueOf(settings.getRawRetentionHours()));
+            notificationIntervalMsEditText.setText(String.valueOf(settings.getNotificationIntervalMs()));
+            tcpConnectTimeoutMsEditText.setText(String.valueOf(settings.getTcpConnectTimeoutMs()));
+            dnsCacheTtlMsEditText.setText(String.valueOf(settings.getDnsCacheTtlMs()));
+            maxBodyBytesEditText.setText(String.valueOf(settings.getMaxBodyBytes()));
+            minTimeoutMsEditText.setText(String.valueOf(settings.getMinTimeoutMs()));
+            maxTimeoutMsEditText.setText(String.valueOf(settings.getMaxTimeoutMs()));
             
             isUpdatingFromSettings = false;
         }
@@ -198,6 +240,14 @@ public class SettingsFragment extends Fragment {
             settingsRepository.updateInfiniteRequests(isChecked);
         });
         
+        concurrentModeCheckBox.setOnCheckedChangeListener((buttonView, isChecked) -> {
+            maxConcurrencyInputLayout.setEnabled(isChecked);
+            settingsRepository.updateConcurrentMode(isChecked);
+        });
+        
+        nonBlockingEngineCheckBox.setOnCheckedChangeListener((buttonView, isChecked) ->
+                settingsRepository.updateNonBlockingEngine(isChecked));
+        
         layoutExportData.setOnClickListener(v -> exportServers());
         layoutImportData.setOnClickListener(v -> importServers());
         layoutShareData.setOnClickListener(v -> shareServers());
@@ -230,6 +280,27 @@ public class SettingsFragment extends Fragment {
         
         numberOfRequestsEditText.addTextChangedListener(
                 new DebouncedTextWatcher("number_of_requests", 10));
+        
+        maxConcurrencyEditText.addTextChangedListener(
+                new DebouncedTextWatcher("max_concurrency", 8));
+        loadMaxInFlightEditText.addTextChangedListener(
+                new DebouncedTextWatcher("load_max_in_flight", 256));
+        maxConnectionsPerHostEditText.addTextChangedListener(
+                new DebouncedTextWatcher("max_connections_per_host", 8));
+        rawRetentionHoursEditText.addTextChangedListener(
+                new DebouncedTextWatcher("raw_retention_hours", 48));
+        notificationIntervalMsEditText.addTextChangedListener(
+                new DebouncedTextWatcher("notification_interval_ms", 1000));
+        tcpConnectTimeoutMsEditText.addTextChangedListener(
+                new DebouncedTextWatcher("tcp_connect_timeout_ms", 3000));
+        dnsCacheTtlMsEditText.addTextChangedListener(
+                new DebouncedTextWatcher("dns_cache_ttl_ms", 60000));
+        maxBodyBytesEditText.addTextChangedListener(
+                new DebouncedTextWatcher("max_body_bytes", 1048576));
+        minTimeoutMsEditText.addTextChangedListener(
+                new DebouncedTextWatcher("min_timeout_ms", 1000));
+        maxTimeoutMsEditText.addTextChangedListener(
+                new DebouncedTextWatcher("max_timeout_ms", 10000));
     }
     
     private void saveIntSetting(String value, String key, int defaultValue) {
@@ -253,6 +324,36 @@ public class SettingsFragment extends Fragment {
                         case "number_of_requests":
                             settingsRepository.updateNumberOfRequests(intValue);
                             break;
+                        case "max_concurrency":
+                            settingsRepository.updateMaxConcurrency(Math.max(1, intValue));
+                            break;
+                        case "load_max_in_flight":
+                            settingsRepository.updateLoadMaxInFlight(Math.max(1, intValue));
+                            break;
+                        case "max_connections_per_host":
+                            settingsRepository.updateMaxConnectionsPerHost(Math.max(1, intValue));
+                            break;
+                        case "raw_retention_hours":
+                            settingsRepository.updateRawRetentionHours(Math.max(1, intValue));
+                            break;
+                        case "notification_interval_ms":
+                            settingsRepository.updateNotificationIntervalMs(Math.max(1, intValue));
+                            break;
+                        case "tcp_connect_timeout_ms":
+                            settingsRepository.updateTcpConnectTimeoutMs(Math.max(1, intValue));
+                            break;
+                        case "dns_cache_ttl_ms":
+                            settingsRepository.updateDnsCacheTtlMs(Math.max(1, intValue));
+                            break;
+                        case "max_body_bytes":
+                            settingsRepository.updateMaxBodyBytes(Math.max(1, intValue));
+                            break;
+                        case "min_timeout_ms":
+                            settingsRepository.updateMinTimeoutMs(Math.max(1, intValue));
+                            break;
+                        case "max_timeout_ms":
+                            settingsRepository.updateMaxTimeoutMs(Math.max(1, intValue));
+                            break;
                     }
                 }
             } catch (NumberFormatException e) {
@@ -324,6 +425,14 @@ public class SettingsFragment extends Fragment {
         }
     }
     
+    // Background thread only: adds the stored 24 h latency summary of every server
+    private ExportData createExportData(List<Server> servers, Settings settings) {
+        ExportData exportData = new ExportData(servers, settings);
+        exportData.setLatencySummaries(
+                probeResultRepository.getLatencySummariesSync(servers, ProbeResultRepository.SUMMARY_WINDOW_MS));
+        return exportData;
+    }
+    
     private void exportServersScoped() {
         // Use SAF (Storage Access Framework) for Android 10+
         createDocumentLauncher.launch("servers_export.json");
@@ -335,7 +444,7 @@ public class SettingsFragment extends Fragment {
                 List<Server> servers = serverViewModel.getAllServersSync();
                 Settings settings = settingsRepository.getSettingsSync();
                 
-                ExportData exportData = new ExportData(servers, settings);
+                ExportData exportData = createExportData(servers, settings);
                 Gson gson = new Gson();
                 String json = gson.toJson(exportData);
                 
@@ -363,7 +472,7 @@ public class SettingsFragment extends Fragment {
                 List<Server> servers = serverViewModel.getAllServersSync();
                 Settings settings = settingsRepository.getSettingsSync();
                 
-                ExportData exportData = new ExportData(servers, settings);
+                ExportData exportData = createExportData(servers, settings);
                 Gson gson = new Gson();
                 String json = gson.toJson(exportData);
                 
@@ -570,7 +679,7 @@ public class SettingsFragment extends Fragment {
                 List<Server> servers = serverViewModel.getAllServersSync();
                 Settings settings = settingsRepository.getSettingsSync();
                 
-                ExportData exportData = new ExportData(servers, settings);
+                ExportData exportData = createExportData(servers, settings);
                 Gson gson = new Gson();
                 String json = gson.toJson(exportData);
                 
@@ -659,6 +768,9 @@ public class SettingsFragment extends Fragment {
         if (settingsRepository != null) {
             settingsRepository.shutdown();
         }
+        if (probeResultRepository != null) {
+            probeResultRepository.shutdown();
+        }
     }
     
     private void showResetDatabaseDialog() {
@@ -715,4 +827,52 @@ public class SettingsFragment extends Fragment {
     public int getNumberOfRequests() {
         return currentSettings != null ? currentSettings.getNumberOfRequests() : 10;
     }
+    
+    public boolean isConcurrentMode() {
+        return currentSettings != null ? currentSettings.isConcurrentMode() : false;
+    }
+    
+    public boolean isNonBlockingEngine() {
+        return currentSettings != null && currentSettings.isNonBlockingEngine();
+    }
+    
+    public int getMaxConcurrency() {
+        return currentSettings != null ? currentSettings.getMaxConcurrency() : 8;
+    }
+    
+    public int getLoadMaxInFlight() {
+        return currentSettings != null ? currentSettings.getLoadMaxInFlight() : 256;
+    }
+    
+    public int getMaxConnectionsPerHost() {
+        return currentSettings != null ? currentSettings.getMaxConnectionsPerHost() : 8;
+    }
+    
+    public int getRawRetentionHours() {
+        return currentSettings != null ? currentSettings.getRawRetentionHours() : 48;
+    }
+    
+    public int getNotificationIntervalMs() {
+        return currentSettings != null ? currentSettings.getNotificationIntervalMs() : 1000;
+    }
+    
+    public int getTcpConnectTimeoutMs() {
+        return currentSettings != null ? currentSettings.getTcpConnectTimeoutMs() : 3000;
+    }
+    
+    public int getDnsCacheTtlMs() {
+        return currentSettings != null ? currentSettings.getDnsCacheTtlMs() : 60000;
+    }
+    
+    public int getMaxBodyBytes() {
+        return currentSettings != null ? currentSettings.getMaxBodyBytes() : 1048576;
+    }
+    
+    public int getMinTimeoutMs() {
+        return currentSettings != null ? currentSettings.getMinTimeoutMs() : 1000;
+    }
+    
+    public int getMaxTimeoutMs() {
+        return currentSettings != null ? currentSettings.getMaxTimeoutMs() : 10000;
+    }
 }
\ No newline at end of file
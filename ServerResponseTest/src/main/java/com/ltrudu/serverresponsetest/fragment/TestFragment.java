@@ -1,11 +1,17 @@
 package com.ltrudu.serverresponsetest.fragment;
 
 import android.content.BroadcastReceiver;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.ServiceConnection;
 import android.os.Bundle;
 import android.os.CountDownTimer;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.util.LongSparseArray;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -21,12 +27,26 @@ import androidx.recyclerview.widget.RecyclerView;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 import com.ltrudu.serverresponsetest.R;
 import com.ltrudu.serverresponsetest.adapter.TestServerAdapter;
+import com.ltrudu.serverresponsetest.data.LatencySummary;
+import com.ltrudu.serverresponsetest.data.Server;
+import com.ltrudu.serverresponsetest.repository.ProbeResultRepository;
 import com.ltrudu.serverresponsetest.repository.SettingsRepository;
+import com.ltrudu.serverresponsetest.service.LoadGenerator;
+import com.ltrudu.serverresponsetest.service.ProbeEvent;
+import com.ltrudu.serverresponsetest.service.ProbeEventChannel;
+import com.ltrudu.serverresponsetest.service.RunSnapshot;
 import com.ltrudu.serverresponsetest.service.ServerTestService;
 import com.ltrudu.serverresponsetest.viewmodel.ServerViewModel;
 
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 public class TestFragment extends Fragment {
     
+    private static final long HISTORY_REFRESH_INTERVAL_MS = 60000;
+    
     private ServerViewModel serverViewModel;
     private SettingsRepository settingsRepository;
     private com.ltrudu.serverresponsetest.data.Settings currentSettings;
@@ -41,6 +61,7 @@ public class TestFragment extends Fragment {
     private LinearLayout testControlsLayout;
     private boolean isTestRunning = false;
     private boolean areServersProcessing = false;
+    private boolean independentSchedules = false;
     private int processedServerCount = 0;
     private int totalServerCount = 0;
     
@@ -48,6 +69,32 @@ public class TestFragment extends Fragment {
     private BroadcastReceiver testResultReceiver;
     private CountDownTimer countDownTimer;
     
+    // Bound while visible, which creates the service without starting a test: the view is
+    // reconciled with the snapshot, in both directions, then follows the result subscription.
+    // Tests are started and stopped through the binder
+    private ServerTestService.LocalBinder serviceBinder;
+    private final ProbeEventChannel.Listener probeEventListener = this::handleProbeEvents;
+    private final ServiceConnection serviceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            serviceBinder = (ServerTestService.LocalBinder) service;
+            applySnapshot(serviceBinder.snapshot());
+            serviceBinder.subscribe(probeEventListener);
+        }
+        
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            serviceBinder = null;
+        }
+    };
+    
+    // Stored 24 h latency summaries, recomputed from the rollup sketches once a minute
+    private ProbeResultRepository probeResultRepository;
+    private ExecutorService historyExecutor;
+    private final Handler historyHandler = new Handler(Looper.getMainLooper());
+    private final Runnable historyRefreshRunnable = this::refreshLatencyHistory;
+    private List<Server> currentServers;
+    
     @Nullable
     @Override
     public View onCreateView(@NonNull LayoutInflater inflater, @Nullable ViewGroup container, @Nullable Bundle savedInstanceState) {
@@ -66,13 +113,21 @@ public class TestFragment extends Fragment {
     public void onResume() {
         super.onResume();
         registerBroadcastReceiver();
+        requireContext().bindService(new Intent(requireContext(), ServerTestService.class), serviceConnection, Context.BIND_AUTO_CREATE);
+        historyHandler.post(historyRefreshRunnable);
     }
     
     @Override
     public void onPause() {
         super.onPause();
         unregisterBroadcastReceiver();
+        if (serviceBinder != null) {
+            serviceBinder.unsubscribe(probeEventListener);
+            serviceBinder = null;
+        }
+        requireContext().unbindService(serviceConnection);
         stopCountdown();
+        historyHandler.removeCallbacks(historyRefreshRunnable);
     }
     
     @Override
@@ -83,6 +138,12 @@ public class TestFragment extends Fragment {
         if (settingsRepository != null) {
             settingsRepository.shutdown();
         }
+        if (probeResultRepository != null) {
+            probeResultRepository.shutdown();
+        }
+        if (historyExecutor != null) {
+            historyExecutor.shutdown();
+        }
     }
     
     private void initializeViews(View view) {
@@ -105,9 +166,15 @@ public class TestFragment extends Fragment {
     private void setupViewModel() {
         serverViewModel = new ViewModelProvider(this).get(ServerViewModel.class);
         settingsRepository = new SettingsRepository(requireActivity().getApplication());
+        probeResultRepository = new ProbeResultRepository(requireActivity().getApplication());
+        historyExecutor = Executors.newSingleThreadExecutor();
         serverViewModel.getAllServers().observe(getViewLifecycleOwner(), servers -> {
             if (servers != null) {
-                totalServerCount = servers.size();
+                currentServers = servers;
+                if (!isTestRunning) {
+                    // A running test reports its own count, without its load-test servers
+                    totalServerCount = servers.size();
+                }
                 serverCountText.setText(getString(R.string.number_of_servers, servers.size()));
                 testServerAdapter.submitList(servers);
                 
@@ -133,6 +200,34 @@ public class TestFragment extends Fragment {
         });
     }
     
+    private void refreshLatencyHistory() {
+        List<Server> servers = currentServers;
+        if (servers != null && !servers.isEmpty()) {
+            historyExecutor.execute(() -> {
+                List<LatencySummary> summaries = probeResultRepository.getLatencySummariesSync(
+                        servers, ProbeResultRepository.SUMMARY_WINDOW_MS);
+                historyHandler.post(() -> showLatencyHistory(summaries));
+            });
+        }
+        historyHandler.postDelayed(historyRefreshRunnable, HISTORY_REFRESH_INTERVAL_MS);
+    }
+    
+    private void showLatencyHistory(List<LatencySummary> summaries) {
+        if (!isAdded()) {
+            return;
+        }
+        LongSparseArray<String> historyLines = new LongSparseArray<>();
+        for (LatencySummary summary : summaries) {
+            if (summary.getCount() > 0) {
+                historyLines.put(summary.getServerId(), getString(R.string.latency_history,
+                        TestServerAdapter.formatMillis((long) (summary.getP50Ms() * 1e6)),
+                        TestServerAdapter.formatMillis((long) (summary.getP99Ms() * 1e6)),
+                        summary.getCount(), summary.getErrors()));
+            }
+        }
+        testServerAdapter.updateLatencyHistory(historyLines);
+    }
+    
     private void setupClickListeners() {
         playStopButton.setOnClickListener(v -> toggleTest());
     }
@@ -146,6 +241,9 @@ public class TestFragment extends Fragment {
                 String action = intent.getAction();
                 if (ServerTestService.ACTION_TEST_STARTED.equals(action)) {
                     isTestRunning = true;
+                    independentSchedules = intent.getBooleanExtra(ServerTestService.EXTRA_CONCURRENT_MODE, false);
+                    // Load-test servers report load statistics instead of cycle results
+                    totalServerCount = intent.getIntExtra(ServerTestService.EXTRA_PROBED_SERVER_COUNT, totalServerCount);
                     statusText.setText(R.string.test_running);
                     // Set all servers to pending status when test starts
                     setAllServersPending();
@@ -155,21 +253,16 @@ public class TestFragment extends Fragment {
                     updateCountdownText();
                     updateRemainingRequestsDisplay();
                 } else if (ServerTestService.ACTION_TEST_STOPPED.equals(action)) {
-                    isTestRunning = false;
-                    areServersProcessing = false;
-                    statusText.setText(R.string.test_stopped);
-                    stopCountdown();
-                    hideRemainingRequestsDisplay();
-                    updateUI();
-                } else if (ServerTestService.ACTION_TEST_RESULT.equals(action)) {
-                    // Handle individual server test results
-                    handleTestResult(intent);
-                } else if (ServerTestService.ACTION_SERVER_TESTING.equals(action)) {
-                    // Handle server testing started
-                    handleServerTesting(intent);
+                    showTestStopped();
+                } else if (ServerTestService.ACTION_SERVERS_CHANGED.equals(action)) {
+                    // Edits made during the run have been applied to it
+                    totalServerCount = intent.getIntExtra(ServerTestService.EXTRA_PROBED_SERVER_COUNT, totalServerCount);
                 } else if (ServerTestService.ACTION_REQUEST_PROGRESS.equals(action)) {
                     // Handle request progress updates
                     handleRequestProgress(intent);
+                } else if (ServerTestService.ACTION_LOAD_STATS.equals(action)) {
+                    // Handle live load test statistics
+                    handleLoadStats(intent);
                 }
             }
         };
@@ -179,9 +272,9 @@ public class TestFragment extends Fragment {
         IntentFilter filter = new IntentFilter();
         filter.addAction(ServerTestService.ACTION_TEST_STARTED);
         filter.addAction(ServerTestService.ACTION_TEST_STOPPED);
-        filter.addAction(ServerTestService.ACTION_TEST_RESULT);
-        filter.addAction(ServerTestService.ACTION_SERVER_TESTING);
+        filter.addAction(ServerTestService.ACTION_SERVERS_CHANGED);
         filter.addAction(ServerTestService.ACTION_REQUEST_PROGRESS);
+        filter.addAction(ServerTestService.ACTION_LOAD_STATS);
         localBroadcastManager.registerReceiver(testResultReceiver, filter);
     }
     
@@ -191,18 +284,57 @@ public class TestFragment extends Fragment {
         }
     }
     
-    private void handleTestResult(Intent intent) {
-        long serverId = intent.getLongExtra(ServerTestService.EXTRA_SERVER_ID, -1);
-        String serverName = intent.getStringExtra(ServerTestService.EXTRA_SERVER_NAME);
-        boolean success = intent.getBooleanExtra(ServerTestService.EXTRA_SUCCESS, false);
-        String errorMessage = intent.getStringExtra(ServerTestService.EXTRA_ERROR_MESSAGE);
-        long responseTime = intent.getLongExtra(ServerTestService.EXTRA_RESPONSE_TIME, 0);
+    /**
+     * Brings the view in line with the service: rebuilds a test that was already running when
+     * the fragment was created, e.g. after a configuration change or when the app comes back
+     * while the service kept testing, and shows a test that ended while the fragment was paused
+     * (and so missed its broadcast) as stopped.
+     */
+    private void applySnapshot(RunSnapshot snapshot) {
+        if (!snapshot.running) {
+            if (isTestRunning) {
+                showTestStopped();
+            }
+            return;
+        }
+        if (isTestRunning) {
+            return;
+        }
+        isTestRunning = true;
+        independentSchedules = snapshot.concurrentMode;
+        totalServerCount = snapshot.probedServerCount;
+        statusText.setText(R.string.test_running);
+        for (ProbeEvent event : snapshot.latestResults.values()) {
+            applyProbeEvent(event);
+        }
+        for (Map.Entry<Long, LoadGenerator.LoadStats> entry : snapshot.loadStats.entrySet()) {
+            showLoadStats(entry.getKey(), entry.getValue());
+        }
+        showRequestProgress(snapshot.completedRequests, snapshot.totalRequests, snapshot.infiniteRequests);
+        // The position in the current cycle is unknown: wait for it to complete
+        processedServerCount = 0;
+        areServersProcessing = true;
+        updateUI();
+        updateCountdownText();
+    }
+    
+    // Main thread, once per frame with at most one event per server
+    private void handleProbeEvents(List<ProbeEvent> events) {
+        int results = 0;
+        for (ProbeEvent event : events) {
+            applyProbeEvent(event);
+            if (event.hasResult && !event.rejected) {
+                results += event.resultCount;
+            }
+        }
         
-        // Update the adapter to show test results
-        testServerAdapter.updateServerResult(serverId, success, responseTime, errorMessage);
+        // Servers on independent schedules have no common cycle to count down to
+        if (independentSchedules || results == 0) {
+            return;
+        }
         
         // Track processed servers
-        processedServerCount++;
+        processedServerCount += results;
         
         // Check if all servers are processed
         if (processedServerCount >= totalServerCount) {
@@ -214,18 +346,68 @@ public class TestFragment extends Fragment {
         }
     }
     
-    private void handleServerTesting(Intent intent) {
+    private void applyProbeEvent(ProbeEvent event) {
+        if (event.hasResult) {
+            if (event.rejected) {
+                // Invalid definition: the server is left out of the run
+                testServerAdapter.updateServerRejected(event.serverId, event.errorMessage);
+                return;
+            }
+            if (event.skipped) {
+                // Open circuit: the server is still down, no new measurement
+                testServerAdapter.updateServerStatus(event.serverId, TestServerAdapter.ServerStatus.ERROR);
+            } else {
+                testServerAdapter.updateServerResult(event.serverId, event.success, event.responseNanos,
+                        event.correctedResponseNanos, event.percentileNanos, event.correctedPercentileNanos,
+                        event.connectionReused, event.phaseNanos, event.dnsCached,
+                        event.bodyBytes, event.bodyTruncated, event.errorMessage);
+            }
+            testServerAdapter.updateCircuitState(event.serverId, event.circuitState, event.consecutiveFailures,
+                    event.circuitRetryAtMillis);
+        }
+        if (event.processing) {
+            testServerAdapter.updateServerStatus(event.serverId, TestServerAdapter.ServerStatus.PROCESSING);
+        }
+    }
+    
+    private void handleLoadStats(Intent intent) {
+        LoadGenerator.LoadStats stats = new LoadGenerator.LoadStats();
         long serverId = intent.getLongExtra(ServerTestService.EXTRA_SERVER_ID, -1);
-        
-        // Update the server status to processing
-        testServerAdapter.updateServerStatus(serverId, TestServerAdapter.ServerStatus.PROCESSING);
+        stats.mode = "VIRTUAL_USERS".equals(intent.getStringExtra(ServerTestService.EXTRA_LOAD_MODE))
+                ? Server.LoadMode.VIRTUAL_USERS : Server.LoadMode.RPS;
+        stats.target = intent.getIntExtra(ServerTestService.EXTRA_LOAD_TARGET, 0);
+        stats.achievedRps = intent.getDoubleExtra(ServerTestService.EXTRA_ACHIEVED_RPS, 0);
+        stats.inFlight = intent.getIntExtra(ServerTestService.EXTRA_IN_FLIGHT, 0);
+        stats.meanResponseTimeMs = intent.getLongExtra(ServerTestService.EXTRA_RESPONSE_TIME, 0);
+        stats.p99Nanos = intent.getLongExtra(ServerTestService.EXTRA_P99_NANOS, 0);
+        stats.correctedP99Nanos = intent.getLongExtra(ServerTestService.EXTRA_CORRECTED_P99_NANOS, stats.p99Nanos);
+        stats.errors = intent.getLongExtra(ServerTestService.EXTRA_ERRORS, 0);
+        stats.dropped = intent.getLongExtra(ServerTestService.EXTRA_DROPPED, 0);
+        stats.late = intent.getLongExtra(ServerTestService.EXTRA_LATE, 0);
+        showLoadStats(serverId, stats);
+    }
+    
+    private void showLoadStats(long serverId, LoadGenerator.LoadStats stats) {
+        String statsText;
+        if (stats.mode == Server.LoadMode.VIRTUAL_USERS) {
+            statsText = getString(R.string.load_stats_virtual_users, stats.target, stats.achievedRps, stats.inFlight,
+                    String.valueOf(stats.meanResponseTimeMs), TestServerAdapter.formatMillis(stats.p99Nanos), stats.errors);
+        } else {
+            statsText = getString(R.string.load_stats_rps, stats.achievedRps, stats.target, stats.inFlight,
+                    String.valueOf(stats.meanResponseTimeMs), TestServerAdapter.formatMillis(stats.p99Nanos),
+                    TestServerAdapter.formatMillis(stats.correctedP99Nanos), stats.errors, stats.dropped, stats.late);
+        }
+        testServerAdapter.updateLoadStats(serverId, statsText);
     }
     
     private void handleRequestProgress(Intent intent) {
         int currentRequest = intent.getIntExtra(ServerTestService.EXTRA_CURRENT_REQUEST, 0);
         int totalRequests = intent.getIntExtra(ServerTestService.EXTRA_TOTAL_REQUESTS, 1);
         boolean infiniteRequests = intent.getBooleanExtra(ServerTestService.EXTRA_INFINITE_REQUESTS, true);
-        
+        showRequestProgress(currentRequest, totalRequests, infiniteRequests);
+    }
+    
+    private void showRequestProgress(int currentRequest, int totalRequests, boolean infiniteRequests) {
         if (!infiniteRequests) {
             // Update the remaining requests display
             int remaining = totalRequests - currentRequest;
@@ -267,7 +449,10 @@ public class TestFragment extends Fragment {
     }
     
     private void updateCountdownText() {
-        if (areServersProcessing) {
+        if (independentSchedules && isTestRunning) {
+            countdownText.setText(R.string.independent_schedules);
+            countdownText.setVisibility(View.VISIBLE);
+        } else if (areServersProcessing) {
             countdownText.setText(R.string.processing_servers);
             countdownText.setVisibility(View.VISIBLE);
         } else if (isTestRunning) {
@@ -368,35 +553,16 @@ public class TestFragment extends Fragment {
     }
     
     private void startTestService() {
-        // Get current settings from cache
-        int timeBetweenRequests = 5000; // Default values
-        int requestDelayMs = 100;
-        int randomMinDelayMs = 50;
-        int randomMaxDelayMs = 100;
-        boolean infiniteRequests = true;
-        int numberOfRequests = 10;
-        
-        if (currentSettings != null) {
-            timeBetweenRequests = currentSettings.getTimeBetweenRequests();
-            requestDelayMs = currentSettings.getRequestDelayMs();
-            randomMinDelayMs = currentSettings.getRandomMinDelayMs();
-            randomMaxDelayMs = currentSettings.getRandomMaxDelayMs();
-            infiniteRequests = currentSettings.isInfiniteRequests();
-            numberOfRequests = currentSettings.getNumberOfRequests();
-        }
-        
-        Intent serviceIntent = new Intent(requireContext(), ServerTestService.class);
-        serviceIntent.putExtra(ServerTestService.EXTRA_TIME_BETWEEN_REQUESTS, timeBetweenRequests);
-        serviceIntent.putExtra(ServerTestService.EXTRA_REQUEST_DELAY_MS, requestDelayMs);
-        serviceIntent.putExtra(ServerTestService.EXTRA_RANDOM_MIN_DELAY_MS, randomMinDelayMs);
-        serviceIntent.putExtra(ServerTestService.EXTRA_RANDOM_MAX_DELAY_MS, randomMaxDelayMs);
-        serviceIntent.putExtra(ServerTestService.EXTRA_INFINITE_REQUESTS, infiniteRequests);
-        serviceIntent.putExtra(ServerTestService.EXTRA_NUMBER_OF_REQUESTS, numberOfRequests);
-        
         isTestRunning = true;
         statusText.setText(R.string.test_running);
         updateUI();
         
+        if (serviceBinder != null) {
+            serviceBinder.start(currentSettings);
+            return;
+        }
+        // Not connected yet: same start Intent as the binder sends
+        Intent serviceIntent = ServerTestService.createStartIntent(requireContext(), currentSettings);
         if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.O) {
             requireContext().startForegroundService(serviceIntent);
         } else {
@@ -405,14 +571,26 @@ public class TestFragment extends Fragment {
     }
     
     private void stopTest() {
-        Intent serviceIntent = new Intent(requireContext(), ServerTestService.class);
-        requireContext().stopService(serviceIntent);
+        if (serviceBinder != null) {
+            serviceBinder.stop();
+        } else {
+            requireContext().stopService(new Intent(requireContext(), ServerTestService.class));
+        }
         
         isTestRunning = false;
         statusText.setText(R.string.test_stopped);
         updateUI();
     }
     
+    private void showTestStopped() {
+        isTestRunning = false;
+        areServersProcessing = false;
+        statusText.setText(R.string.test_stopped);
+        stopCountdown();
+        hideRemainingRequestsDisplay();
+        updateUI();
+    }
+    
     private void updateUI() {
         if (isTestRunning) {
             playStopButton.setImageResource(android.R.drawable.ic_media_pause);
@@ -0,0 +1,192 @@
+package com.ltrudu.serverresponsetest.repository;
+
+import android.app.Application;
+import android.util.Log;
+import androidx.lifecycle.LiveData;
+import com.ltrudu.serverresponsetest.data.AppDatabase;
+import com.ltrudu.serverresponsetest.data.LatencySummary;
+import com.ltrudu.serverresponsetest.data.ProbeResult;
+import com.ltrudu.serverresponsetest.data.ProbeResultDao;
+import com.ltrudu.serverresponsetest.data.ProbeRollup;
+import com.ltrudu.serverresponsetest.data.ProbeRollupDao;
+import com.ltrudu.serverresponsetest.data.Server;
+import com.ltrudu.serverresponsetest.data.ServerDao;
+import com.ltrudu.serverresponsetest.service.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class ProbeResultRepository {
+    
+    private static final String TAG = "ProbeResultRepository";
+    // Window of the latency summaries shown in the Test tab and written to exports
+    public static final long SUMMARY_WINDOW_MS = TimeUnit.HOURS.toMillis(24);
+    // Minute rollups are kept this long, hour rollups forever
+    private static final long MINUTE_ROLLUP_RETENTION_MS = TimeUnit.DAYS.toMillis(30);
+    // History ranges longer than this are answered from the hour rollups
+    private static final long MINUTE_HISTORY_MAX_SPAN_MS = TimeUnit.HOURS.toMillis(6);
+    private static final int DELETE_CHUNK_SIZE = 5000;
+    
+    private AppDatabase database;
+    private ProbeResultDao probeResultDao;
+    private ProbeRollupDao probeRollupDao;
+    private ServerDao serverDao;
+    private RollupAggregator rollupAggregator;
+    private ExecutorService executorService;
+    
+    public ProbeResultRepository(Application application) {
+        database = AppDatabase.getDatabase(application);
+        probeResultDao = database.probeResultDao();
+        probeRollupDao = database.probeRollupDao();
+        serverDao = database.serverDao();
+        rollupAggregator = new RollupAggregator(probeRollupDao);
+        executorService = Executors.newSingleThreadExecutor();
+    }
+    
+    // Blocking, called from the ProbeResultWriter thread: the batch and its rollups are one
+    // transaction. Load requests are only rolled up, so a load test cannot flood the raw table.
+    // Results of a server deleted while they were queued or in flight are dropped: its history
+    // has already been deleted and nothing would ever show or delete them
+    public void insertBatch(List<ProbeResult> results) {
+        try {
+            database.runInTransaction(() -> {
+                Set<Long> serverIds = new HashSet<>(serverDao.getAllServerIds());
+                List<ProbeResult> storedResults = new ArrayList<>(results.size());
+                List<ProbeResult> rawResults = new ArrayList<>(results.size());
+                for (ProbeResult result : results) {
+                    if (!serverIds.contains(result.getServerId())) {
+                        continue;
+                    }
+                    storedResults.add(result);
+                    if (!result.isLoad()) {
+                        rawResults.add(result);
+                    }
+                }
+                if (!rawResults.isEmpty()) {
+                    probeResultDao.insertProbeResults(rawResults);
+                }
+                probeRollupDao.upsertRollups(rollupAggregator.add(storedResults));
+            });
+        } catch (RuntimeException e) {
+            // The open buckets may now be ahead of the rolled back rows
+            rollupAggregator.clear();
+            throw e;
+        }
+    }
+    
+    /**
+     * Deletes raw results older than the retention (their data lives on in the rollups) and
+     * minute rollups older than 30 days. Blocking, called from the ProbeResultWriter thread.
+     */
+    public int compact(long rawRetentionMs) {
+        long now = System.currentTimeMillis();
+        int deleted = 0;
+        int chunk;
+        do {
+            chunk = probeResultDao.deleteResultsBefore(now - rawRetentionMs, DELETE_CHUNK_SIZE);
+            deleted += chunk;
+        } while (chunk == DELETE_CHUNK_SIZE);
+        probeRollupDao.deleteRollupsBefore(ProbeRollup.RESOLUTION_MINUTE_MS, now - MINUTE_ROLLUP_RETENTION_MS);
+        return deleted;
+    }
+    
+    /**
+     * Rollups of a server between two epoch-millisecond timestamps, per minute for short ranges
+     * and per hour for long ones, so history views never scan the raw results.
+     */
+    public List<ProbeRollup> getHistorySync(long serverId, long fromTimestamp, long toTimestamp) {
+        long resolutionMs = toTimestamp - fromTimestamp > MINUTE_HISTORY_MAX_SPAN_MS
+                ? ProbeRollup.RESOLUTION_HOUR_MS : ProbeRollup.RESOLUTION_MINUTE_MS;
+        long fromBucketStart = fromTimestamp - Math.floorMod(fromTimestamp, resolutionMs);
+        return probeRollupDao.getRollups(serverId, resolutionMs, fromBucketStart, toTimestamp);
+    }
+    
+    /**
+     * Merges the rollup sketches of a window into one histogram: hour rollups for the whole
+     * hours inside the window, minute rollups for the partial hours at both ends. The cost
+     * depends on the window length only, never on the number of probes in it.
+     */
+    public LatencySummary getLatencySummarySync(Server server, long fromTimestamp, long toTimestamp) {
+        long hour = ProbeRollup.RESOLUTION_HOUR_MS;
+        long minute = ProbeRollup.RESOLUTION_MINUTE_MS;
+        long firstWholeHour = fromTimestamp + Math.floorMod(-fromTimestamp, hour);
+        long lastWholeHourEnd = toTimestamp - Math.floorMod(toTimestamp, hour);
+        long fromMinute = fromTimestamp - Math.floorMod(fromTimestamp, minute);
+        
+        List<ProbeRollup> rollups = new ArrayList<>();
+        if (firstWholeHour >= lastWholeHourEnd) {
+            rollups.addAll(probeRollupDao.getRollups(server.getId(), minute, fromMinute, toTimestamp));
+        } else {
+            rollups.addAll(probeRollupDao.getRollups(server.getId(), minute, fromMinute, firstWholeHour));
+            rollups.addAll(probeRollupDao.getRollups(server.getId(), hour, firstWholeHour, lastWholeHourEnd));
+            rollups.addAll(probeRollupDao.getRollups(server.getId(), minute, lastWholeHourEnd, toTimestamp));
+        }
+        
+        LatencyHistogram latency = new LatencyHistogram();
+        long count = 0;
+        long errors = 0;
+        for (ProbeRollup rollup : rollups) {
+            try {
+                latency.merge(rollup.getSketch());
+            } catch (IllegalArgumentException e) {
+                // A corrupt sketch is left out with its counts, so the summary stays consistent
+                Log.w(TAG, "Skipping corrupt rollup sketch of server " + server.getId(), e);
+                continue;
+            }
+            count += rollup.getCount();
+            errors += rollup.getErrors();
+        }
+        
+        long[] percentiles = new long[5];
+        latency.getSummary(percentiles);
+        LatencySummary summary = new LatencySummary();
+        summary.setServerId(server.getId());
+        summary.setServerName(server.getName());
+        summary.setFromTimestamp(fromTimestamp);
+        summary.setToTimestamp(toTimestamp);
+        summary.setCount(count);
+        summary.setErrors(errors);
+        summary.setMeanMs(latency.getMeanNanos() / 1e6);
+        summary.setP50Ms(percentiles[0] / 1e6);
+        summary.setP90Ms(percentiles[1] / 1e6);
+        summary.setP99Ms(percentiles[2] / 1e6);
+        summary.setP999Ms(percentiles[3] / 1e6);
+        summary.setMaxMs(percentiles[4] / 1e6);
+        return summary;
+    }
+    
+    public List<LatencySummary> getLatencySummariesSync(List<Server> servers, long windowMs) {
+        long now = System.currentTimeMillis();
+        List<LatencySummary> summaries = new ArrayList<>(servers.size());
+        for (Server server : servers) {
+            summaries.add(getLatencySummarySync(server, now - windowMs, now));
+        }
+        return summaries;
+    }
+    
+    public List<ProbeResult> getResultsSinceSync(long serverId, long fromTimestamp) {
+        return probeResultDao.getResultsSince(serverId, fromTimestamp);
+    }
+    
+    public LiveData<List<ProbeResult>> getLatestResults(long serverId, int limit) {
+        return probeResultDao.getLatestResults(serverId, limit);
+    }
+    
+    public void deleteAllResults() {
+        executorService.execute(() -> database.runInTransaction(() -> {
+            probeResultDao.deleteAllResults();
+            probeRollupDao.deleteAllRollups();
+        }));
+    }
+    
+    public void shutdown() {
+        if (executorService != null) {
+            executorService.shutdown();
+        }
+    }
+}
\ No newline at end of file
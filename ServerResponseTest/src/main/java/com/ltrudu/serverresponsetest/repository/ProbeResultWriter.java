@@ -0,0 +1,111 @@
+package com.ltrudu.serverresponsetest.repository;
+
+import android.util.Log;
+import com.ltrudu.serverresponsetest.data.ProbeResult;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-behind queue in front of the probe_results table. Probe threads only enqueue; a single
+ * writer thread commits everything that accumulated since its last commit in one transaction,
+ * so under load batches grow by themselves and the per-commit cost is shared by the whole batch.
+ * The same thread periodically compacts raw results past their retention.
+ */
+public class ProbeResultWriter {
+    
+    private static final String TAG = "ProbeResultWriter";
+    // About a few minutes of backlog at hundreds of results per second
+    private static final int QUEUE_CAPACITY = 65536;
+    private static final int MAX_BATCH_SIZE = 1000;
+    private static final long POLL_INTERVAL_MS = 250;
+    private static final long COMPACTION_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(10);
+    // Leaves the service time to pass the retention setting before the first compaction
+    private static final long FIRST_COMPACTION_DELAY_NANOS = TimeUnit.SECONDS.toNanos(5);
+    
+    private final ProbeResultRepository repository;
+    private final BlockingQueue<ProbeResult> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicLong dropped = new AtomicLong(0);
+    private final Thread writerThread;
+    private volatile boolean closed = false;
+    private volatile long rawRetentionMs = TimeUnit.HOURS.toMillis(48);
+    
+    public ProbeResultWriter(ProbeResultRepository repository) {
+        this.repository = repository;
+        writerThread = new Thread(this::run, TAG);
+        writerThread.setPriority(Thread.NORM_PRIORITY - 1);
+        writerThread.start();
+    }
+    
+    // Never blocks the caller: if the database cannot keep up the result is dropped and counted
+    public boolean enqueue(ProbeResult result) {
+        if (closed || !queue.offer(result)) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+    
+    public void setRawRetentionHours(int hours) {
+        rawRetentionMs = TimeUnit.HOURS.toMillis(Math.max(1, hours));
+    }
+    
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+    
+    // Stops accepting results; the writer thread commits what is still queued, then exits.
+    // The repository's own executor is not used by the writer and is shut down now
+    public void close() {
+        closed = true;
+        repository.shutdown();
+    }
+    
+    private void run() {
+        List<ProbeResult> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        long nextCompactionNanos = System.nanoTime() + FIRST_COMPACTION_DELAY_NANOS;
+        while (true) {
+            if (System.nanoTime() - nextCompactionNanos >= 0 && !closed) {
+                compact();
+                nextCompactionNanos = System.nanoTime() + COMPACTION_INTERVAL_NANOS;
+            }
+            ProbeResult first;
+            try {
+                first = queue.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                closed = true;
+                first = null;
+            }
+            if (first == null) {
+                if (closed && queue.isEmpty()) {
+                    return;
+                }
+                continue;
+            }
+            batch.add(first);
+            queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+            try {
+                repository.insertBatch(batch);
+            } catch (RuntimeException e) {
+                dropped.addAndGet(batch.size());
+                Log.e(TAG, "Could not store " + batch.size() + " probe results", e);
+            }
+            batch.clear();
+        }
+    }
+    
+    private void compact() {
+        try {
+            int deleted = repository.compact(rawRetentionMs);
+            if (deleted > 0) {
+                Log.d(TAG, "Compacted " + deleted + " raw probe results");
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Probe result compaction failed", e);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,146 @@
+package com.ltrudu.serverresponsetest.repository;
+
+import android.util.Log;
+import com.ltrudu.serverresponsetest.data.ProbeResult;
+import com.ltrudu.serverresponsetest.data.ProbeRollup;
+import com.ltrudu.serverresponsetest.data.ProbeRollupDao;
+import com.ltrudu.serverresponsetest.service.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Folds stored probe results into the minute and hour rollups as they are written. The current
+ * bucket of each server stays in memory, so a batch costs one upsert per touched bucket rather
+ * than a read-modify-write per result. Before a cached bucket takes part in a batch its stored
+ * count is checked, inside the batch's transaction, so rows deleted by another repository (a
+ * cleared history, a deleted server) are never written back. Not thread-safe: only the
+ * ProbeResultWriter thread uses it.
+ */
+public class RollupAggregator {
+    
+    private static final String TAG = "RollupAggregator";
+    private static final long[] RESOLUTIONS = {ProbeRollup.RESOLUTION_MINUTE_MS, ProbeRollup.RESOLUTION_HOUR_MS};
+    
+    private final ProbeRollupDao rollupDao;
+    // Open bucket per server, one map per resolution
+    private final List<Map<Long, OpenRollup>> openRollups = new ArrayList<>();
+    
+    private static class OpenRollup {
+        final long serverId;
+        final long resolutionMs;
+        final long bucketStart;
+        long count;
+        long errors;
+        final LatencyHistogram latency;
+        
+        OpenRollup(long serverId, long resolutionMs, long bucketStart, ProbeRollup stored) {
+            this.serverId = serverId;
+            this.resolutionMs = resolutionMs;
+            this.bucketStart = bucketStart;
+            latency = new LatencyHistogram();
+            if (stored != null) {
+                count = stored.getCount();
+                errors = stored.getErrors();
+                try {
+                    latency.merge(stored.getSketch());
+                } catch (IllegalArgumentException e) {
+                    // The bucket keeps its counts; its latencies restart from the next result
+                    Log.w(TAG, "Corrupt sketch in rollup " + serverId + "/" + resolutionMs + "/" + bucketStart, e);
+                }
+            }
+        }
+        
+        void add(ProbeResult result) {
+            count++;
+            if (result.isSuccess()) {
+                latency.record(result.getResponseNanos());
+            } else {
+                errors++;
+            }
+        }
+        
+        ProbeRollup toRollup() {
+            ProbeRollup rollup = new ProbeRollup();
+            rollup.setServerId(serverId);
+            rollup.setResolutionMs(resolutionMs);
+            rollup.setBucketStart(bucketStart);
+            rollup.setCount(count);
+            rollup.setErrors(errors);
+            rollup.setMinNanos(latency.getMinNanos());
+            rollup.setMaxNanos(latency.getMaxNanos());
+            rollup.setSumNanos(latency.getTotalNanos());
+            rollup.setSketch(latency.toBytes());
+            return rollup;
+        }
+    }
+    
+    public RollupAggregator(ProbeRollupDao rollupDao) {
+        this.rollupDao = rollupDao;
+        for (int i = 0; i < RESOLUTIONS.length; i++) {
+            openRollups.add(new HashMap<>());
+        }
+    }
+    
+    /**
+     * Adds the results to their buckets and returns the rollups that changed, ready to be
+     * upserted in the same transaction as the results. Must run inside that transaction.
+     */
+    public List<ProbeRollup> add(List<ProbeResult> results) {
+        Map<OpenRollup, Boolean> touched = new LinkedHashMap<>();
+        Map<String, OpenRollup> lateRollups = new HashMap<>();
+        for (ProbeResult result : results) {
+            for (int i = 0; i < RESOLUTIONS.length; i++) {
+                long resolutionMs = RESOLUTIONS[i];
+                long bucketStart = result.getTimestamp() - Math.floorMod(result.getTimestamp(), resolutionMs);
+                Map<Long, OpenRollup> open = openRollups.get(i);
+                OpenRollup rollup = open.get(result.getServerId());
+                if (rollup != null && rollup.bucketStart == bucketStart && !touched.containsKey(rollup)
+                        && !isCurrent(rollup)) {
+                    // Deleted or changed underneath the cache since the last batch
+                    rollup = null;
+                }
+                if (rollup == null || rollup.bucketStart < bucketStart) {
+                    rollup = load(result.getServerId(), resolutionMs, bucketStart);
+                    open.put(result.getServerId(), rollup);
+                } else if (rollup.bucketStart > bucketStart) {
+                    // Late result for an older bucket: loaded once per batch, the open bucket stays
+                    String key = result.getServerId() + "/" + resolutionMs + "/" + bucketStart;
+                    rollup = lateRollups.get(key);
+                    if (rollup == null) {
+                        rollup = load(result.getServerId(), resolutionMs, bucketStart);
+                        lateRollups.put(key, rollup);
+                    }
+                }
+                rollup.add(result);
+                touched.put(rollup, Boolean.TRUE);
+            }
+        }
+        
+        List<ProbeRollup> changed = new ArrayList<>(touched.size());
+        for (OpenRollup rollup : touched.keySet()) {
+            changed.add(rollup.toRollup());
+        }
+        return changed;
+    }
+    
+    // The cache writes every change it makes, so a stored count that differs means someone else deleted it
+    private boolean isCurrent(OpenRollup rollup) {
+        Long stored = rollupDao.getRollupCount(rollup.serverId, rollup.resolutionMs, rollup.bucketStart);
+        return stored != null && stored == rollup.count;
+    }
+    
+    private OpenRollup load(long serverId, long resolutionMs, long bucketStart) {
+        return new OpenRollup(serverId, resolutionMs, bucketStart, rollupDao.getRollup(serverId, resolutionMs, bucketStart));
+    }
+    
+    // Drops the in-memory state, e.g. after rows were deleted underneath it
+    public void clear() {
+        for (Map<Long, OpenRollup> open : openRollups) {
+            open.clear();
+        }
+    }
+}
\ No newline at end of file
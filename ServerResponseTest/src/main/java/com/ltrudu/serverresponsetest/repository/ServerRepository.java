@@ -3,6 +3,8 @@ package com.ltrudu.serverresponsetest.repository;
 import android.app.Application;
 import androidx.lifecycle.LiveData;
 import com.ltrudu.serverresponsetest.data.AppDatabase;
+import com.ltrudu.serverresponsetest.data.ProbeResultDao;
+import com.ltrudu.serverresponsetest.data.ProbeRollupDao;
 import com.ltrudu.serverresponsetest.data.Server;
 import com.ltrudu.serverresponsetest.data.ServerDao;
 
@@ -12,13 +14,18 @@ import java.util.concurrent.Executors;
 
 public class ServerRepository {
     
+    private AppDatabase database;
     private ServerDao serverDao;
+    private ProbeResultDao probeResultDao;
+    private ProbeRollupDao probeRollupDao;
     private LiveData<List<Server>> allServers;
     private ExecutorService executorService;
     
     public ServerRepository(Application application) {
-        AppDatabase database = AppDatabase.getDatabase(application);
+        database = AppDatabase.getDatabase(application);
         serverDao = database.serverDao();
+        probeResultDao = database.probeResultDao();
+        probeRollupDao = database.probeRollupDao();
         allServers = serverDao.getAllServers();
         executorService = Executors.newFixedThreadPool(2);
     }
@@ -49,11 +56,20 @@ public class ServerRepository {
     }
     
     public void deleteServer(Server server) {
-        executorService.execute(() -> serverDao.deleteServer(server));
+        // The server's probe history goes with it
+        executorService.execute(() -> database.runInTransaction(() -> {
+            probeResultDao.deleteResultsForServer(server.getId());
+            probeRollupDao.deleteRollupsForServer(server.getId());
+            serverDao.deleteServer(server);
+        }));
     }
     
     public void deleteAllServers() {
-        executorService.execute(() -> serverDao.deleteAllServers());
+        executorService.execute(() -> database.runInTransaction(() -> {
+            probeResultDao.deleteAllResults();
+            probeRollupDao.deleteAllRollups();
+            serverDao.deleteAllServers();
+        }));
     }
     
     public interface OnServerInsertedListener {
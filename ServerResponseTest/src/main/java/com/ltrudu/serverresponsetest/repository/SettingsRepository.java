@@ -75,6 +75,54 @@ public class SettingsRepository {
         executorService.execute(() -> settingsDao.updateNumberOfRequests(value));
     }
     
+    public void updateConcurrentMode(boolean value) {
+        executorService.execute(() -> settingsDao.updateConcurrentMode(value));
+    }
+    
+    public void updateNonBlockingEngine(boolean value) {
+        executorService.execute(() -> settingsDao.updateNonBlockingEngine(value));
+    }
+    
+    public void updateMaxConcurrency(int value) {
+        executorService.execute(() -> settingsDao.updateMaxConcurrency(value));
+    }
+    
+    public void updateLoadMaxInFlight(int value) {
+        executorService.execute(() -> settingsDao.updateLoadMaxInFlight(value));
+    }
+    
+    public void updateMaxConnectionsPerHost(int value) {
+        executorService.execute(() -> settingsDao.updateMaxConnectionsPerHost(value));
+    }
+    
+    public void updateRawRetentionHours(int value) {
+        executorService.execute(() -> settingsDao.updateRawRetentionHours(value));
+    }
+    
+    public void updateNotificationIntervalMs(int value) {
+        executorService.execute(() -> settingsDao.updateNotificationIntervalMs(value));
+    }
+    
+    public void updateTcpConnectTimeoutMs(int value) {
+        executorService.execute(() -> settingsDao.updateTcpConnectTimeoutMs(value));
+    }
+    
+    public void updateDnsCacheTtlMs(int value) {
+        executorService.execute(() -> settingsDao.updateDnsCacheTtlMs(value));
+    }
+    
+    public void updateMaxBodyBytes(int value) {
+        executorService.execute(() -> settingsDao.updateMaxBodyBytes(value));
+    }
+    
+    public void updateMinTimeoutMs(int value) {
+        executorService.execute(() -> settingsDao.updateMinTimeoutMs(value));
+    }
+    
+    public void updateMaxTimeoutMs(int value) {
+        executorService.execute(() -> settingsDao.updateMaxTimeoutMs(value));
+    }
+    
     public void shutdown() {
         if (executorService != null) {
             executorService.shutdown();
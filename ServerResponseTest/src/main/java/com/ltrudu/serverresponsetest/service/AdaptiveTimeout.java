@@ -0,0 +1,66 @@
+package com.ltrudu.serverresponsetest.service;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timeout of a server without an explicit one, derived from its recent latency: MULTIPLIER
+ * times the p99 of its last WINDOW responses, within the bounds the caller passes. Until
+ * MIN_SAMPLES responses have been recorded the upper bound applies, so a slow server is never
+ * cut short before its latency is known. Every network failure doubles the timeout of the next
+ * probe, up to the upper bound, so a server that became slower gets through again and teaches
+ * the estimate its new latency; a response resets the widening.
+ *
+ * The samples are kept in a fixed ring and the p99 is only computed when a timeout is asked for
+ * after new responses, so recording costs a store and each server holds two small arrays.
+ */
+public class AdaptiveTimeout {
+    
+    public static final int MULTIPLIER = 5;
+    public static final int MIN_SAMPLES = 20;
+    static final int WINDOW = 200;
+    // Stops the widening once it can no longer make a difference
+    private static final int MAX_WIDENING_SHIFT = 16;
+    
+    private final long[] samples = new long[WINDOW];
+    // Sorted copy of the samples, reused by every p99 computation
+    private final long[] sorted = new long[WINDOW];
+    private long recorded = 0;
+    private boolean p99Stale = false;
+    private long p99Nanos;
+    private int wideningShift = 0;
+    
+    public synchronized void recordResponse(long nanos) {
+        samples[(int) (recorded % WINDOW)] = nanos;
+        recorded++;
+        p99Stale = true;
+        wideningShift = 0;
+    }
+    
+    public synchronized void recordNetworkFailure() {
+        wideningShift = Math.min(wideningShift + 1, MAX_WIDENING_SHIFT);
+    }
+    
+    /**
+     * Timeout for the next probe, between minMs and maxMs.
+     */
+    public synchronized int getTimeoutMs(int minMs, int maxMs) {
+        if (recorded < MIN_SAMPLES) {
+            return maxMs;
+        }
+        long timeoutMs = TimeUnit.NANOSECONDS.toMillis(getP99Nanos() * MULTIPLIER) << wideningShift;
+        return (int) Math.max(minMs, Math.min(maxMs, timeoutMs));
+    }
+    
+    private long getP99Nanos() {
+        if (p99Stale) {
+            int count = (int) Math.min(recorded, WINDOW);
+            System.arraycopy(samples, 0, sorted, 0, count);
+            Arrays.sort(sorted, 0, count);
+            int rank = (int) Math.ceil(0.99 * count);
+            p99Nanos = sorted[rank - 1];
+            p99Stale = false;
+        }
+        return p99Nanos;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,101 @@
+package com.ltrudu.serverresponsetest.service;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-server circuit breaker of a run. After a few consecutive network failures the circuit
+ * opens and the server's probes are skipped until a backoff delay has passed; the next probe is
+ * then a single trial (half-open). A trial that reaches the server closes the circuit and the
+ * server is back on its normal cadence, a failed one opens it again for twice as long, up to
+ * MAX_BACKOFF_MS. Each delay is drawn between half and all of its nominal value so servers that
+ * went down together do not all retry in the same slot.
+ *
+ * Only network failures count: a server that answers with a bad status or fails a response
+ * check is reachable and keeps being probed at full rate.
+ */
+public class CircuitBreaker {
+    
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+    
+    // Consecutive network failures that open the circuit
+    public static final int FAILURE_THRESHOLD = 3;
+    public static final long MAX_BACKOFF_MS = 300000;
+    
+    private final long baseBackoffNanos;
+    private final long maxBackoffNanos;
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    // Times the circuit opened since it was last closed; the backoff is baseBackoff * 2^openCount
+    private int openCount = 0;
+    private long retryAtNanos;
+    private long retryAtMillis;
+    
+    /**
+     * @param baseBackoffMs the server's probe interval; the first opening lasts twice as long
+     */
+    public CircuitBreaker(long baseBackoffMs) {
+        this.baseBackoffNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, baseBackoffMs));
+        this.maxBackoffNanos = Math.max(baseBackoffNanos, TimeUnit.MILLISECONDS.toNanos(MAX_BACKOFF_MS));
+    }
+    
+    /**
+     * Whether a probe may run now. Once an open circuit's delay is over the circuit turns
+     * half-open and this probe is its trial.
+     */
+    public synchronized boolean allowProbe() {
+        if (state == State.OPEN && System.nanoTime() - retryAtNanos >= 0) {
+            state = State.HALF_OPEN;
+        }
+        return state != State.OPEN;
+    }
+    
+    /**
+     * Records the result of a probe. Returns the previous state if the circuit changed state,
+     * null otherwise.
+     */
+    public synchronized State onResult(boolean reachable) {
+        State previous = state;
+        if (reachable) {
+            consecutiveFailures = 0;
+            openCount = 0;
+            state = State.CLOSED;
+        } else {
+            consecutiveFailures++;
+            if (state == State.HALF_OPEN || consecutiveFailures >= FAILURE_THRESHOLD) {
+                open();
+            }
+        }
+        return state != previous ? previous : null;
+    }
+    
+    public synchronized State getState() {
+        return state;
+    }
+    
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+    
+    // Wall-clock time after which an open circuit lets a trial through, for display
+    public synchronized long getRetryAtMillis() {
+        return retryAtMillis;
+    }
+    
+    private void open() {
+        openCount++;
+        long backoff = baseBackoffNanos;
+        for (int i = 0; i < openCount && backoff < maxBackoffNanos; i++) {
+            backoff *= 2;
+        }
+        backoff = Math.min(backoff, maxBackoffNanos);
+        long delay = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+        state = State.OPEN;
+        retryAtNanos = System.nanoTime() + delay;
+        retryAtMillis = System.currentTimeMillis() + TimeUnit.NANOSECONDS.toMillis(delay);
+    }
+}
\ No newline at end of file
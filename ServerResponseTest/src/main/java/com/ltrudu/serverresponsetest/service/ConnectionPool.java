@@ -0,0 +1,123 @@
+package com.ltrudu.serverresponsetest.service;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps idle keep-alive connections per host so warm probes can skip the TCP and TLS handshakes.
+ * At most maxIdlePerHost connections are kept for a host; connections idle for longer than the
+ * idle timeout are closed the next time the pool is touched.
+ */
+public class ConnectionPool {
+    
+    private final int maxIdlePerHost;
+    private final long idleTimeoutNanos;
+    private final Map<String, ArrayDeque<Connection>> idleConnections = new HashMap<>();
+    private boolean closed = false;
+    
+    public static class Connection {
+        private static final int BUFFER_SIZE = 8192;
+        
+        final String key;
+        final Socket socket;
+        final InputStream in;
+        final OutputStream out;
+        // Scratch space for header lines and discarded body bytes, reused for every exchange
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        long idleSinceNanos;
+        
+        Connection(String key, Socket socket) throws IOException {
+            this.key = key;
+            this.socket = socket;
+            this.in = new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE);
+            this.out = socket.getOutputStream();
+        }
+        
+        public void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+        }
+    }
+    
+    public ConnectionPool(int maxIdlePerHost, long idleTimeoutMs) {
+        this.maxIdlePerHost = Math.max(1, maxIdlePerHost);
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMs);
+    }
+    
+    // Returns the most recently used idle connection for the host, or null if none is left
+    public Connection acquire(String key) {
+        synchronized (this) {
+            evictExpired(System.nanoTime());
+            ArrayDeque<Connection> connections = idleConnections.get(key);
+            while (connections != null && !connections.isEmpty()) {
+                Connection connection = connections.pollFirst();
+                if (!connection.socket.isClosed() && !connection.socket.isInputShutdown()) {
+                    return connection;
+                }
+                connection.close();
+            }
+        }
+        return null;
+    }
+    
+    public void release(Connection connection) {
+        boolean kept = false;
+        synchronized (this) {
+            long now = System.nanoTime();
+            evictExpired(now);
+            if (!closed) {
+                ArrayDeque<Connection> connections = idleConnections.get(connection.key);
+                if (connections == null) {
+                    connections = new ArrayDeque<>();
+                    idleConnections.put(connection.key, connections);
+                }
+                if (connections.size() < maxIdlePerHost) {
+                    connection.idleSinceNanos = now;
+                    connections.addFirst(connection);
+                    kept = true;
+                }
+            }
+        }
+        if (!kept) {
+            connection.close();
+        }
+    }
+    
+    // Closes every idle connection; connections in use are closed when released
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            for (ArrayDeque<Connection> connections : idleConnections.values()) {
+                for (Connection connection : connections) {
+                    connection.close();
+                }
+            }
+            idleConnections.clear();
+        }
+    }
+    
+    private void evictExpired(long now) {
+        Iterator<ArrayDeque<Connection>> iterator = idleConnections.values().iterator();
+        while (iterator.hasNext()) {
+            ArrayDeque<Connection> connections = iterator.next();
+            // Oldest connections sit at the tail
+            while (!connections.isEmpty() && now - connections.peekLast().idleSinceNanos > idleTimeoutNanos) {
+                connections.pollLast().close();
+            }
+            if (connections.isEmpty()) {
+                iterator.remove();
+            }
+        }
+    }
+}
\ No newline at end of file
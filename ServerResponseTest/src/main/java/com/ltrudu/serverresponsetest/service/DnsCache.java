@@ -0,0 +1,101 @@
+package com.ltrudu.serverresponsetest.service;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Host name cache shared by every probe type, so a probe only pays for a resolution when the
+ * cached record has expired. InetAddress does not expose the TTL of the records it returns, so
+ * entries live for a configured time instead. Failed lookups are cached too, for a shorter
+ * time, so an unknown host is not looked up again on every cycle.
+ */
+public class DnsCache {
+    
+    private static final long MAX_NEGATIVE_TTL_MS = 5000;
+    
+    public static class Resolution {
+        public final InetAddress address;
+        // True when the answer came from the cache and no lookup was made
+        public final boolean cached;
+        // Time spent on this lookup, a few microseconds for a cached answer
+        public final long nanos;
+        
+        Resolution(InetAddress address, boolean cached, long nanos) {
+            this.address = address;
+            this.cached = cached;
+            this.nanos = nanos;
+        }
+    }
+    
+    private static class Entry {
+        // Null for a cached failure
+        final InetAddress address;
+        final String failure;
+        final long expiresNanos;
+        
+        Entry(InetAddress address, String failure, long expiresNanos) {
+            this.address = address;
+            this.failure = failure;
+            this.expiresNanos = expiresNanos;
+        }
+    }
+    
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private volatile long ttlNanos;
+    private volatile long negativeTtlNanos;
+    
+    public DnsCache(long ttlMs) {
+        setTtlMs(ttlMs);
+    }
+    
+    public void setTtlMs(long ttlMs) {
+        ttlNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, ttlMs));
+        negativeTtlNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, Math.min(ttlMs, MAX_NEGATIVE_TTL_MS)));
+    }
+    
+    /**
+     * Returns the cached answer for host, or null if there is none or it has expired. Never
+     * blocks, so the selector thread may call it. A cached failure is thrown again.
+     */
+    public Resolution lookup(String host) throws UnknownHostException {
+        long start = System.nanoTime();
+        Entry entry = entries.get(host);
+        if (entry == null || start - entry.expiresNanos >= 0) {
+            return null;
+        }
+        if (entry.address == null) {
+            throw new UnknownHostException(entry.failure);
+        }
+        return new Resolution(entry.address, true, System.nanoTime() - start);
+    }
+    
+    // Cached answer if there is a valid one, otherwise a fresh lookup
+    public Resolution resolve(String host) throws UnknownHostException {
+        Resolution resolution = lookup(host);
+        return resolution != null ? resolution : refresh(host);
+    }
+    
+    /**
+     * Always looks the host up, timing it, and stores the answer (or the failure) in the cache.
+     */
+    public Resolution refresh(String host) throws UnknownHostException {
+        long start = System.nanoTime();
+        try {
+            InetAddress address = InetAddress.getByName(host);
+            long end = System.nanoTime();
+            entries.put(host, new Entry(address, null, end + ttlNanos));
+            return new Resolution(address, false, end - start);
+        } catch (UnknownHostException e) {
+            String failure = e.getMessage() != null ? e.getMessage() : host;
+            entries.put(host, new Entry(null, failure, System.nanoTime() + negativeTtlNanos));
+            throw e;
+        }
+    }
+    
+    public void clear() {
+        entries.clear();
+    }
+}
\ No newline at end of file
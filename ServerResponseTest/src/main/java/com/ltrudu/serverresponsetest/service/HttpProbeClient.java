@@ -0,0 +1,629 @@
+package com.ltrudu.serverresponsetest.service;
+
+import com.ltrudu.serverresponsetest.data.Server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Minimal HTTP/1.1 client for the HTTP probe. Unlike HttpURLConnection it decides itself what
+ * happens to the connection: a cold probe opens a fresh connection and closes it, a warm probe
+ * borrows a keep-alive connection from the ConnectionPool and returns it once the response has
+ * been read to the end.
+ */
+public class HttpProbeClient {
+    
+    // Larger bodies are not worth draining just to keep the connection (shared with NioProbeEngine)
+    static final int MAX_DRAINED_BODY_BYTES = 64 * 1024;
+    private static final int BODY_BUFFER_SIZE = 64 * 1024;
+    
+    // Body-read mode streams through one buffer per probe thread, so a request allocates nothing for its body
+    private static final ThreadLocal<byte[]> BODY_BUFFER = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[BODY_BUFFER_SIZE];
+        }
+    };
+    
+    private final ConnectionPool connectionPool;
+    private final DnsCache dnsCache;
+    // Closes the socket of an in-flight request when the run is stopped
+    private final RunControl runControl;
+    // Body-read mode stops after this many body bytes
+    private final long maxBodyBytes;
+    private final SSLSocketFactory sslSocketFactory = (SSLSocketFactory) SSLSocketFactory.getDefault();
+    private final HostnameVerifier hostnameVerifier = HttpsURLConnection.getDefaultHostnameVerifier();
+    
+    public static class Response {
+        public int statusCode;
+        // True when the request went over a pooled keep-alive connection (no handshake)
+        public boolean connectionReused;
+        // Phase durations in nanoseconds, -1 when the phase did not happen (e.g. on a reused connection)
+        public long dnsNanos = -1;
+        // The host name came from DnsCache, dnsNanos is then only the cache lookup
+        public boolean dnsCached;
+        public long connectNanos = -1;
+        public long tlsNanos = -1;
+        // From sending the request to the first response byte
+        public long ttfbNanos = -1;
+        // From the first response byte to the end of the response
+        public long bodyNanos = -1;
+        // Body-read mode: body bytes read, -1 when the body was not read
+        public long bodyBytes = -1;
+        // Body-read mode: the body went past maxBodyBytes and the rest was not read
+        public boolean bodyTruncated;
+        // Bit i set once expected header i of the target's assertions has been seen
+        public long headerMatches;
+        // KMP state of the body check, the pattern length once the expected text was found
+        public int bodyMatchState;
+    }
+    
+    /**
+     * Probe plan of a server, compiled once per run: host, port and, for HTTP, the encoded
+     * request and its checks. PING and DNS plans only carry the host.
+     */
+    public static class Target {
+        final boolean secure;
+        final String host;
+        final int port;
+        final String poolKey;
+        // Null for a connect-only target
+        final byte[] keepAliveRequest;
+        final byte[] closeRequest;
+        // Stream the whole body (up to maxBodyBytes) to measure throughput
+        final boolean readBody;
+        // HEAD request: the response never has a body, whatever its headers say
+        final boolean head;
+        // Checks on status, headers and body, null when the server sets none
+        final ResponseAssertions assertions;
+        // The body goes through streamBody(): body-read mode or a body check
+        final boolean streamBody;
+        // GET or HEAD: may be sent again after a reused connection failed. A POST or PUT may
+        // already have reached the server, and is never sent twice
+        final boolean retryable;
+        
+        private Target(boolean secure, String host, int port, String poolKey, byte[] keepAliveRequest, byte[] closeRequest,
+                       boolean readBody, boolean head, boolean retryable, ResponseAssertions assertions) {
+            this.secure = secure;
+            this.host = host;
+            this.port = port;
+            this.poolKey = poolKey;
+            this.keepAliveRequest = keepAliveRequest;
+            this.closeRequest = closeRequest;
+            this.readBody = readBody;
+            this.head = head;
+            this.retryable = retryable;
+            this.assertions = assertions;
+            this.streamBody = readBody || (assertions != null && assertions.hasBodyCheck());
+        }
+        
+        /**
+         * Plan of a server of any request type. Throws if the address has no usable host, or if
+         * a TCP server has no port.
+         */
+        public static Target compile(Server server) throws MalformedURLException {
+            switch (server.getRequestType()) {
+                case HTTPS:
+                    return fromServer(server);
+                case TCP:
+                    return forConnect(server);
+                default:
+                    return forHost(server);
+            }
+        }
+        
+        /**
+         * HTTP target of a server. The request, with its method, headers and body, is encoded
+         * here once, in a keep-alive and a close variant, and sent as is by every probe.
+         */
+        public static Target fromServer(Server server) throws MalformedURLException {
+            String urlString = server.getAddress();
+            
+            if (!urlString.startsWith("http://") && !urlString.startsWith("https://")) {
+                urlString = "https://" + urlString;
+            }
+            
+            URL url = new URL(urlString);
+            boolean secure = "https".equals(url.getProtocol());
+            int port = server.getPort() != null ? server.getPort()
+                    : url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+            String host = url.getHost();
+            if (host.startsWith("[") && host.endsWith("]")) {
+                host = host.substring(1, host.length() - 1);
+            }
+            if (host.isEmpty()) {
+                throw new MalformedURLException("Missing host in " + urlString);
+            }
+            String path = url.getFile().isEmpty() ? "/" : url.getFile();
+            String hostHeader = port == url.getDefaultPort() ? url.getHost() : url.getHost() + ":" + port;
+            Server.HttpMethod method = server.getHttpMethod() != null ? server.getHttpMethod() : Server.HttpMethod.GET;
+            byte[] body = method.hasRequestBody()
+                    ? (server.getRequestBody() != null ? server.getRequestBody() : "").getBytes(StandardCharsets.UTF_8) : null;
+            String headers = server.getRequestHeaders();
+            return new Target(secure, host, port, (secure ? "https://" : "http://") + host + ":" + port,
+                    encodeRequest(method, path, hostHeader, headers, body, "keep-alive"),
+                    encodeRequest(method, path, hostHeader, headers, body, "close"),
+                    server.isReadBody() && method != Server.HttpMethod.HEAD, method == Server.HttpMethod.HEAD,
+                    !method.hasRequestBody(), ResponseAssertions.fromServer(server));
+        }
+        
+        /**
+         * Host and port of a TCP probe. The address may carry a scheme, a port or a path, all
+         * ignored; the port is the server's own and is required.
+         */
+        public static Target forConnect(Server server) throws MalformedURLException {
+            String host = hostOf(server.getAddress());
+            if (server.getPort() == null) {
+                throw new MalformedURLException("TCP probe needs a port");
+            }
+            return new Target(false, host, server.getPort(), "tcp://" + host + ":" + server.getPort(), null, null,
+                    false, false, false, null);
+        }
+        
+        // Host of a PING or DNS probe, without a port
+        private static Target forHost(Server server) throws MalformedURLException {
+            return new Target(false, hostOf(server.getAddress()), -1, null, null, null, false, false, false, null);
+        }
+        
+        /**
+         * Host part of an address that may carry a scheme, a port or a path.
+         */
+        public static String hostOf(String address) throws MalformedURLException {
+            String host = address.trim();
+            int schemeEnd = host.indexOf("://");
+            if (schemeEnd >= 0) {
+                host = host.substring(schemeEnd + 3);
+            }
+            int pathStart = host.indexOf('/');
+            if (pathStart >= 0) {
+                host = host.substring(0, pathStart);
+            }
+            if (host.startsWith("[") && host.indexOf(']') > 0) {
+                host = host.substring(1, host.indexOf(']'));
+            } else if (host.indexOf(':') == host.lastIndexOf(':') && host.indexOf(':') >= 0) {
+                // host:port, but not a bare IPv6 address
+                host = host.substring(0, host.indexOf(':'));
+            }
+            if (host.isEmpty()) {
+                throw new MalformedURLException("Missing host in " + address);
+            }
+            return host;
+        }
+        
+        /**
+         * Request line, headers and body as sent on the wire. The server's own headers may
+         * replace User-Agent and Accept; Host, Connection, Content-Length and Transfer-Encoding
+         * are the client's and are dropped from them.
+         */
+        private static byte[] encodeRequest(Server.HttpMethod method, String path, String hostHeader, String headers,
+                                            byte[] body, String connection) {
+            StringBuilder request = new StringBuilder(256)
+                    .append(method.name()).append(' ').append(path).append(" HTTP/1.1\r\n")
+                    .append("Host: ").append(hostHeader).append("\r\n");
+            boolean userAgent = false;
+            boolean accept = false;
+            if (headers != null) {
+                for (String header : headers.split("\n")) {
+                    int colon = header.indexOf(':');
+                    if (colon <= 0) {
+                        // Blank line, or rejected by the server dialog
+                        continue;
+                    }
+                    String name = header.substring(0, colon).trim();
+                    if (isClientHeader(name)) {
+                        continue;
+                    }
+                    userAgent |= name.equalsIgnoreCase("User-Agent");
+                    accept |= name.equalsIgnoreCase("Accept");
+                    request.append(name).append(": ").append(header.substring(colon + 1).trim()).append("\r\n");
+                }
+            }
+            if (!userAgent) {
+                request.append("User-Agent: ServerResponseTest\r\n");
+            }
+            if (!accept) {
+                request.append("Accept: */*\r\n");
+            }
+            if (body != null) {
+                request.append("Content-Length: ").append(body.length).append("\r\n");
+            }
+            request.append("Connection: ").append(connection).append("\r\n\r\n");
+            byte[] head = request.toString().getBytes(StandardCharsets.ISO_8859_1);
+            if (body == null || body.length == 0) {
+                return head;
+            }
+            byte[] bytes = Arrays.copyOf(head, head.length + body.length);
+            System.arraycopy(body, 0, bytes, head.length, body.length);
+            return bytes;
+        }
+        
+        private static boolean isClientHeader(String name) {
+            return name.equalsIgnoreCase("Host") || name.equalsIgnoreCase("Connection")
+                    || name.equalsIgnoreCase("Content-Length") || name.equalsIgnoreCase("Transfer-Encoding");
+        }
+    }
+    
+    public HttpProbeClient(ConnectionPool connectionPool, DnsCache dnsCache, RunControl runControl, long maxBodyBytes) {
+        this.connectionPool = connectionPool;
+        this.dnsCache = dnsCache;
+        this.runControl = runControl;
+        this.maxBodyBytes = maxBodyBytes;
+    }
+    
+    /**
+     * Sends the request and reads the response. timeoutMs bounds the connect and every read,
+     * the TLS handshake included.
+     */
+    public Response execute(Target target, boolean warm, int timeoutMs) throws IOException {
+        if (warm) {
+            ConnectionPool.Connection connection = connectionPool.acquire(target.poolKey);
+            if (connection != null) {
+                try {
+                    // The pooled socket still has the timeout of the probe that opened it
+                    connection.socket.setSoTimeout(timeoutMs);
+                    return exchange(target, connection, new Response(), true);
+                } catch (SocketTimeoutException e) {
+                    // The server is slow, not the connection stale
+                    throw e;
+                } catch (IOException e) {
+                    if (!target.retryable) {
+                        throw e;
+                    }
+                    // The server may have closed the idle connection: retry once on a fresh one
+                }
+            }
+        }
+        Response response = new Response();
+        return exchange(target, connect(target, response, timeoutMs), response, warm);
+    }
+    
+    private ConnectionPool.Connection connect(Target target, Response response, int timeoutMs) throws IOException {
+        DnsCache.Resolution resolution = dnsCache.resolve(target.host);
+        long resolved = System.nanoTime();
+        response.dnsNanos = resolution.nanos;
+        response.dnsCached = resolution.cached;
+        InetAddress address = resolution.address;
+        
+        Socket plainSocket = new Socket();
+        // Closing the plain socket also aborts a TLS handshake running over it
+        runControl.register(plainSocket);
+        try {
+            plainSocket.setTcpNoDelay(true);
+            plainSocket.connect(new InetSocketAddress(address, target.port), timeoutMs);
+            long connected = System.nanoTime();
+            response.connectNanos = connected - resolved;
+            plainSocket.setSoTimeout(timeoutMs);
+            Socket socket = plainSocket;
+            if (target.secure) {
+                SSLSocket sslSocket = (SSLSocket) sslSocketFactory.createSocket(plainSocket, target.host, target.port, true);
+                sslSocket.startHandshake();
+                if (!hostnameVerifier.verify(target.host, sslSocket.getSession())) {
+                    sslSocket.close();
+                    throw new SSLPeerUnverifiedException("Certificate does not match " + target.host);
+                }
+                response.tlsNanos = System.nanoTime() - connected;
+                socket = sslSocket;
+            }
+            return new ConnectionPool.Connection(target.poolKey, socket);
+        } catch (IOException e) {
+            plainSocket.close();
+            throw e;
+        } finally {
+            runControl.unregister(plainSocket);
+        }
+    }
+    
+    private Response exchange(Target target, ConnectionPool.Connection connection, Response response, boolean keepAlive)
+            throws IOException {
+        boolean reusable = false;
+        runControl.register(connection.socket);
+        try {
+            long requestStart = System.nanoTime();
+            connection.out.write(keepAlive ? target.keepAliveRequest : target.closeRequest);
+            connection.out.flush();
+            
+            InputStream in = connection.in;
+            // Wait for the first byte without consuming it so TTFB excludes header parsing
+            in.mark(1);
+            if (in.read() < 0) {
+                throw new EOFException("Connection closed before the response");
+            }
+            in.reset();
+            long firstByte = System.nanoTime();
+            response.ttfbNanos = firstByte - requestStart;
+            
+            byte[] line = connection.buffer;
+            int length = readLine(in, line);
+            if (length < 12 || !startsWith(line, "HTTP/1.")) {
+                throw new ProtocolException("Malformed status line");
+            }
+            response.statusCode = parseInt(line, 9, 12);
+            response.connectionReused = response.dnsNanos < 0;
+            
+            // HTTP/1.0 closes by default, HTTP/1.1 keeps alive by default
+            boolean close = line[7] == '0';
+            long contentLength = -1;
+            boolean chunked = false;
+            while ((length = readLine(in, line)) > 0) {
+                if (headerNameIs(line, length, "Content-Length")) {
+                    contentLength = parseLong(line, valueStart(line, length), length);
+                } else if (headerNameIs(line, length, "Transfer-Encoding")) {
+                    chunked = containsIgnoreCase(line, valueStart(line, length), length, "chunked");
+                } else if (headerNameIs(line, length, "Connection")) {
+                    int from = valueStart(line, length);
+                    if (containsIgnoreCase(line, from, length, "close")) {
+                        close = true;
+                    } else if (containsIgnoreCase(line, from, length, "keep-alive")) {
+                        close = false;
+                    }
+                }
+                if (target.assertions != null) {
+                    response.headerMatches = target.assertions.matchHeader(line, length, response.headerMatches);
+                }
+            }
+            
+            int status = response.statusCode;
+            boolean hasBody = !(target.head || status < 200 || status == 204 || status == 304);
+            boolean drained;
+            if (!hasBody) {
+                drained = true;
+            } else if (target.streamBody) {
+                drained = streamBody(target, in, chunked, contentLength, line, response);
+            } else if (chunked) {
+                drained = drainChunked(in, line);
+            } else if (contentLength >= 0) {
+                drained = contentLength <= MAX_DRAINED_BODY_BYTES && skipFully(in, contentLength, line);
+            } else {
+                // Body delimited by the end of the connection
+                drained = false;
+            }
+            response.bodyNanos = System.nanoTime() - firstByte;
+            reusable = keepAlive && !close && drained;
+            return response;
+        } finally {
+            runControl.unregister(connection.socket);
+            if (reusable && runControl.isRunning()) {
+                connectionPool.release(connection);
+            } else {
+                connection.close();
+            }
+        }
+    }
+    
+    private static boolean drainChunked(InputStream in, byte[] buffer) throws IOException {
+        long total = 0;
+        while (true) {
+            int length = readLine(in, buffer);
+            long chunkSize = parseHex(buffer, length);
+            if (chunkSize == 0) {
+                // Skip trailers up to the empty line that ends the message
+                while (readLine(in, buffer) > 0) {
+                    // Ignored
+                }
+                return true;
+            }
+            total += chunkSize;
+            if (total > MAX_DRAINED_BODY_BYTES) {
+                return false;
+            }
+            skipFully(in, chunkSize, buffer);
+            readLine(in, buffer);
+        }
+    }
+    
+    /**
+     * Reads the body through the thread's body buffer, up to maxBodyBytes, counting it in
+     * body-read mode and feeding it to the body check if there is one. Without body-read mode the
+     * read stops as soon as the expected text is found. Returns true if the connection is left
+     * at the end of the response.
+     */
+    private boolean streamBody(Target target, InputStream in, boolean chunked, long contentLength, byte[] line,
+                               Response response) throws IOException {
+        byte[] buffer = BODY_BUFFER.get();
+        long total = 0;
+        boolean drained = false;
+        if (chunked) {
+            while (true) {
+                long chunkSize = parseHex(line, readLine(in, line));
+                if (chunkSize == 0) {
+                    while (readLine(in, line) > 0) {
+                        // Trailers ignored
+                    }
+                    drained = true;
+                    break;
+                }
+                long wanted = Math.min(chunkSize, maxBodyBytes - total);
+                long read = stream(target, in, wanted, buffer, response);
+                total += read;
+                if (foundEarly(target, response)) {
+                    break;
+                }
+                if (read < wanted) {
+                    throw new EOFException("Connection closed inside response body");
+                }
+                if (wanted < chunkSize) {
+                    response.bodyTruncated = true;
+                    break;
+                }
+                readLine(in, line);
+            }
+        } else if (contentLength < 0) {
+            // Delimited by the end of the connection: a full read up to the limit may have more behind it
+            total = stream(target, in, maxBodyBytes, buffer, response);
+            response.bodyTruncated = total == maxBodyBytes && !foundEarly(target, response);
+        } else {
+            long wanted = Math.min(contentLength, maxBodyBytes);
+            total = stream(target, in, wanted, buffer, response);
+            if (foundEarly(target, response)) {
+                // The rest is drained like any small body, so the connection can be kept
+                long left = contentLength - total;
+                drained = left <= MAX_DRAINED_BODY_BYTES && skipFully(in, left, line);
+            } else if (total < wanted) {
+                throw new EOFException("Connection closed inside response body");
+            } else {
+                response.bodyTruncated = wanted < contentLength;
+                drained = !response.bodyTruncated;
+            }
+        }
+        if (target.readBody) {
+            response.bodyBytes = total;
+        }
+        return drained;
+    }
+    
+    /**
+     * Reads up to count bytes, overwriting buffer and feeding the body check. Returns fewer at
+     * the end of the stream, or once the expected text is found outside body-read mode.
+     */
+    private static long stream(Target target, InputStream in, long count, byte[] buffer, Response response)
+            throws IOException {
+        ResponseAssertions assertions = target.assertions != null && target.assertions.hasBodyCheck() ? target.assertions : null;
+        long total = 0;
+        while (total < count) {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, count - total));
+            if (read < 0) {
+                break;
+            }
+            total += read;
+            if (assertions != null && !assertions.bodyFound(response.bodyMatchState)) {
+                response.bodyMatchState = assertions.advance(response.bodyMatchState, buffer, 0, read);
+                if (!target.readBody && assertions.bodyFound(response.bodyMatchState)) {
+                    break;
+                }
+            }
+        }
+        return total;
+    }
+    
+    // The body check is decided and nothing else needs the rest of the body
+    private static boolean foundEarly(Target target, Response response) {
+        return !target.readBody && target.assertions != null && target.assertions.hasBodyCheck()
+                && target.assertions.bodyFound(response.bodyMatchState);
+    }
+    
+    private static boolean skipFully(InputStream in, long count, byte[] buffer) throws IOException {
+        while (count > 0) {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, count));
+            if (read < 0) {
+                throw new EOFException("Connection closed inside response body");
+            }
+            count -= read;
+        }
+        return true;
+    }
+    
+    // Reads one CRLF-terminated line into buffer and returns its length without the terminator
+    private static int readLine(InputStream in, byte[] buffer) throws IOException {
+        int length = 0;
+        while (true) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Connection closed before the end of the response headers");
+            }
+            if (b == '\n') {
+                return length > 0 && buffer[length - 1] == '\r' ? length - 1 : length;
+            }
+            if (length == buffer.length) {
+                throw new ProtocolException("Response header line too long");
+            }
+            buffer[length++] = (byte) b;
+        }
+    }
+    
+    static boolean startsWith(byte[] line, String prefix) {
+        for (int i = 0; i < prefix.length(); i++) {
+            if (line[i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    static boolean headerNameIs(byte[] line, int length, String name) {
+        if (length <= name.length() || line[name.length()] != ':') {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (Character.toLowerCase((char) line[i]) != Character.toLowerCase(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    static int valueStart(byte[] line, int length) {
+        int i = 0;
+        while (i < length && line[i] != ':') {
+            i++;
+        }
+        i++;
+        while (i < length && (line[i] == ' ' || line[i] == '\t')) {
+            i++;
+        }
+        return i;
+    }
+    
+    static boolean containsIgnoreCase(byte[] line, int from, int to, String token) {
+        int last = to - token.length();
+        for (int start = from; start <= last; start++) {
+            int i = 0;
+            while (i < token.length() && Character.toLowerCase((char) line[start + i]) == token.charAt(i)) {
+                i++;
+            }
+            if (i == token.length()) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    static int parseInt(byte[] line, int from, int to) throws ProtocolException {
+        return (int) parseLong(line, from, to);
+    }
+    
+    static long parseLong(byte[] line, int from, int to) throws ProtocolException {
+        long value = 0;
+        int i = from;
+        while (i < to && line[i] >= '0' && line[i] <= '9') {
+            value = value * 10 + (line[i] - '0');
+            i++;
+        }
+        if (i == from) {
+            throw new ProtocolException("Expected a number in the response");
+        }
+        return value;
+    }
+    
+    static long parseHex(byte[] line, int length) throws ProtocolException {
+        long value = 0;
+        int i = 0;
+        while (i < length) {
+            int digit = Character.digit(line[i], 16);
+            if (digit < 0) {
+                // Chunk extensions follow a ';'
+                break;
+            }
+            value = value * 16 + digit;
+            i++;
+        }
+        if (i == 0) {
+            throw new ProtocolException("Malformed chunk size");
+        }
+        return value;
+    }
+}
\ No newline at end of file
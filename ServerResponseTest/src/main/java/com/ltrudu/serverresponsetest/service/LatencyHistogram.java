@@ -0,0 +1,270 @@
+package com.ltrudu.serverresponsetest.service;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size log-linear latency histogram in nanoseconds, in the spirit of HdrHistogram.
+ * Values below 2^SUB_BUCKET_BITS ns get exact buckets; above that every power of two is split
+ * into 2^SUB_BUCKET_BITS linear sub-buckets, which bounds the relative error to about 3%.
+ * Recording is lock-free and allocation-free, so probe threads can record concurrently while
+ * the UI queries percentiles.
+ */
+public class LatencyHistogram {
+    
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    // Values are clamped to 2^40 ns (about 18 minutes)
+    private static final int MAX_VALUE_BITS = 40;
+    private static final long MAX_VALUE = (1L << MAX_VALUE_BITS) - 1;
+    private static final int BUCKET_COUNT = (MAX_VALUE_BITS - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+    private static final int SERIAL_VERSION = 1;
+    
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong minNanos = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong maxNanos = new AtomicLong(0);
+    
+    public void record(long nanos) {
+        long value = Math.max(0, Math.min(nanos, MAX_VALUE));
+        counts.incrementAndGet(bucketIndex(value));
+        totalCount.incrementAndGet();
+        totalNanos.addAndGet(value);
+        updateMinMax(value, value);
+    }
+    
+    public void merge(LatencyHistogram other) {
+        if (other.getCount() == 0) {
+            return;
+        }
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long count = other.counts.get(i);
+            if (count != 0) {
+                counts.addAndGet(i, count);
+            }
+        }
+        totalCount.addAndGet(other.totalCount.get());
+        totalNanos.addAndGet(other.totalNanos.get());
+        updateMinMax(other.minNanos.get(), other.maxNanos.get());
+    }
+    
+    /**
+     * Adds a histogram serialized with toBytes(); null or empty data is an empty histogram. The
+     * whole sketch is decoded and checked before anything is added, so a corrupt one leaves this
+     * histogram untouched and throws IllegalArgumentException.
+     */
+    public void merge(byte[] serialized) {
+        if (serialized == null || serialized.length == 0) {
+            return;
+        }
+        if (serialized[0] != SERIAL_VERSION) {
+            throw new IllegalArgumentException("Unknown sketch version " + serialized[0]);
+        }
+        int[] position = {1};
+        long count = readVarLong(serialized, position);
+        if (count == 0) {
+            return;
+        }
+        long sum = readVarLong(serialized, position);
+        long min = readVarLong(serialized, position);
+        long max = readVarLong(serialized, position);
+        long[] decoded = new long[BUCKET_COUNT];
+        long decodedCount = 0;
+        long index = -1;
+        while (position[0] < serialized.length) {
+            index += readVarLong(serialized, position) + 1;
+            long bucketCount = readVarLong(serialized, position);
+            if (index < 0 || index >= BUCKET_COUNT || bucketCount <= 0) {
+                throw new IllegalArgumentException("Corrupt sketch bucket at " + index);
+            }
+            decoded[(int) index] = bucketCount;
+            decodedCount += bucketCount;
+        }
+        if (decodedCount != count || min > max || max > MAX_VALUE) {
+            throw new IllegalArgumentException("Corrupt sketch: " + decodedCount + " values for a count of " + count);
+        }
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            if (decoded[i] != 0) {
+                counts.addAndGet(i, decoded[i]);
+            }
+        }
+        totalCount.addAndGet(count);
+        totalNanos.addAndGet(sum);
+        updateMinMax(min, max);
+    }
+    
+    /**
+     * Compact form for storage: count, sum, min and max followed by (index gap, count) pairs
+     * for the non-empty buckets only, all as variable-length integers. A sketch of a real
+     * latency distribution takes a few hundred bytes at most.
+     */
+    public byte[] toBytes() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        out.write(SERIAL_VERSION);
+        long count = totalCount.get();
+        writeVarLong(out, count);
+        if (count == 0) {
+            return out.toByteArray();
+        }
+        writeVarLong(out, totalNanos.get());
+        writeVarLong(out, minNanos.get());
+        writeVarLong(out, maxNanos.get());
+        int previous = -1;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long bucketCount = counts.get(i);
+            if (bucketCount != 0) {
+                writeVarLong(out, i - previous - 1);
+                writeVarLong(out, bucketCount);
+                previous = i;
+            }
+        }
+        return out.toByteArray();
+    }
+    
+    public static LatencyHistogram fromBytes(byte[] serialized) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.merge(serialized);
+        return histogram;
+    }
+    
+    private void updateMinMax(long newMin, long newMax) {
+        long min = minNanos.get();
+        while (newMin < min && !minNanos.compareAndSet(min, newMin)) {
+            min = minNanos.get();
+        }
+        long max = maxNanos.get();
+        while (newMax > max && !maxNanos.compareAndSet(max, newMax)) {
+            max = maxNanos.get();
+        }
+    }
+    
+    public long getCount() {
+        return totalCount.get();
+    }
+    
+    public long getMinNanos() {
+        return totalCount.get() > 0 ? minNanos.get() : 0;
+    }
+    
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+    
+    public long getTotalNanos() {
+        return totalNanos.get();
+    }
+    
+    public long getMeanNanos() {
+        long count = totalCount.get();
+        return count > 0 ? totalNanos.get() / count : 0;
+    }
+    
+    /**
+     * Returns the value at the given percentile (0-100), or 0 when nothing was recorded. The
+     * answer is the upper bound of the bucket holding that rank, capped at the exact maximum.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = totalCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(bucketUpperBound(i), maxNanos.get());
+            }
+        }
+        return maxNanos.get();
+    }
+    
+    /**
+     * Fills target with p50, p90, p99, p99.9 and max (in this order) in one pass over the buckets.
+     */
+    public void getSummary(long[] target) {
+        long count = totalCount.get();
+        long max = maxNanos.get();
+        if (count == 0) {
+            for (int i = 0; i < target.length; i++) {
+                target[i] = 0;
+            }
+            return;
+        }
+        long[] ranks = {
+                Math.max(1, (long) Math.ceil(0.5 * count)),
+                Math.max(1, (long) Math.ceil(0.9 * count)),
+                Math.max(1, (long) Math.ceil(0.99 * count)),
+                Math.max(1, (long) Math.ceil(0.999 * count))
+        };
+        int next = 0;
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT && next < ranks.length; i++) {
+            seen += counts.get(i);
+            while (next < ranks.length && seen >= ranks[next]) {
+                target[next++] = Math.min(bucketUpperBound(i), max);
+            }
+        }
+        while (next < ranks.length) {
+            target[next++] = max;
+        }
+        if (target.length > ranks.length) {
+            target[ranks.length] = max;
+        }
+    }
+    
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        totalCount.set(0);
+        totalNanos.set(0);
+        minNanos.set(Long.MAX_VALUE);
+        maxNanos.set(0);
+    }
+    
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        // Position of the highest set bit decides the power-of-two range, the next bits the sub-bucket
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) - SUB_BUCKET_COUNT;
+        return (shift + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+    
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long subBucket = index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+    
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+    
+    private static long readVarLong(byte[] data, int[] position) {
+        long value = 0;
+        int shift = 0;
+        while (true) {
+            if (position[0] >= data.length || shift > 63) {
+                throw new IllegalArgumentException("Truncated sketch");
+            }
+            byte b = data[position[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+}
\ No newline at end of file
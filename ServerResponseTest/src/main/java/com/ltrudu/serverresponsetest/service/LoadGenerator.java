@@ -0,0 +1,329 @@
+package com.ltrudu.serverresponsetest.service;
+
+import android.util.Log;
+import com.ltrudu.serverresponsetest.data.Server;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives one server with sustained load, either open-loop at a target request rate
+ * (sends are issued on schedule whether or not earlier ones have answered) or closed-loop
+ * with a fixed number of virtual users that each fire their next request as soon as the
+ * previous one completes. Live statistics are reported once per second.
+ */
+public class LoadGenerator {
+    
+    private static final String TAG = "LoadGenerator";
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+    private static final long LATE_THRESHOLD_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+    private static final long STATS_PERIOD_MS = 1000;
+    
+    public interface RequestTask {
+        // Performs one request that was due at intendedNanos and returns whether it succeeded
+        boolean execute(Server server, long intendedNanos);
+    }
+    
+    public interface Listener {
+        void onLoadStats(Server server, LoadStats stats);
+        
+        void onLoadFinished(Server server);
+    }
+    
+    public static class LoadStats {
+        public Server.LoadMode mode;
+        public int target;
+        public double achievedRps;
+        public int inFlight;
+        public long sent;
+        public long completed;
+        public long errors;
+        public long dropped;
+        public long late;
+        public long meanResponseTimeMs;
+        // Measured from each request's intended send time rather than its actual one
+        public long meanCorrectedResponseTimeMs;
+        // Since the generator started
+        public long p99Nanos;
+        public long correctedP99Nanos;
+    }
+    
+    // Replaced by update()
+    private volatile Server server;
+    private final Server.LoadMode mode;
+    private final int target;
+    private final long requestBudget;
+    private final ExecutorService loadExecutor;
+    private final ScheduledExecutorService timer;
+    private final RequestTask requestTask;
+    private final Listener listener;
+    
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private final AtomicInteger inFlight = new AtomicInteger(0);
+    private final AtomicLong sent = new AtomicLong(0);
+    private final AtomicLong completed = new AtomicLong(0);
+    private final AtomicLong errors = new AtomicLong(0);
+    private final AtomicLong dropped = new AtomicLong(0);
+    private final AtomicLong late = new AtomicLong(0);
+    private final AtomicLong responseTimeSumNanos = new AtomicLong(0);
+    private final AtomicLong correctedResponseTimeSumNanos = new AtomicLong(0);
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LatencyHistogram correctedLatency = new LatencyHistogram();
+    private final AtomicInteger activeUsers = new AtomicInteger(0);
+    
+    private ScheduledFuture<?> tickFuture;
+    private ScheduledFuture<?> statsFuture;
+    private volatile long startNanos;
+    private volatile boolean paused = false;
+    private long pausedAtNanos;
+    // Written by the timer thread only
+    private volatile long issued = 0;
+    
+    // Previous stats snapshot, only touched by the stats task
+    private long lastStatsNanos;
+    private long lastCompleted;
+    private long lastResponseTimeSumNanos;
+    private long lastCorrectedResponseTimeSumNanos;
+    
+    /**
+     * @param requestBudget total number of requests to send, 0 to run until stopped
+     */
+    public LoadGenerator(Server server, long requestBudget, ExecutorService loadExecutor,
+                         ScheduledExecutorService timer, RequestTask requestTask, Listener listener) {
+        this.server = server;
+        this.mode = server.getLoadMode();
+        this.target = server.getLoadTarget() != null ? Math.max(1, server.getLoadTarget()) : 1;
+        this.requestBudget = requestBudget;
+        this.loadExecutor = loadExecutor;
+        this.timer = timer;
+        this.requestTask = requestTask;
+        this.listener = listener;
+    }
+    
+    public void start() {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        startNanos = System.nanoTime();
+        lastStatsNanos = startNanos;
+        
+        if (mode == Server.LoadMode.RPS) {
+            tickFuture = timer.scheduleAtFixedRate(this::tick, 0, TICK_NANOS, TimeUnit.NANOSECONDS);
+        } else {
+            for (int i = 0; i < target; i++) {
+                activeUsers.incrementAndGet();
+                try {
+                    loadExecutor.execute(this::runVirtualUser);
+                } catch (RejectedExecutionException e) {
+                    activeUsers.decrementAndGet();
+                    Log.w(TAG, "Load pool exhausted, " + server.getName() + " runs with " + i + " virtual users");
+                    break;
+                }
+            }
+            if (activeUsers.get() == 0) {
+                finishWhenDrained();
+                return;
+            }
+        }
+        statsFuture = timer.scheduleAtFixedRate(this::publishStats, STATS_PERIOD_MS, STATS_PERIOD_MS, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Returns false if the generator had already finished, in which case onLoadFinished was called.
+     */
+    public boolean stop() {
+        if (running.compareAndSet(true, false)) {
+            cancelTimers();
+            synchronized (this) {
+                // Releases the virtual users parked in awaitResume()
+                notifyAll();
+            }
+            return true;
+        }
+        return false;
+    }
+    
+    public synchronized void pause() {
+        if (!paused) {
+            pausedAtNanos = System.nanoTime();
+            paused = true;
+        }
+    }
+    
+    public synchronized void resume() {
+        if (paused) {
+            // Shift the open-loop timeline so the paused period is not replayed as a burst
+            startNanos += System.nanoTime() - pausedAtNanos;
+            paused = false;
+            notifyAll();
+        }
+    }
+    
+    public Server getServer() {
+        return server;
+    }
+    
+    /**
+     * Hands the server's new definition to the running generator, for an edit that keeps its
+     * request, load mode and target (a new name, for instance): the next requests use it.
+     */
+    public void update(Server server) {
+        this.server = server;
+    }
+    
+    // Open-loop: issue every send whose intended time has passed since the last tick
+    private void tick() {
+        if (!running.get() || paused) {
+            return;
+        }
+        long now = System.nanoTime();
+        long due = (now - startNanos) * target / TimeUnit.SECONDS.toNanos(1) + 1;
+        if (requestBudget > 0) {
+            due = Math.min(due, requestBudget);
+        }
+        
+        while (issued < due && running.get()) {
+            long intendedNanos = startNanos + issued * TimeUnit.SECONDS.toNanos(1) / target;
+            issued++;
+            if (now - intendedNanos > LATE_THRESHOLD_NANOS) {
+                late.incrementAndGet();
+            }
+            sent.incrementAndGet();
+            inFlight.incrementAndGet();
+            try {
+                loadExecutor.execute(() -> sendOne(intendedNanos));
+            } catch (RejectedExecutionException e) {
+                // Every load thread is busy: an open-loop generator drops rather than queues
+                inFlight.decrementAndGet();
+                dropped.incrementAndGet();
+            }
+        }
+        
+        if (requestBudget > 0 && issued >= requestBudget) {
+            tickFuture.cancel(false);
+            finishWhenDrained();
+        }
+    }
+    
+    private void sendOne(long intendedNanos) {
+        try {
+            long start = System.nanoTime();
+            boolean success;
+            try {
+                success = requestTask.execute(server, intendedNanos);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Load request failed for " + server.getName(), e);
+                success = false;
+            }
+            long end = System.nanoTime();
+            responseTimeSumNanos.addAndGet(end - start);
+            // A send that left late because the pool was saturated still owes that wait to the server
+            long correctedNanos = end - Math.min(intendedNanos, start);
+            correctedResponseTimeSumNanos.addAndGet(correctedNanos);
+            if (success) {
+                latency.record(end - start);
+                correctedLatency.record(correctedNanos);
+            } else {
+                errors.incrementAndGet();
+            }
+            completed.incrementAndGet();
+        } finally {
+            inFlight.decrementAndGet();
+        }
+        if (requestBudget > 0 && issued >= requestBudget) {
+            finishWhenDrained();
+        }
+    }
+    
+    // Closed-loop: one virtual user sends back-to-back requests until stopped or out of budget
+    private void runVirtualUser() {
+        try {
+            while (running.get()) {
+                if (paused && !awaitResume()) {
+                    break;
+                }
+                long ticket = sent.incrementAndGet();
+                if (requestBudget > 0 && ticket > requestBudget) {
+                    sent.decrementAndGet();
+                    break;
+                }
+                inFlight.incrementAndGet();
+                // Closed-loop: the next request is only due once the previous one returned
+                sendOne(System.nanoTime());
+            }
+        } finally {
+            if (activeUsers.decrementAndGet() == 0 && requestBudget > 0) {
+                finishWhenDrained();
+            }
+        }
+    }
+    
+    // Parks a virtual user until resume() or stop(); returns false if the generator stopped
+    private synchronized boolean awaitResume() {
+        try {
+            while (paused && running.get()) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return running.get();
+    }
+    
+    private void finishWhenDrained() {
+        if (inFlight.get() == 0 && running.compareAndSet(true, false)) {
+            cancelTimers();
+            publishStats();
+            listener.onLoadFinished(server);
+        }
+    }
+    
+    private void cancelTimers() {
+        if (tickFuture != null) {
+            tickFuture.cancel(false);
+        }
+        if (statsFuture != null) {
+            statsFuture.cancel(false);
+        }
+    }
+    
+    private synchronized void publishStats() {
+        long now = System.nanoTime();
+        long completedNow = completed.get();
+        long responseTimeSumNow = responseTimeSumNanos.get();
+        long correctedResponseTimeSumNow = correctedResponseTimeSumNanos.get();
+        long completedDelta = completedNow - lastCompleted;
+        double elapsedSeconds = (now - lastStatsNanos) / 1e9;
+        
+        LoadStats stats = new LoadStats();
+        stats.mode = mode;
+        stats.target = target;
+        stats.achievedRps = elapsedSeconds > 0 ? completedDelta / elapsedSeconds : 0;
+        stats.inFlight = inFlight.get();
+        stats.sent = sent.get();
+        stats.completed = completedNow;
+        stats.errors = errors.get();
+        stats.dropped = dropped.get();
+        stats.late = late.get();
+        stats.meanResponseTimeMs = completedDelta > 0
+                ? TimeUnit.NANOSECONDS.toMillis((responseTimeSumNow - lastResponseTimeSumNanos) / completedDelta) : 0;
+        stats.p99Nanos = latency.getValueAtPercentile(99);
+        stats.correctedP99Nanos = correctedLatency.getValueAtPercentile(99);
+        stats.meanCorrectedResponseTimeMs = completedDelta > 0
+                ? TimeUnit.NANOSECONDS.toMillis((correctedResponseTimeSumNow - lastCorrectedResponseTimeSumNanos) / completedDelta) : 0;
+        
+        lastStatsNanos = now;
+        lastCompleted = completedNow;
+        lastResponseTimeSumNanos = responseTimeSumNow;
+        lastCorrectedResponseTimeSumNanos = correctedResponseTimeSumNow;
+        
+        listener.onLoadStats(server, stats);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,1007 @@
+package com.ltrudu.serverresponsetest.service;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
+
+/**
+ * HTTP/1.1 probe engine built on non-blocking SocketChannels. A single selector thread drives
+ * every connect, TLS handshake (through an SSLEngine) and exchange, so hundreds of servers can
+ * be probed at the same time without a thread each. It also runs connect-only TCP probes.
+ * Host names come from the shared DnsCache; a cache miss is resolved on a small pool because
+ * InetAddress has no non-blocking API. Requests, response parsing, keep-alive reuse and
+ * phase timings follow HttpProbeClient, and results come back as the same Response.
+ */
+public class NioProbeEngine implements Closeable {
+    
+    private static final String TAG = "NioProbeEngine";
+    private static final int RESOLVER_THREADS = 4;
+    private static final int PLAIN_BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_LINE_LENGTH = 8192;
+    // How often deadlines and idle connections are checked
+    private static final long SCAN_PERIOD_MS = 100;
+    
+    public interface Callback {
+        // Selector thread: keep it short. startNanos is when the engine began working on the request
+        void onComplete(long startNanos, HttpProbeClient.Response response);
+        
+        void onFailure(long startNanos, IOException e);
+    }
+    
+    private enum State { RESOLVING, CONNECTING, HANDSHAKING, SENDING, RECEIVING }
+    
+    private enum ParseState { STATUS_LINE, HEADERS, BODY, CHUNK_SIZE, CHUNK_DATA, CHUNK_END, TRAILERS }
+    
+    private final int maxInFlight;
+    private final int maxIdlePerHost;
+    private final long idleTimeoutMs;
+    // Body-read mode stops after this many body bytes
+    private final long maxBodyBytes;
+    private final Selector selector;
+    private final SSLContext sslContext;
+    private final DnsCache dnsCache;
+    private final HostnameVerifier hostnameVerifier = HttpsURLConnection.getDefaultHostnameVerifier();
+    private final ExecutorService resolver = Executors.newFixedThreadPool(RESOLVER_THREADS);
+    private final Queue<Runnable> commands = new ConcurrentLinkedQueue<>();
+    private final Thread selectorThread;
+    private volatile boolean closed = false;
+    
+    // Selector thread only
+    private final Set<Exchange> active = new HashSet<>();
+    private final ArrayDeque<Exchange> waiting = new ArrayDeque<>();
+    private final Map<String, ArrayDeque<Connection>> idle = new HashMap<>();
+    
+    private static class Connection {
+        final String poolKey;
+        final SocketChannel channel;
+        SelectionKey key;
+        // TLS only; netOut holds encrypted bytes not yet written
+        SSLEngine engine;
+        ByteBuffer netIn;
+        ByteBuffer netOut;
+        // Response bytes waiting to be parsed, decrypted for TLS
+        ByteBuffer appIn;
+        Exchange exchange;
+        long idleSinceMs;
+        
+        Connection(String poolKey, SocketChannel channel) {
+            this.poolKey = poolKey;
+            this.channel = channel;
+        }
+    }
+    
+    private static class Exchange {
+        final HttpProbeClient.Target target;
+        final boolean warm;
+        // TCP probe: completes once connected, nothing is sent
+        final boolean connectOnly;
+        // Bounds the connect, the TLS handshake and every wait for response bytes
+        final long timeoutNanos;
+        final Callback callback;
+        HttpProbeClient.Response response = new HttpProbeClient.Response();
+        State state;
+        Connection connection;
+        boolean reused;
+        // A failed reused connection is retried once, on a fresh connection
+        boolean retried;
+        boolean done;
+        long startNanos;
+        long connectStartNanos;
+        long connectedNanos;
+        long requestStartNanos;
+        long firstByteNanos;
+        boolean firstByteSeen;
+        // 0 while no timeout applies (host name resolution)
+        long deadlineNanos;
+        ByteBuffer outgoing;
+        
+        ParseState parseState;
+        final byte[] line = new byte[MAX_LINE_LENGTH];
+        int lineLength;
+        boolean close;
+        boolean chunked;
+        long contentLength;
+        long remaining;
+        long chunkedTotal;
+        boolean reusable;
+        // Body-read mode: bytes counted so far, and whether the body ends with the connection
+        long bodyBytes;
+        boolean bodyTruncated;
+        boolean untilClose;
+        // The body check is still looking for its text
+        boolean matching;
+        
+        Exchange(HttpProbeClient.Target target, boolean warm, boolean connectOnly, long timeoutNanos, Callback callback) {
+            this.target = target;
+            this.warm = warm;
+            this.connectOnly = connectOnly;
+            this.timeoutNanos = timeoutNanos;
+            this.callback = callback;
+        }
+    }
+    
+    /**
+     * @param maxInFlight exchanges running at once; further requests wait in line
+     * @param maxIdlePerHost keep-alive connections kept per host for warm probes
+     */
+    public NioProbeEngine(DnsCache dnsCache, int maxInFlight, int maxIdlePerHost, long idleTimeoutMs,
+                          long maxBodyBytes) throws IOException {
+        this.dnsCache = dnsCache;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.maxIdlePerHost = Math.max(1, maxIdlePerHost);
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.maxBodyBytes = maxBodyBytes;
+        try {
+            this.sslContext = SSLContext.getDefault();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("TLS is not available", e);
+        }
+        this.selector = Selector.open();
+        this.selectorThread = new Thread(this::runLoop, TAG);
+        selectorThread.start();
+    }
+    
+    /**
+     * Starts a request from any thread. The callback is called exactly once, on the selector
+     * thread, also when the engine is closed before the request completes (on the calling
+     * thread if it was already closed).
+     */
+    public void execute(HttpProbeClient.Target target, boolean warm, int timeoutMs, Callback callback) {
+        submit(new Exchange(target, warm, false, TimeUnit.MILLISECONDS.toNanos(timeoutMs), callback));
+    }
+    
+    /**
+     * Starts a TCP probe: resolves the host and opens a connection to the port, then closes it.
+     * The Response only carries dnsNanos and connectNanos, the latter from the connect() call to
+     * the selector reporting the connection established (SYN to SYN/ACK plus the loop's wake-up).
+     */
+    public void connect(HttpProbeClient.Target target, int timeoutMs, Callback callback) {
+        submit(new Exchange(target, false, true, TimeUnit.MILLISECONDS.toNanos(timeoutMs), callback));
+    }
+    
+    private void submit(Exchange exchange) {
+        Runnable command = () -> start(exchange);
+        commands.add(command);
+        if (closed && commands.remove(command)) {
+            // The selector thread is gone and will not run it
+            notifyFailure(exchange, new InterruptedIOException("Probe engine closed"));
+            return;
+        }
+        selector.wakeup();
+    }
+    
+    /**
+     * Runs a request and waits for its response, for callers that need a blocking call
+     * (the sequential loop and the load generators).
+     */
+    public HttpProbeClient.Response executeBlocking(HttpProbeClient.Target target, boolean warm, int timeoutMs)
+            throws IOException {
+        BlockingCallback callback = new BlockingCallback();
+        execute(target, warm, timeoutMs, callback);
+        return callback.await();
+    }
+    
+    public HttpProbeClient.Response connectBlocking(HttpProbeClient.Target target, int timeoutMs) throws IOException {
+        BlockingCallback callback = new BlockingCallback();
+        connect(target, timeoutMs, callback);
+        return callback.await();
+    }
+    
+    private static class BlockingCallback implements Callback {
+        final CountDownLatch latch = new CountDownLatch(1);
+        HttpProbeClient.Response response;
+        IOException failure;
+        
+        @Override
+        public void onComplete(long startNanos, HttpProbeClient.Response response) {
+            this.response = response;
+            latch.countDown();
+        }
+        
+        @Override
+        public void onFailure(long startNanos, IOException e) {
+            failure = e;
+            latch.countDown();
+        }
+        
+        HttpProbeClient.Response await() throws IOException {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the response");
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return response;
+        }
+    }
+    
+    /**
+     * Fails every pending request and closes every connection. Returns at once; the selector
+     * thread finishes the cleanup.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        resolver.shutdownNow();
+        selector.wakeup();
+    }
+    
+    private void runLoop() {
+        long nextScanNanos = System.nanoTime();
+        while (!closed) {
+            try {
+                selector.select(SCAN_PERIOD_MS);
+            } catch (IOException e) {
+                Log.e(TAG, "Selector failed", e);
+                break;
+            }
+            Runnable command;
+            while ((command = commands.poll()) != null) {
+                command.run();
+            }
+            processSelectedKeys();
+            long now = System.nanoTime();
+            if (now - nextScanNanos >= 0) {
+                expire(now);
+                nextScanNanos = now + TimeUnit.MILLISECONDS.toNanos(SCAN_PERIOD_MS);
+            }
+        }
+        shutdown();
+    }
+    
+    private void shutdown() {
+        closed = true;
+        Runnable command;
+        while ((command = commands.poll()) != null) {
+            // start() sees the engine closed and fails the request
+            command.run();
+        }
+        InterruptedIOException stopped = new InterruptedIOException("Probe engine closed");
+        for (Exchange exchange : new ArrayList<>(active)) {
+            fail(exchange, stopped);
+        }
+        while (!waiting.isEmpty()) {
+            notifyFailure(waiting.poll(), stopped);
+        }
+        for (ArrayDeque<Connection> connections : idle.values()) {
+            for (Connection connection : connections) {
+                closeConnection(connection);
+            }
+        }
+        idle.clear();
+        try {
+            selector.close();
+        } catch (IOException e) {
+            // Nothing left to release
+        }
+    }
+    
+    private void start(Exchange exchange) {
+        if (closed) {
+            notifyFailure(exchange, new InterruptedIOException("Probe engine closed"));
+        } else if (active.size() >= maxInFlight) {
+            waiting.add(exchange);
+        } else {
+            active.add(exchange);
+            exchange.startNanos = System.nanoTime();
+            begin(exchange);
+        }
+    }
+    
+    // Takes a keep-alive connection for a warm request, otherwise resolves the host
+    private void begin(Exchange exchange) {
+        if (exchange.warm && !exchange.retried) {
+            Connection connection = takeIdle(exchange.target.poolKey);
+            if (connection != null) {
+                exchange.reused = true;
+                exchange.response.connectionReused = true;
+                attach(exchange, connection);
+                startSending(exchange);
+                return;
+            }
+        }
+        exchange.state = State.RESOLVING;
+        exchange.deadlineNanos = 0;
+        try {
+            // A cached answer needs no hop through the resolver pool
+            DnsCache.Resolution cached = dnsCache.lookup(exchange.target.host);
+            if (cached != null) {
+                connect(exchange, cached);
+                return;
+            }
+            resolver.execute(() -> resolve(exchange));
+        } catch (UnknownHostException e) {
+            fail(exchange, e);
+        } catch (RejectedExecutionException e) {
+            fail(exchange, new InterruptedIOException("Probe engine closed"));
+        }
+    }
+    
+    // Resolver thread
+    private void resolve(Exchange exchange) {
+        Runnable result;
+        try {
+            DnsCache.Resolution resolution = dnsCache.resolve(exchange.target.host);
+            result = () -> connect(exchange, resolution);
+        } catch (IOException e) {
+            result = () -> fail(exchange, e);
+        }
+        commands.add(result);
+        selector.wakeup();
+    }
+    
+    private void connect(Exchange exchange, DnsCache.Resolution resolution) {
+        if (exchange.done) {
+            return;
+        }
+        exchange.response.dnsNanos = resolution.nanos;
+        exchange.response.dnsCached = resolution.cached;
+        InetAddress address = resolution.address;
+        SocketChannel channel = null;
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            Connection connection = new Connection(exchange.target.poolKey, channel);
+            connection.key = channel.register(selector, 0, connection);
+            attach(exchange, connection);
+            exchange.state = State.CONNECTING;
+            exchange.connectStartNanos = System.nanoTime();
+            exchange.deadlineNanos = exchange.connectStartNanos + exchange.timeoutNanos;
+            if (channel.connect(new InetSocketAddress(address, exchange.target.port))) {
+                onConnected(exchange);
+            } else {
+                connection.key.interestOps(SelectionKey.OP_CONNECT);
+            }
+        } catch (IOException e) {
+            if (exchange.connection == null && channel != null) {
+                closeQuietly(channel);
+            }
+            fail(exchange, e);
+        }
+    }
+    
+    private void onConnected(Exchange exchange) throws IOException {
+        Connection connection = exchange.connection;
+        exchange.connectedNanos = System.nanoTime();
+        // From connect(), so the hop from the resolver to the selector thread is in neither phase
+        exchange.response.connectNanos = exchange.connectedNanos - exchange.connectStartNanos;
+        if (exchange.connectOnly) {
+            finish(exchange, false);
+            return;
+        }
+        if (!exchange.target.secure) {
+            // Direct, so the channel reads straight into it; body bytes are then skipped in place
+            connection.appIn = ByteBuffer.allocateDirect(PLAIN_BUFFER_SIZE);
+            startSending(exchange);
+            return;
+        }
+        SSLEngine engine = sslContext.createSSLEngine(exchange.target.host, exchange.target.port);
+        engine.setUseClientMode(true);
+        SSLSession session = engine.getSession();
+        connection.engine = engine;
+        connection.netIn = ByteBuffer.allocateDirect(session.getPacketBufferSize());
+        connection.netOut = ByteBuffer.allocate(session.getPacketBufferSize());
+        connection.appIn = ByteBuffer.allocate(session.getApplicationBufferSize());
+        engine.beginHandshake();
+        exchange.state = State.HANDSHAKING;
+        exchange.deadlineNanos = System.nanoTime() + exchange.timeoutNanos;
+        continueHandshake(exchange);
+    }
+    
+    private void continueHandshake(Exchange exchange) throws IOException {
+        Connection connection = exchange.connection;
+        if (!handshake(connection)) {
+            return;
+        }
+        if (!hostnameVerifier.verify(exchange.target.host, connection.engine.getSession())) {
+            throw new SSLPeerUnverifiedException("Certificate does not match " + exchange.target.host);
+        }
+        exchange.response.tlsNanos = System.nanoTime() - exchange.connectedNanos;
+        startSending(exchange);
+    }
+    
+    // Advances the TLS handshake as far as the socket allows; true once it is complete
+    private boolean handshake(Connection connection) throws IOException {
+        SSLEngine engine = connection.engine;
+        while (true) {
+            if (!flush(connection)) {
+                connection.key.interestOps(SelectionKey.OP_WRITE);
+                return false;
+            }
+            switch (engine.getHandshakeStatus()) {
+                case NEED_WRAP:
+                    checkOpen(engine.wrap(ByteBuffer.allocate(0), connection.netOut));
+                    break;
+                case NEED_UNWRAP:
+                    connection.netIn.flip();
+                    SSLEngineResult result;
+                    try {
+                        result = engine.unwrap(connection.netIn, connection.appIn);
+                    } finally {
+                        connection.netIn.compact();
+                    }
+                    checkOpen(result);
+                    if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                        int read = connection.channel.read(connection.netIn);
+                        if (read < 0) {
+                            throw new EOFException("Connection closed during the TLS handshake");
+                        }
+                        if (read == 0) {
+                            connection.key.interestOps(SelectionKey.OP_READ);
+                            return false;
+                        }
+                        connection.exchange.deadlineNanos = System.nanoTime() + connection.exchange.timeoutNanos;
+                    }
+                    break;
+                case NEED_TASK:
+                    runDelegatedTasks(engine);
+                    break;
+                default:
+                    return true;
+            }
+        }
+    }
+    
+    private void startSending(Exchange exchange) {
+        exchange.state = State.SENDING;
+        exchange.requestStartNanos = System.nanoTime();
+        exchange.deadlineNanos = exchange.requestStartNanos + exchange.timeoutNanos;
+        exchange.outgoing = ByteBuffer.wrap(exchange.warm ? exchange.target.keepAliveRequest : exchange.target.closeRequest);
+        try {
+            continueSending(exchange);
+        } catch (IOException e) {
+            fail(exchange, e);
+        }
+    }
+    
+    private void continueSending(Exchange exchange) throws IOException {
+        Connection connection = exchange.connection;
+        if (!send(connection, exchange.outgoing)) {
+            connection.key.interestOps(SelectionKey.OP_WRITE);
+            return;
+        }
+        exchange.outgoing = null;
+        exchange.state = State.RECEIVING;
+        exchange.deadlineNanos = System.nanoTime() + exchange.timeoutNanos;
+        connection.key.interestOps(SelectionKey.OP_READ);
+    }
+    
+    // Writes as much of data as the socket takes; true once all of it is out
+    private boolean send(Connection connection, ByteBuffer data) throws IOException {
+        if (connection.engine == null) {
+            connection.channel.write(data);
+            return !data.hasRemaining();
+        }
+        while (true) {
+            if (!flush(connection)) {
+                return false;
+            }
+            if (!data.hasRemaining()) {
+                return true;
+            }
+            checkOpen(connection.engine.wrap(data, connection.netOut));
+        }
+    }
+    
+    private static boolean flush(Connection connection) throws IOException {
+        if (connection.netOut == null || connection.netOut.position() == 0) {
+            return true;
+        }
+        connection.netOut.flip();
+        try {
+            connection.channel.write(connection.netOut);
+        } finally {
+            connection.netOut.compact();
+        }
+        return connection.netOut.position() == 0;
+    }
+    
+    private void receive(Exchange exchange) throws IOException {
+        Connection connection = exchange.connection;
+        while (true) {
+            int read = readResponseBytes(connection);
+            if (read < 0) {
+                if (exchange.untilClose) {
+                    // Body-read mode: the end of the connection is the end of the body
+                    finishParse(exchange, false);
+                    complete(exchange);
+                    return;
+                }
+                throw new EOFException(exchange.firstByteSeen
+                        ? "Connection closed inside the response" : "Connection closed before the response");
+            }
+            if (read == 0) {
+                return;
+            }
+            long now = System.nanoTime();
+            if (!exchange.firstByteSeen) {
+                exchange.firstByteSeen = true;
+                exchange.firstByteNanos = now;
+                exchange.response.ttfbNanos = now - exchange.requestStartNanos;
+            }
+            exchange.deadlineNanos = now + exchange.timeoutNanos;
+            connection.appIn.flip();
+            boolean complete;
+            try {
+                complete = parse(exchange, connection.appIn, maxBodyBytes);
+            } finally {
+                connection.appIn.compact();
+            }
+            if (complete) {
+                complete(exchange);
+                return;
+            }
+        }
+    }
+    
+    // Fills appIn from the socket; returns the number of new bytes, -1 at the end of the stream
+    private static int readResponseBytes(Connection connection) throws IOException {
+        if (connection.engine == null) {
+            return connection.channel.read(connection.appIn);
+        }
+        boolean endOfStream = connection.channel.read(connection.netIn) < 0;
+        int produced = 0;
+        connection.netIn.flip();
+        try {
+            while (connection.netIn.hasRemaining()) {
+                SSLEngineResult result = connection.engine.unwrap(connection.netIn, connection.appIn);
+                produced += result.bytesProduced();
+                if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                    runDelegatedTasks(connection.engine);
+                }
+                if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    endOfStream = true;
+                    break;
+                }
+                if (result.getStatus() != SSLEngineResult.Status.OK) {
+                    // Partial record, or appIn full until the parser has consumed it
+                    break;
+                }
+            }
+        } finally {
+            connection.netIn.compact();
+        }
+        return produced == 0 && endOfStream ? -1 : produced;
+    }
+    
+    /**
+     * Consumes response bytes; returns true once the response is complete as far as the probe
+     * cares. Same rules as HttpProbeClient: bodies over MAX_DRAINED_BODY_BYTES or delimited by
+     * the end of the connection are not read, and their connection is not reused. In body-read
+     * mode, or with a body check, the body is streamed up to maxBodyBytes; a body check alone
+     * stops as soon as its text is found.
+     */
+    private static boolean parse(Exchange exchange, ByteBuffer in, long maxBodyBytes) throws IOException {
+        while (in.hasRemaining()) {
+            if (exchange.parseState == ParseState.BODY || exchange.parseState == ParseState.CHUNK_DATA) {
+                int from = in.position();
+                int skipped = (int) Math.min(in.remaining(), exchange.remaining);
+                in.position(from + skipped);
+                exchange.remaining -= skipped;
+                exchange.bodyBytes += skipped;
+                if (exchange.matching && match(exchange, in, from, from + skipped)) {
+                    // Found outside body-read mode: only a small fixed-length rest is still drained
+                    long left = exchange.contentLength - exchange.bodyBytes;
+                    exchange.bodyTruncated = false;
+                    if (exchange.parseState != ParseState.BODY || exchange.untilClose
+                            || left > HttpProbeClient.MAX_DRAINED_BODY_BYTES) {
+                        return finishParse(exchange, false);
+                    }
+                    exchange.remaining = left;
+                }
+                if (exchange.remaining == 0) {
+                    if (exchange.parseState == ParseState.BODY || exchange.bodyTruncated) {
+                        // A truncated or connection-delimited body leaves the connection unusable
+                        return finishParse(exchange, !exchange.bodyTruncated && !exchange.untilClose);
+                    }
+                    exchange.parseState = ParseState.CHUNK_END;
+                }
+                continue;
+            }
+            byte b = in.get();
+            if (b != '\n') {
+                if (exchange.lineLength == exchange.line.length) {
+                    throw new ProtocolException("Response header line too long");
+                }
+                exchange.line[exchange.lineLength++] = b;
+                continue;
+            }
+            int length = exchange.lineLength;
+            if (length > 0 && exchange.line[length - 1] == '\r') {
+                length--;
+            }
+            exchange.lineLength = 0;
+            if (onLine(exchange, exchange.line, length, maxBodyBytes)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    // Feeds body bytes to the body check; true once the text is found and the rest of the body is not needed
+    private static boolean match(Exchange exchange, ByteBuffer in, int from, int to) {
+        ResponseAssertions assertions = exchange.target.assertions;
+        HttpProbeClient.Response response = exchange.response;
+        response.bodyMatchState = assertions.advance(response.bodyMatchState, in, from, to);
+        if (!assertions.bodyFound(response.bodyMatchState)) {
+            return false;
+        }
+        exchange.matching = false;
+        return !exchange.target.readBody;
+    }
+    
+    private static boolean onLine(Exchange exchange, byte[] line, int length, long maxBodyBytes)
+            throws ProtocolException {
+        switch (exchange.parseState) {
+            case STATUS_LINE:
+                if (length < 12 || !HttpProbeClient.startsWith(line, "HTTP/1.")) {
+                    throw new ProtocolException("Malformed status line");
+                }
+                exchange.response.statusCode = HttpProbeClient.parseInt(line, 9, 12);
+                // HTTP/1.0 closes by default, HTTP/1.1 keeps alive by default
+                exchange.close = line[7] == '0';
+                exchange.parseState = ParseState.HEADERS;
+                return false;
+            case HEADERS:
+                if (length > 0) {
+                    onHeader(exchange, line, length);
+                    return false;
+                }
+                return onHeadersEnd(exchange, maxBodyBytes);
+            case CHUNK_SIZE:
+                long chunkSize = HttpProbeClient.parseHex(line, length);
+                if (chunkSize == 0) {
+                    exchange.parseState = ParseState.TRAILERS;
+                    return false;
+                }
+                exchange.chunkedTotal += chunkSize;
+                if (exchange.target.streamBody) {
+                    exchange.remaining = Math.min(chunkSize, maxBodyBytes - exchange.bodyBytes);
+                    exchange.bodyTruncated = exchange.remaining < chunkSize;
+                    if (exchange.remaining == 0) {
+                        return finishParse(exchange, false);
+                    }
+                    exchange.parseState = ParseState.CHUNK_DATA;
+                    return false;
+                }
+                if (exchange.chunkedTotal > HttpProbeClient.MAX_DRAINED_BODY_BYTES) {
+                    return finishParse(exchange, false);
+                }
+                exchange.remaining = chunkSize;
+                exchange.parseState = ParseState.CHUNK_DATA;
+                return false;
+            case CHUNK_END:
+                exchange.parseState = ParseState.CHUNK_SIZE;
+                return false;
+            default:
+                // Trailers end with an empty line
+                return length == 0 && finishParse(exchange, true);
+        }
+    }
+    
+    private static void onHeader(Exchange exchange, byte[] line, int length) throws ProtocolException {
+        if (HttpProbeClient.headerNameIs(line, length, "Content-Length")) {
+            exchange.contentLength = HttpProbeClient.parseLong(line, HttpProbeClient.valueStart(line, length), length);
+        } else if (HttpProbeClient.headerNameIs(line, length, "Transfer-Encoding")) {
+            exchange.chunked = HttpProbeClient.containsIgnoreCase(line, HttpProbeClient.valueStart(line, length), length, "chunked");
+        } else if (HttpProbeClient.headerNameIs(line, length, "Connection")) {
+            int from = HttpProbeClient.valueStart(line, length);
+            if (HttpProbeClient.containsIgnoreCase(line, from, length, "close")) {
+                exchange.close = true;
+            } else if (HttpProbeClient.containsIgnoreCase(line, from, length, "keep-alive")) {
+                exchange.close = false;
+            }
+        }
+        if (exchange.target.assertions != null) {
+            exchange.response.headerMatches = exchange.target.assertions.matchHeader(line, length,
+                    exchange.response.headerMatches);
+        }
+    }
+    
+    private static boolean onHeadersEnd(Exchange exchange, long maxBodyBytes) {
+        int status = exchange.response.statusCode;
+        if (exchange.target.head || status < 200 || status == 204 || status == 304) {
+            return finishParse(exchange, true);
+        }
+        exchange.matching = exchange.target.assertions != null && exchange.target.assertions.hasBodyCheck();
+        if (exchange.chunked) {
+            exchange.parseState = ParseState.CHUNK_SIZE;
+            return false;
+        }
+        if (exchange.contentLength == 0) {
+            return finishParse(exchange, true);
+        }
+        if (exchange.target.streamBody) {
+            exchange.untilClose = exchange.contentLength < 0;
+            long length = exchange.untilClose ? Long.MAX_VALUE : exchange.contentLength;
+            exchange.remaining = Math.min(length, maxBodyBytes);
+            exchange.bodyTruncated = exchange.remaining < length && !exchange.untilClose;
+            exchange.parseState = ParseState.BODY;
+            return false;
+        }
+        if (exchange.contentLength < 0 || exchange.contentLength > HttpProbeClient.MAX_DRAINED_BODY_BYTES) {
+            // Body delimited by the end of the connection, or too large to drain
+            return finishParse(exchange, false);
+        }
+        exchange.remaining = exchange.contentLength;
+        exchange.parseState = ParseState.BODY;
+        return false;
+    }
+    
+    private static boolean finishParse(Exchange exchange, boolean drained) {
+        exchange.reusable = exchange.warm && !exchange.close && drained;
+        return true;
+    }
+    
+    private void complete(Exchange exchange) {
+        Connection connection = exchange.connection;
+        exchange.response.bodyNanos = System.nanoTime() - exchange.firstByteNanos;
+        if (exchange.target.streamBody) {
+            // A connection-delimited body that filled the limit may have had more behind it
+            exchange.response.bodyTruncated = exchange.bodyTruncated
+                    || (exchange.untilClose && exchange.bodyBytes == maxBodyBytes);
+        }
+        if (exchange.target.readBody) {
+            exchange.response.bodyBytes = exchange.bodyBytes;
+        }
+        // Bytes past the end of the response would be read as the next response
+        boolean leftover = connection.appIn.position() > 0 || (connection.netIn != null && connection.netIn.position() > 0);
+        finish(exchange, exchange.reusable && !leftover);
+    }
+    
+    private void finish(Exchange exchange, boolean keepConnection) {
+        Connection connection = exchange.connection;
+        exchange.done = true;
+        connection.exchange = null;
+        active.remove(exchange);
+        if (keepConnection && !closed) {
+            release(connection);
+        } else {
+            closeConnection(connection);
+        }
+        notifyComplete(exchange);
+        startWaiting();
+    }
+    
+    private void fail(Exchange exchange, IOException e) {
+        if (exchange.done) {
+            return;
+        }
+        if (exchange.connection != null) {
+            Connection connection = exchange.connection;
+            connection.exchange = null;
+            exchange.connection = null;
+            closeConnection(connection);
+        }
+        if (exchange.reused && exchange.target.retryable && !closed && !(e instanceof SocketTimeoutException)) {
+            // The server may have closed the idle connection: retry once on a fresh one
+            exchange.reused = false;
+            exchange.retried = true;
+            exchange.response = new HttpProbeClient.Response();
+            begin(exchange);
+            return;
+        }
+        exchange.done = true;
+        active.remove(exchange);
+        notifyFailure(exchange, e);
+        startWaiting();
+    }
+    
+    private void startWaiting() {
+        while (!closed && active.size() < maxInFlight && !waiting.isEmpty()) {
+            Exchange exchange = waiting.poll();
+            active.add(exchange);
+            exchange.startNanos = System.nanoTime();
+            begin(exchange);
+        }
+    }
+    
+    private void attach(Exchange exchange, Connection connection) {
+        exchange.connection = connection;
+        connection.exchange = exchange;
+        exchange.parseState = ParseState.STATUS_LINE;
+        exchange.lineLength = 0;
+        exchange.close = false;
+        exchange.chunked = false;
+        exchange.contentLength = -1;
+        exchange.chunkedTotal = 0;
+        exchange.bodyBytes = 0;
+        exchange.bodyTruncated = false;
+        exchange.untilClose = false;
+        exchange.matching = false;
+        exchange.firstByteSeen = false;
+    }
+    
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+        while (iterator.hasNext()) {
+            SelectionKey key = iterator.next();
+            iterator.remove();
+            Connection connection = (Connection) key.attachment();
+            if (!key.isValid()) {
+                continue;
+            }
+            Exchange exchange = connection.exchange;
+            if (exchange == null) {
+                // An idle connection became readable: the server closed it or sent something unasked
+                removeIdle(connection);
+                closeConnection(connection);
+                continue;
+            }
+            try {
+                switch (exchange.state) {
+                    case CONNECTING:
+                        if (connection.channel.finishConnect()) {
+                            onConnected(exchange);
+                        }
+                        break;
+                    case HANDSHAKING:
+                        continueHandshake(exchange);
+                        break;
+                    case SENDING:
+                        continueSending(exchange);
+                        break;
+                    case RECEIVING:
+                        receive(exchange);
+                        break;
+                    default:
+                        break;
+                }
+            } catch (IOException e) {
+                fail(exchange, e);
+            } catch (RuntimeException e) {
+                // SSLEngine reports some malformed input this way
+                fail(exchange, new SSLException(e.getMessage(), e));
+            }
+        }
+    }
+    
+    private void expire(long now) {
+        List<Exchange> expired = null;
+        for (Exchange exchange : active) {
+            if (exchange.deadlineNanos != 0 && now - exchange.deadlineNanos > 0) {
+                if (expired == null) {
+                    expired = new ArrayList<>();
+                }
+                expired.add(exchange);
+            }
+        }
+        if (expired != null) {
+            for (Exchange exchange : expired) {
+                fail(exchange, new SocketTimeoutException(exchange.state == State.CONNECTING
+                        ? "connect timed out" : "Read timed out"));
+            }
+        }
+        long nowMs = TimeUnit.NANOSECONDS.toMillis(now);
+        Iterator<ArrayDeque<Connection>> hosts = idle.values().iterator();
+        while (hosts.hasNext()) {
+            ArrayDeque<Connection> connections = hosts.next();
+            // Oldest first: the deque is released to at the head and evicted from the tail
+            while (!connections.isEmpty() && nowMs - connections.peekLast().idleSinceMs > idleTimeoutMs) {
+                closeConnection(connections.pollLast());
+            }
+            if (connections.isEmpty()) {
+                hosts.remove();
+            }
+        }
+    }
+    
+    private Connection takeIdle(String poolKey) {
+        ArrayDeque<Connection> connections = idle.get(poolKey);
+        Connection connection = connections != null ? connections.pollFirst() : null;
+        if (connections != null && connections.isEmpty()) {
+            idle.remove(poolKey);
+        }
+        return connection;
+    }
+    
+    private void release(Connection connection) {
+        ArrayDeque<Connection> connections = idle.get(connection.poolKey);
+        if (connections == null) {
+            connections = new ArrayDeque<>();
+            idle.put(connection.poolKey, connections);
+        }
+        if (connections.size() >= maxIdlePerHost) {
+            closeConnection(connection);
+            return;
+        }
+        connection.idleSinceMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+        // Readable while idle means the server closed it
+        connection.key.interestOps(SelectionKey.OP_READ);
+        connections.addFirst(connection);
+    }
+    
+    private void removeIdle(Connection connection) {
+        ArrayDeque<Connection> connections = idle.get(connection.poolKey);
+        if (connections != null && connections.remove(connection) && connections.isEmpty()) {
+            idle.remove(connection.poolKey);
+        }
+    }
+    
+    private static void closeConnection(Connection connection) {
+        if (connection.key != null) {
+            connection.key.cancel();
+        }
+        closeQuietly(connection.channel);
+    }
+    
+    private static void checkOpen(SSLEngineResult result) throws SSLException {
+        if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+            throw new SSLException("TLS session closed by the server");
+        }
+    }
+    
+    // Certificate checks are handed out as tasks; running them inline keeps the engine single-threaded
+    private static void runDelegatedTasks(SSLEngine engine) {
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+    
+    private static void notifyComplete(Exchange exchange) {
+        try {
+            exchange.callback.onComplete(exchange.startNanos, exchange.response);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Probe callback failed", e);
+        }
+    }
+    
+    private static void notifyFailure(Exchange exchange, IOException failure) {
+        exchange.done = true;
+        try {
+            exchange.callback.onFailure(exchange.startNanos != 0 ? exchange.startNanos : System.nanoTime(), failure);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Probe callback failed", e);
+        }
+    }
+    
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,169 @@
+package com.ltrudu.serverresponsetest.service;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import androidx.core.app.NotificationCompat;
+import com.ltrudu.serverresponsetest.MainActivity;
+import com.ltrudu.serverresponsetest.R;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Owns the foreground notification of ServerTestService. The builder, its actions and the
+ * pending intents are created once and reused. Any thread may call requestUpdate() as often as
+ * it likes: updates are coalesced on the main thread into at most one notify() per interval,
+ * and the text is only built when an update is actually published.
+ */
+public class NotificationPublisher {
+    
+    public interface ContentSource {
+        // Main thread, once per published update
+        String getContentText();
+    }
+    
+    private final Service service;
+    private final int notificationId;
+    private final ContentSource contentSource;
+    private final NotificationManager notificationManager;
+    private final NotificationCompat.Builder builder;
+    private final NotificationCompat.BigTextStyle bigTextStyle = new NotificationCompat.BigTextStyle();
+    private final NotificationCompat.Action pauseAction;
+    private final NotificationCompat.Action resumeAction;
+    private final NotificationCompat.Action stopAction;
+    private final String runningTitle;
+    private final String pausedTitle;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable publishRunnable = this::publish;
+    private final AtomicBoolean updateScheduled = new AtomicBoolean(false);
+    
+    private volatile long intervalMs = 1000;
+    private volatile long lastPublishMs;
+    private volatile boolean paused = false;
+    // Guarded by this, so no notify() can follow stop()
+    private boolean stopped = true;
+    // Main thread only: which actions the builder currently holds, null before the first build
+    private Boolean actionsPaused;
+    
+    public NotificationPublisher(Service service, String channelId, int notificationId, ContentSource contentSource) {
+        this.service = service;
+        this.notificationId = notificationId;
+        this.contentSource = contentSource;
+        this.notificationManager = service.getSystemService(NotificationManager.class);
+        this.runningTitle = service.getString(R.string.notification_title_running);
+        this.pausedTitle = service.getString(R.string.notification_title_paused);
+        
+        Intent mainIntent = new Intent(service, MainActivity.class);
+        mainIntent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TOP);
+        PendingIntent mainPendingIntent = PendingIntent.getActivity(service, 0, mainIntent,
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+        
+        pauseAction = new NotificationCompat.Action(R.drawable.ic_pause_24,
+                service.getString(R.string.notification_action_pause),
+                servicePendingIntent(1, ServerTestService.ACTION_PAUSE_SERVICE));
+        resumeAction = new NotificationCompat.Action(R.drawable.ic_play_24,
+                service.getString(R.string.notification_action_resume),
+                servicePendingIntent(2, ServerTestService.ACTION_RESUME_SERVICE));
+        stopAction = new NotificationCompat.Action(R.drawable.ic_stop_24,
+                service.getString(R.string.notification_action_stop),
+                servicePendingIntent(0, ServerTestService.ACTION_STOP_SERVICE));
+        
+        builder = new NotificationCompat.Builder(service, channelId)
+                .setSmallIcon(R.drawable.ic_notification_server_test)
+                .setPriority(NotificationCompat.PRIORITY_LOW)
+                .setOngoing(true)
+                .setOnlyAlertOnce(true)
+                .setContentIntent(mainPendingIntent)
+                .setStyle(bigTextStyle);
+    }
+    
+    private PendingIntent servicePendingIntent(int requestCode, String action) {
+        Intent intent = new Intent(service, ServerTestService.class);
+        intent.setAction(action);
+        return PendingIntent.getService(service, requestCode, intent,
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+    }
+    
+    public void setIntervalMs(long intervalMs) {
+        this.intervalMs = Math.max(1, intervalMs);
+    }
+    
+    /**
+     * Puts the service in the foreground with the given text. Main thread, right after the
+     * service was started.
+     */
+    public void startForeground(String text) {
+        synchronized (this) {
+            stopped = false;
+            paused = false;
+            service.startForeground(notificationId, build(text));
+            lastPublishMs = SystemClock.uptimeMillis();
+        }
+    }
+    
+    // Switches the title and the Pause/Resume action, published without waiting for the interval
+    public void setPaused(boolean paused) {
+        this.paused = paused;
+        publishNow();
+    }
+    
+    /**
+     * Asks for the notification to reflect the current state. Cheap enough to call after every
+     * probe: at most one update is pending, published once the interval since the last one has passed.
+     */
+    public void requestUpdate() {
+        if (updateScheduled.compareAndSet(false, true)) {
+            long delay = Math.max(0, lastPublishMs + intervalMs - SystemClock.uptimeMillis());
+            mainHandler.postDelayed(publishRunnable, delay);
+        }
+    }
+    
+    public void publishNow() {
+        updateScheduled.set(true);
+        mainHandler.removeCallbacks(publishRunnable);
+        mainHandler.post(publishRunnable);
+    }
+    
+    // Drops any pending update; the caller then removes the notification with stopForeground()
+    public void stop() {
+        synchronized (this) {
+            stopped = true;
+        }
+        mainHandler.removeCallbacks(publishRunnable);
+        updateScheduled.set(false);
+    }
+    
+    private void publish() {
+        // Cleared first so a request made while building schedules the next update
+        updateScheduled.set(false);
+        synchronized (this) {
+            if (stopped) {
+                return;
+            }
+            Notification notification = build(contentSource.getContentText());
+            if (notificationManager != null) {
+                notificationManager.notify(notificationId, notification);
+            }
+            lastPublishMs = SystemClock.uptimeMillis();
+        }
+    }
+    
+    private Notification build(String text) {
+        boolean pausedNow = paused;
+        builder.setContentTitle(pausedNow ? pausedTitle : runningTitle)
+                .setContentText(text);
+        bigTextStyle.bigText(text);
+        if (actionsPaused == null || actionsPaused != pausedNow) {
+            builder.clearActions()
+                    .addAction(pausedNow ? resumeAction : pauseAction)
+                    .addAction(stopAction);
+            actionsPaused = pausedNow;
+        }
+        return builder.build();
+    }
+}
\ No newline at end of file
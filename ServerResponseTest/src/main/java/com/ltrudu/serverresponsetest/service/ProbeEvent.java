@@ -0,0 +1,77 @@
+package com.ltrudu.serverresponsetest.service;
+
+/**
+ * Latest probe state of one server as delivered to the UI through ProbeEventChannel. Events
+ * of the same server published within one frame are coalesced into a single instance.
+ */
+public class ProbeEvent {
+    public final long serverId;
+    // A probe of the server is running
+    public boolean processing;
+    // False when the server started a probe but no result has arrived since the last frame
+    public boolean hasResult;
+    // Results folded into this event since the last frame
+    public int resultCount;
+    
+    public boolean success;
+    public String errorMessage;
+    public long responseNanos;
+    public long correctedResponseNanos;
+    // p50, p90, p99, p99.9 and max of the run so far
+    public long[] percentileNanos;
+    public long[] correctedPercentileNanos;
+    public boolean connectionReused;
+    // DNS, connect, TLS, TTFB and body in nanoseconds, -1 when not measured
+    public long[] phaseNanos;
+    // The DNS phase was answered by DnsCache
+    public boolean dnsCached;
+    // Body-read mode: bytes read over the body phase, -1 when the body was not read
+    public long bodyBytes = -1;
+    public boolean bodyTruncated;
+    // Circuit breaker of the server after this result
+    public CircuitBreaker.State circuitState = CircuitBreaker.State.CLOSED;
+    public int consecutiveFailures;
+    public long circuitRetryAtMillis;
+    // The circuit was open and the slot passed without a request; only the circuit fields are set
+    public boolean skipped;
+    // The server's definition did not compile and it is left out of the run; errorMessage says why
+    public boolean rejected;
+    // Result of a load-generator request: shown, but not part of the probe cycle
+    public boolean load;
+    
+    public ProbeEvent(long serverId) {
+        this.serverId = serverId;
+    }
+    
+    static ProbeEvent testing(long serverId) {
+        ProbeEvent event = new ProbeEvent(serverId);
+        event.processing = true;
+        return event;
+    }
+    
+    // For RunSnapshot; the arrays are never modified once published and are shared
+    ProbeEvent copy() {
+        ProbeEvent copy = new ProbeEvent(serverId);
+        copy.processing = processing;
+        copy.hasResult = hasResult;
+        copy.resultCount = resultCount;
+        copy.success = success;
+        copy.errorMessage = errorMessage;
+        copy.responseNanos = responseNanos;
+        copy.correctedResponseNanos = correctedResponseNanos;
+        copy.percentileNanos = percentileNanos;
+        copy.correctedPercentileNanos = correctedPercentileNanos;
+        copy.connectionReused = connectionReused;
+        copy.phaseNanos = phaseNanos;
+        copy.dnsCached = dnsCached;
+        copy.bodyBytes = bodyBytes;
+        copy.bodyTruncated = bodyTruncated;
+        copy.circuitState = circuitState;
+        copy.consecutiveFailures = consecutiveFailures;
+        copy.circuitRetryAtMillis = circuitRetryAtMillis;
+        copy.skipped = skipped;
+        copy.rejected = rejected;
+        copy.load = load;
+        return copy;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,139 @@
+package com.ltrudu.serverresponsetest.service;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * In-process path for per-probe updates from ServerTestService to the UI. Probe threads publish
+ * into a map holding only the latest state per server; the main thread drains it once per frame
+ * and hands the batch to every listener. However many probes finish, the UI sees at most one event
+ * per server per frame and the main looper gets at most one message per frame; the coalescing is
+ * done once per frame whatever the number of listeners.
+ */
+public class ProbeEventChannel implements Choreographer.FrameCallback {
+    
+    public interface Listener {
+        // Main thread; the list and its events are shared by every listener and reused after the call returns
+        void onProbeEvents(List<ProbeEvent> events);
+    }
+    
+    private static final ProbeEventChannel INSTANCE = new ProbeEventChannel();
+    
+    private final ConcurrentHashMap<Long, ProbeEvent> pending = new ConcurrentHashMap<>();
+    // Servers with a pending event, in the order they first changed
+    private final ConcurrentLinkedQueue<Long> dirtyServers = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean frameScheduled = new AtomicBoolean(false);
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable scheduleFrame = () -> Choreographer.getInstance().postFrameCallback(this);
+    // Main thread only
+    private final List<ProbeEvent> batch = new ArrayList<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    
+    private ProbeEventChannel() {}
+    
+    public static ProbeEventChannel getInstance() {
+        return INSTANCE;
+    }
+    
+    /**
+     * Adds a listener that receives the batches from the next frame on. Main thread only.
+     * Events published while nobody listens are kept, coalesced, until a listener is added.
+     */
+    public void addListener(Listener listener) {
+        if (!listeners.contains(listener)) {
+            listeners.add(listener);
+        }
+        if (!dirtyServers.isEmpty()) {
+            scheduleDrain();
+        }
+    }
+    
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+    
+    public void publishTesting(long serverId) {
+        boolean[] added = new boolean[1];
+        pending.compute(serverId, (id, current) -> {
+            if (current == null) {
+                added[0] = true;
+                return ProbeEvent.testing(id);
+            }
+            // Keep the undelivered result, only the status moves on
+            current.processing = true;
+            return current;
+        });
+        if (added[0]) {
+            markDirty(serverId);
+        }
+    }
+    
+    public void publishResult(ProbeEvent event) {
+        event.hasResult = true;
+        event.processing = false;
+        // A rejected server runs no probes and load requests are not part of any cycle
+        event.resultCount = event.rejected || event.load ? 0 : 1;
+        boolean[] added = new boolean[1];
+        pending.compute(event.serverId, (id, current) -> {
+            if (current == null) {
+                added[0] = true;
+            } else {
+                event.resultCount += current.resultCount;
+            }
+            return event;
+        });
+        if (added[0]) {
+            markDirty(event.serverId);
+        }
+    }
+    
+    // Drops undelivered events, e.g. when a new run starts
+    public void clear() {
+        // Queue first: a pending event must never be left without its queue entry
+        dirtyServers.clear();
+        pending.clear();
+    }
+    
+    private void markDirty(long serverId) {
+        dirtyServers.offer(serverId);
+        if (!listeners.isEmpty()) {
+            scheduleDrain();
+        }
+    }
+    
+    private void scheduleDrain() {
+        if (frameScheduled.compareAndSet(false, true)) {
+            mainHandler.post(scheduleFrame);
+        }
+    }
+    
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        // Cleared first so events published during the drain schedule the next frame
+        frameScheduled.set(false);
+        if (listeners.isEmpty()) {
+            return;
+        }
+        Long serverId;
+        while ((serverId = dirtyServers.poll()) != null) {
+            ProbeEvent event = pending.remove(serverId);
+            if (event != null) {
+                batch.add(event);
+            }
+        }
+        if (!batch.isEmpty()) {
+            for (Listener listener : listeners) {
+                listener.onProbeEvents(batch);
+            }
+            batch.clear();
+        }
+    }
+}
\ No newline at end of file
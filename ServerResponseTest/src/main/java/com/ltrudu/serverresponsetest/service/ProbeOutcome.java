@@ -0,0 +1,46 @@
+package com.ltrudu.serverresponsetest.service;
+
+import com.ltrudu.serverresponsetest.data.ProbeResult;
+
+/**
+ * What a single probe produced, as returned by the probe methods of ServerTestService.
+ */
+public class ProbeOutcome {
+    public boolean success;
+    public String errorMessage;
+    // Null on success
+    public ProbeResult.ErrorClass errorClass;
+    // HTTP only: the request went over a pooled keep-alive connection
+    public boolean connectionReused;
+    // Phase durations in nanoseconds, -1 when not measured for this probe
+    public long dnsNanos = -1;
+    // The host name came from DnsCache
+    public boolean dnsCached;
+    public long connectNanos = -1;
+    public long tlsNanos = -1;
+    public long ttfbNanos = -1;
+    public long bodyNanos = -1;
+    // Body-read mode: bytes read, -1 when the body was not read
+    public long bodyBytes = -1;
+    public boolean bodyTruncated;
+    // Connect and read timeout the probe ran with, -1 when none applied
+    public int timeoutMs = -1;
+    
+    public static ProbeOutcome of(boolean success) {
+        ProbeOutcome outcome = new ProbeOutcome();
+        outcome.success = success;
+        outcome.errorClass = success ? null : ProbeResult.ErrorClass.NETWORK;
+        return outcome;
+    }
+    
+    public static ProbeOutcome failure(String errorMessage) {
+        return failure(ProbeResult.ErrorClass.NETWORK, errorMessage);
+    }
+    
+    public static ProbeOutcome failure(ProbeResult.ErrorClass errorClass, String errorMessage) {
+        ProbeOutcome outcome = new ProbeOutcome();
+        outcome.errorClass = errorClass;
+        outcome.errorMessage = errorMessage;
+        return outcome;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,265 @@
+package com.ltrudu.serverresponsetest.service;
+
+import android.util.Log;
+import com.ltrudu.serverresponsetest.data.Server;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Fires every server on its own fixed-rate schedule. A single timer thread decides when a
+ * probe is due and hands it to the bounded probe pool, so a slow server only delays itself.
+ * A server never has two probes in flight: when a probe overruns its interval the missed
+ * slots are skipped and the next probe starts immediately. A probe may complete on another
+ * thread (the non-blocking engine), its schedule moves on once it calls done. Schedules can be
+ * added, removed and retuned while the scheduler runs, without touching the others.
+ */
+public class ProbeScheduler {
+    
+    private static final String TAG = "ProbeScheduler";
+    
+    public interface ProbeTask {
+        // intendedStartNanos is the slot the probe was due in, for coordinated-omission correction.
+        // done must be run once the probe has completed, from any thread
+        void probe(Server server, long intendedStartNanos, Runnable done);
+    }
+    
+    public interface Listener {
+        // Called after each completed probe with the number of probes done for that server
+        void onProbeCompleted(Server server, int completedProbes);
+        
+        // Called once every schedule has run its probe budget (finite mode only)
+        void onAllSchedulesFinished();
+    }
+    
+    private final ExecutorService probeExecutor;
+    private final ProbeTask probeTask;
+    private final Listener listener;
+    private final int probesPerServer;
+    private final ScheduledExecutorService timer;
+    private final Map<Long, ServerSchedule> schedules = new ConcurrentHashMap<>();
+    // Interval of the servers without their own
+    private volatile long defaultIntervalNanos;
+    
+    /**
+     * @param probesPerServer number of probes each server runs before its schedule ends, 0 for infinite
+     */
+    public ProbeScheduler(ExecutorService probeExecutor, ProbeTask probeTask, Listener listener, int probesPerServer) {
+        this.probeExecutor = probeExecutor;
+        this.probeTask = probeTask;
+        this.listener = listener;
+        this.probesPerServer = probesPerServer;
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+        executor.setRemoveOnCancelPolicy(true);
+        this.timer = executor;
+    }
+    
+    public void start(List<Server> servers, int defaultIntervalMs) {
+        defaultIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, defaultIntervalMs));
+        long now = System.nanoTime();
+        for (Server server : servers) {
+            add(server, now);
+        }
+    }
+    
+    /**
+     * Starts the schedule of a server that joined the run. The first probe follows the server's
+     * initial offset.
+     */
+    public void add(Server server) {
+        add(server, System.nanoTime());
+    }
+    
+    /**
+     * Hands a server's new definition to its running schedule: the next probes use it and a new
+     * interval applies from the next slot. The schedule keeps its probe count, so editing a server
+     * does not restart its budget and never ends a finite run. Returns false if the server has no
+     * schedule, e.g. because it already ran its budget.
+     */
+    public boolean update(Server server) {
+        ServerSchedule schedule = schedules.get(server.getId());
+        if (schedule == null) {
+            return false;
+        }
+        boolean defaultInterval = hasDefaultInterval(server);
+        schedule.server = server;
+        schedule.defaultInterval = defaultInterval;
+        schedule.intervalNanos = defaultInterval ? defaultIntervalNanos : TimeUnit.MILLISECONDS.toNanos(server.getIntervalMs());
+        return true;
+    }
+    
+    /**
+     * Ends the schedule of a server that left the run. A probe in flight still completes.
+     */
+    public void remove(long serverId) {
+        ServerSchedule schedule = schedules.remove(serverId);
+        if (schedule == null) {
+            return;
+        }
+        schedule.cancel();
+        if (probesPerServer > 0 && schedules.isEmpty()) {
+            // The schedules still running their budget were the only ones left
+            listener.onAllSchedulesFinished();
+        }
+    }
+    
+    /**
+     * Changes the interval of the servers without their own, from each one's next slot on.
+     */
+    public void setDefaultIntervalMs(int defaultIntervalMs) {
+        long intervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, defaultIntervalMs));
+        defaultIntervalNanos = intervalNanos;
+        for (ServerSchedule schedule : schedules.values()) {
+            if (schedule.defaultInterval) {
+                schedule.intervalNanos = intervalNanos;
+            }
+        }
+    }
+    
+    public void stop() {
+        for (ServerSchedule schedule : schedules.values()) {
+            schedule.cancel();
+        }
+        schedules.clear();
+        timer.shutdownNow();
+    }
+    
+    public int getScheduleCount() {
+        return schedules.size();
+    }
+    
+    private void add(Server server, long now) {
+        boolean defaultInterval = hasDefaultInterval(server);
+        long intervalNanos = defaultInterval ? defaultIntervalNanos : TimeUnit.MILLISECONDS.toNanos(server.getIntervalMs());
+        long offsetMs = server.getInitialOffsetMs() != null ? Math.max(0, server.getInitialOffsetMs()) : 0;
+        ServerSchedule schedule = new ServerSchedule(server, intervalNanos, defaultInterval);
+        schedule.nextIntendedNanos = now + TimeUnit.MILLISECONDS.toNanos(offsetMs);
+        schedule.intendedStartNanos = schedule.nextIntendedNanos;
+        ServerSchedule previous = schedules.put(server.getId(), schedule);
+        if (previous != null) {
+            previous.cancel();
+        }
+        schedule.scheduleNext(now);
+    }
+    
+    private static boolean hasDefaultInterval(Server server) {
+        return server.getIntervalMs() == null || server.getIntervalMs() <= 0;
+    }
+    
+    private void onScheduleFinished(ServerSchedule schedule) {
+        // Only this schedule: the server may have been given a new one meanwhile
+        if (schedules.remove(schedule.server.getId(), schedule) && schedules.isEmpty()) {
+            listener.onAllSchedulesFinished();
+        }
+    }
+    
+    private class ServerSchedule implements Runnable {
+        // Replaced by update()
+        volatile Server server;
+        // Follows setDefaultIntervalMs()
+        volatile boolean defaultInterval;
+        volatile long intervalNanos;
+        long nextIntendedNanos;
+        // Start time the next probe is measured from; stays on the first missed slot after an overrun
+        long intendedStartNanos;
+        int completedProbes = 0;
+        volatile boolean cancelled = false;
+        ScheduledFuture<?> pending;
+        
+        ServerSchedule(Server server, long intervalNanos, boolean defaultInterval) {
+            this.server = server;
+            this.intervalNanos = intervalNanos;
+            this.defaultInterval = defaultInterval;
+        }
+        
+        void scheduleNext(long now) {
+            if (cancelled) {
+                return;
+            }
+            long delay = Math.max(0, nextIntendedNanos - now);
+            try {
+                pending = timer.schedule(this::dispatch, delay, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                // Scheduler is shutting down
+                cancelled = true;
+            }
+        }
+        
+        // Timer thread: the probe is due, hand it over to the probe pool
+        private void dispatch() {
+            if (cancelled) {
+                return;
+            }
+            try {
+                probeExecutor.execute(this);
+            } catch (RejectedExecutionException e) {
+                cancelled = true;
+            }
+        }
+        
+        // Probe pool thread
+        @Override
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+            // Guards against a probe that both ran done and threw
+            Server server = this.server;
+            AtomicBoolean finished = new AtomicBoolean(false);
+            Runnable done = () -> {
+                if (finished.compareAndSet(false, true)) {
+                    onProbeFinished();
+                }
+            };
+            try {
+                probeTask.probe(server, intendedStartNanos, done);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Probe failed for " + server.getName(), e);
+                done.run();
+            }
+        }
+        
+        // Thread that completed the probe
+        private void onProbeFinished() {
+            if (cancelled) {
+                return;
+            }
+            
+            completedProbes++;
+            listener.onProbeCompleted(server, completedProbes);
+            
+            if (probesPerServer > 0 && completedProbes >= probesPerServer) {
+                cancelled = true;
+                onScheduleFinished(this);
+                return;
+            }
+            
+            // Fixed-rate: the next slot follows the previous intended start, not the completion
+            long now = System.nanoTime();
+            long intervalNanos = this.intervalNanos;
+            nextIntendedNanos += intervalNanos;
+            // The next request was due at the first slot after this one, even if that slot is skipped
+            intendedStartNanos = nextIntendedNanos;
+            if (nextIntendedNanos < now) {
+                // Overran one or more slots: skip them rather than firing a catch-up burst
+                nextIntendedNanos += ((now - nextIntendedNanos) / intervalNanos) * intervalNanos;
+            }
+            scheduleNext(now);
+        }
+        
+        void cancel() {
+            cancelled = true;
+            if (pending != null) {
+                pending.cancel(false);
+            }
+        }
+    }
+}
\ No newline at end of file
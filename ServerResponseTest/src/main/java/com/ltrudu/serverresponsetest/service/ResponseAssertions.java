@@ -0,0 +1,217 @@
+package com.ltrudu.serverresponsetest.service;
+
+import com.ltrudu.serverresponsetest.data.Server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Checks a server sets on its HTTP responses: accepted status codes, required headers and a
+ * text the body must contain. Compiled once per run with the server's target. Headers are
+ * checked line by line while they are parsed and the body is searched with a KMP matcher as it
+ * streams past, so no part of the response is kept.
+ */
+public class ResponseAssertions {
+    
+    // Response.headerMatches is a bit mask
+    public static final int MAX_HEADERS = 64;
+    
+    // Inclusive (from, to) pairs, null to accept the default 200-399
+    private final int[] statusRanges;
+    private final String statusText;
+    private final String[] headerNames;
+    // Lower case, null when the header only has to be present
+    private final String[] headerValues;
+    // UTF-8 bytes of the expected body text and their KMP failure table, null without a body check
+    private final byte[] bodyPattern;
+    private final int[] bodyFailure;
+    private final String bodyText;
+    
+    private ResponseAssertions(int[] statusRanges, String statusText, String[] headerNames, String[] headerValues,
+                               String bodyText) {
+        this.statusRanges = statusRanges;
+        this.statusText = statusText;
+        this.headerNames = headerNames;
+        this.headerValues = headerValues;
+        this.bodyText = bodyText;
+        this.bodyPattern = bodyText != null ? bodyText.getBytes(StandardCharsets.UTF_8) : null;
+        this.bodyFailure = bodyPattern != null ? failureTable(bodyPattern) : null;
+    }
+    
+    /**
+     * Assertions of an HTTP server, or null if it sets none. Entries the server dialog would have
+     * rejected are ignored.
+     */
+    public static ResponseAssertions fromServer(Server server) {
+        String statusText = trimToNull(server.getExpectedStatus());
+        int[] statusRanges = statusText != null ? parseStatusRanges(statusText) : null;
+        if (statusRanges == null) {
+            statusText = null;
+        }
+        
+        List<String> names = new ArrayList<>();
+        List<String> values = new ArrayList<>();
+        if (server.getExpectedHeaders() != null) {
+            for (String line : server.getExpectedHeaders().split("\n")) {
+                int colon = line.indexOf(':');
+                String name = (colon >= 0 ? line.substring(0, colon) : line).trim();
+                if (name.isEmpty() || names.size() == MAX_HEADERS) {
+                    continue;
+                }
+                names.add(name);
+                values.add(colon >= 0 ? trimToNull(line.substring(colon + 1)) : null);
+            }
+        }
+        for (int i = 0; i < values.size(); i++) {
+            if (values.get(i) != null) {
+                values.set(i, values.get(i).toLowerCase(Locale.ROOT));
+            }
+        }
+        
+        String bodyText = server.getExpectedBody() == null || server.getExpectedBody().isEmpty()
+                ? null : server.getExpectedBody();
+        if (statusRanges == null && names.isEmpty() && bodyText == null) {
+            return null;
+        }
+        return new ResponseAssertions(statusRanges, statusText, names.toArray(new String[0]),
+                values.toArray(new String[0]), bodyText);
+    }
+    
+    /**
+     * Parses "200", "200-299" and "2xx" entries separated by commas into inclusive (from, to)
+     * pairs. Returns null if an entry is not valid.
+     */
+    public static int[] parseStatusRanges(String text) {
+        String[] entries = text.split(",");
+        int[] ranges = new int[entries.length * 2];
+        for (int i = 0; i < entries.length; i++) {
+            String entry = entries[i].trim().toLowerCase(Locale.ROOT);
+            int from;
+            int to;
+            try {
+                if (entry.length() == 3 && entry.endsWith("xx")) {
+                    from = Integer.parseInt(entry.substring(0, 1)) * 100;
+                    to = from + 99;
+                } else if (entry.indexOf('-') > 0) {
+                    from = Integer.parseInt(entry.substring(0, entry.indexOf('-')).trim());
+                    to = Integer.parseInt(entry.substring(entry.indexOf('-') + 1).trim());
+                } else {
+                    from = Integer.parseInt(entry);
+                    to = from;
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (from < 100 || to > 599 || from > to) {
+                return null;
+            }
+            ranges[i * 2] = from;
+            ranges[i * 2 + 1] = to;
+        }
+        return ranges;
+    }
+    
+    public boolean hasStatusCheck() {
+        return statusRanges != null;
+    }
+    
+    public boolean hasBodyCheck() {
+        return bodyPattern != null;
+    }
+    
+    // Returns headerMatches with the bit of every expected header this line satisfies set
+    long matchHeader(byte[] line, int length, long headerMatches) {
+        for (int i = 0; i < headerNames.length; i++) {
+            if ((headerMatches & (1L << i)) != 0 || !HttpProbeClient.headerNameIs(line, length, headerNames[i])) {
+                continue;
+            }
+            if (headerValues[i] == null
+                    || HttpProbeClient.containsIgnoreCase(line, HttpProbeClient.valueStart(line, length), length, headerValues[i])) {
+                headerMatches |= 1L << i;
+            }
+        }
+        return headerMatches;
+    }
+    
+    // KMP step over data[from, to): returns the new match state, the pattern length once found
+    int advance(int state, byte[] data, int from, int to) {
+        for (int i = from; i < to && state < bodyPattern.length; i++) {
+            state = step(state, data[i]);
+        }
+        return state;
+    }
+    
+    // Same over the bytes of a buffer between two absolute positions, leaving its position alone
+    int advance(int state, ByteBuffer data, int from, int to) {
+        for (int i = from; i < to && state < bodyPattern.length; i++) {
+            state = step(state, data.get(i));
+        }
+        return state;
+    }
+    
+    boolean bodyFound(int state) {
+        return state == bodyPattern.length;
+    }
+    
+    /**
+     * Null if the response passes every check, otherwise a description of the first that failed.
+     */
+    String check(HttpProbeClient.Response response) {
+        if (statusRanges != null && !statusMatches(response.statusCode)) {
+            return "Status " + response.statusCode + " not in " + statusText;
+        }
+        for (int i = 0; i < headerNames.length; i++) {
+            if ((response.headerMatches & (1L << i)) == 0) {
+                return headerValues[i] == null ? "Missing header " + headerNames[i]
+                        : "Header " + headerNames[i] + " does not contain \"" + headerValues[i] + "\"";
+            }
+        }
+        if (bodyPattern != null && !bodyFound(response.bodyMatchState)) {
+            return "Body does not contain \"" + bodyText + "\"" + (response.bodyTruncated ? " within the read limit" : "");
+        }
+        return null;
+    }
+    
+    private boolean statusMatches(int status) {
+        for (int i = 0; i < statusRanges.length; i += 2) {
+            if (status >= statusRanges[i] && status <= statusRanges[i + 1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private int step(int state, byte b) {
+        while (state > 0 && b != bodyPattern[state]) {
+            state = bodyFailure[state - 1];
+        }
+        return b == bodyPattern[state] ? state + 1 : state;
+    }
+    
+    // failure[i]: length of the longest proper prefix of pattern[0..i] that is also its suffix
+    private static int[] failureTable(byte[] pattern) {
+        int[] failure = new int[pattern.length];
+        int length = 0;
+        for (int i = 1; i < pattern.length; i++) {
+            while (length > 0 && pattern[i] != pattern[length]) {
+                length = failure[length - 1];
+            }
+            if (pattern[i] == pattern[length]) {
+                length++;
+            }
+            failure[i] = length;
+        }
+        return failure;
+    }
+    
+    private static String trimToNull(String text) {
+        if (text == null) {
+            return null;
+        }
+        String trimmed = text.trim();
+        return trimmed.isEmpty() ? null : trimmed;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,208 @@
+package com.ltrudu.serverresponsetest.service;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Running/paused state of a test run, shared by the probe loop, the probe pool and the load
+ * requests. Threads waiting for a resume or sleeping between requests park on a condition and
+ * wake as soon as the run is resumed or stopped. Requests register the socket they are blocked
+ * on, and stop() closes those sockets so a pending connect or read fails at once instead of
+ * running into its timeout.
+ */
+public class RunControl {
+    
+    private static final String TAG = "RunControl";
+    
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition stateChanged = lock.newCondition();
+    private final Set<Closeable> abortables = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger activeTasks = new AtomicInteger(0);
+    // Set by stop() until the last active task has finished
+    private final AtomicLong stopRequestedNanos = new AtomicLong(0);
+    private volatile boolean running = false;
+    private volatile boolean paused = false;
+    private volatile long lastStopLatencyNanos = -1;
+    
+    public boolean start() {
+        lock.lock();
+        try {
+            if (running) {
+                return false;
+            }
+            running = true;
+            paused = false;
+            stopRequestedNanos.set(0);
+            stateChanged.signalAll();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    public boolean pause() {
+        lock.lock();
+        try {
+            if (!running || paused) {
+                return false;
+            }
+            paused = true;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    public boolean resume() {
+        lock.lock();
+        try {
+            if (!running || !paused) {
+                return false;
+            }
+            paused = false;
+            stateChanged.signalAll();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Ends the run: wakes every waiting thread and aborts every registered socket. Returns
+     * false if the run was not running.
+     */
+    public boolean stop() {
+        lock.lock();
+        try {
+            if (!running) {
+                return false;
+            }
+            stopRequestedNanos.set(System.nanoTime());
+            running = false;
+            paused = false;
+            stateChanged.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        for (Closeable closeable : abortables) {
+            closeQuietly(closeable);
+        }
+        abortables.clear();
+        if (activeTasks.get() == 0) {
+            onIdle();
+        }
+        return true;
+    }
+    
+    public boolean isRunning() {
+        return running;
+    }
+    
+    public boolean isPaused() {
+        return paused;
+    }
+    
+    /**
+     * Blocks while the run is paused. Returns true if the caller may go on, false once the run
+     * is stopped or the thread is interrupted.
+     */
+    public boolean awaitRunnable() {
+        lock.lock();
+        try {
+            while (running && paused) {
+                stateChanged.await();
+            }
+            return running;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Waits for the given time unless the run is stopped first. Returns false if it was stopped
+     * or the thread interrupted.
+     */
+    public boolean sleep(long millis) {
+        long remaining = TimeUnit.MILLISECONDS.toNanos(millis);
+        lock.lock();
+        try {
+            while (running && remaining > 0) {
+                remaining = stateChanged.awaitNanos(remaining);
+            }
+            return running;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Marks the start of a unit of work that stop() has to wait for before the run counts as
+     * idle. Returns false, without counting it, if the run is already stopped.
+     */
+    public boolean enterTask() {
+        activeTasks.incrementAndGet();
+        if (!running) {
+            exitTask();
+            return false;
+        }
+        return true;
+    }
+    
+    public void exitTask() {
+        if (activeTasks.decrementAndGet() == 0 && !running) {
+            onIdle();
+        }
+    }
+    
+    // The socket is closed by stop() while registered; a socket registered after a stop is closed at once
+    public void register(Closeable closeable) {
+        abortables.add(closeable);
+        if (!running && abortables.remove(closeable)) {
+            closeQuietly(closeable);
+        }
+    }
+    
+    public void unregister(Closeable closeable) {
+        abortables.remove(closeable);
+    }
+    
+    /**
+     * Time between the last stop() and the end of the last task that was running at that
+     * moment, or -1 if no run has been stopped yet.
+     */
+    public long getLastStopLatencyMs() {
+        long nanos = lastStopLatencyNanos;
+        return nanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+    
+    private void onIdle() {
+        long requested = stopRequestedNanos.getAndSet(0);
+        if (requested != 0) {
+            lastStopLatencyNanos = System.nanoTime() - requested;
+            Log.d(TAG, "Idle " + getLastStopLatencyMs() + " ms after stop");
+        }
+    }
+    
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+}
\ No newline at end of file
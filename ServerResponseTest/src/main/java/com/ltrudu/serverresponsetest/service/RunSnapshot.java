@@ -0,0 +1,28 @@
+package com.ltrudu.serverresponsetest.service;
+
+import java.util.Map;
+
+/**
+ * State of ServerTestService at one point in time, returned by LocalBinder.snapshot(). It is a
+ * copy: it does not change afterwards, and the events it holds are not the ones delivered
+ * through ProbeEventChannel. A client that was not listening, such as a recreated fragment,
+ * rebuilds its view from it and then follows the subscription.
+ */
+public class RunSnapshot {
+    public boolean running;
+    public boolean paused;
+    public boolean concurrentMode;
+    // Servers taking part in the probe cycle, load-tested and rejected ones excluded
+    public int probedServerCount;
+    // Finite mode: requests each server has completed out of totalRequests
+    public boolean infiniteRequests;
+    public int completedRequests;
+    public int totalRequests;
+    public long probeCount;
+    public long successCount;
+    public int inFlight;
+    // Latest result of every server that has one, with its circuit as it is now
+    public Map<Long, ProbeEvent> latestResults;
+    // Latest statistics of every load-tested server
+    public Map<Long, LoadGenerator.LoadStats> loadStats;
+}
\ No newline at end of file
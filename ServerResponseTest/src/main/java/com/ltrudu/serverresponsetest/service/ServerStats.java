@@ -0,0 +1,13 @@
+package com.ltrudu.serverresponsetest.service;
+
+/**
+ * Measurements accumulated for one server over a run.
+ */
+public class ServerStats {
+    // Successful probes only, measured from the actual send
+    public final LatencyHistogram latency = new LatencyHistogram();
+    // Successful probes measured from their intended send time
+    public final LatencyHistogram correctedLatency = new LatencyHistogram();
+    // Probes that reached the server, for the timeout of the next one
+    public final AdaptiveTimeout timeout = new AdaptiveTimeout();
+}
\ No newline at end of file
@@ -1,31 +1,55 @@
 package com.ltrudu.serverresponsetest.service;
 
-import android.app.Notification;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
-import android.app.PendingIntent;
 import android.app.Service;
+import android.content.Context;
 import android.content.Intent;
+import android.os.Binder;
 import android.os.Build;
 import android.os.IBinder;
 import android.util.Log;
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
-import androidx.core.app.NotificationCompat;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
+import androidx.room.InvalidationTracker;
+import com.google.gson.Gson;
 import com.ltrudu.serverresponsetest.R;
+import com.ltrudu.serverresponsetest.data.AppDatabase;
+import com.ltrudu.serverresponsetest.data.ProbeResult;
 import com.ltrudu.serverresponsetest.data.Server;
+import com.ltrudu.serverresponsetest.data.Settings;
+import com.ltrudu.serverresponsetest.repository.ProbeResultRepository;
+import com.ltrudu.serverresponsetest.repository.ProbeResultWriter;
 import com.ltrudu.serverresponsetest.repository.ServerRepository;
+import com.ltrudu.serverresponsetest.repository.SettingsRepository;
 
 import java.io.IOException;
-import java.net.HttpURLConnection;
-import java.net.InetAddress;
-import java.net.URL;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 public class ServerTestService extends Service {
     
@@ -33,20 +57,33 @@ public class ServerTestService extends Service {
     private static final String CHANNEL_ID = "ServerTestChannel";
     private static final int NOTIFICATION_ID = 1;
     
-    public static final String ACTION_TEST_RESULT = "com.ltrudu.serverresponsetest.TEST_RESULT";
     public static final String ACTION_TEST_STARTED = "com.ltrudu.serverresponsetest.TEST_STARTED";
     public static final String ACTION_TEST_STOPPED = "com.ltrudu.serverresponsetest.TEST_STOPPED";
-    public static final String ACTION_SERVER_TESTING = "com.ltrudu.serverresponsetest.SERVER_TESTING";
     public static final String ACTION_REQUEST_PROGRESS = "com.ltrudu.serverresponsetest.REQUEST_PROGRESS";
+    // Servers were added, removed or changed during the run; carries EXTRA_PROBED_SERVER_COUNT
+    public static final String ACTION_SERVERS_CHANGED = "com.ltrudu.serverresponsetest.SERVERS_CHANGED";
+    public static final String ACTION_LOAD_STATS = "com.ltrudu.serverresponsetest.LOAD_STATS";
     public static final String ACTION_STOP_SERVICE = "com.ltrudu.serverresponsetest.STOP_SERVICE";
     public static final String ACTION_PAUSE_SERVICE = "com.ltrudu.serverresponsetest.PAUSE_SERVICE";
     public static final String ACTION_RESUME_SERVICE = "com.ltrudu.serverresponsetest.RESUME_SERVICE";
     
     public static final String EXTRA_SERVER_ID = "server_id";
-    public static final String EXTRA_SERVER_NAME = "server_name";
-    public static final String EXTRA_SUCCESS = "success";
-    public static final String EXTRA_ERROR_MESSAGE = "error_message";
     public static final String EXTRA_RESPONSE_TIME = "response_time";
+    public static final String EXTRA_CORRECTED_RESPONSE_TIME = "corrected_response_time";
+    public static final String EXTRA_P99_NANOS = "p99_nanos";
+    public static final String EXTRA_CORRECTED_P99_NANOS = "corrected_p99_nanos";
+    public static final String EXTRA_MAX_CONNECTIONS_PER_HOST = "max_connections_per_host";
+    public static final String EXTRA_RAW_RETENTION_HOURS = "raw_retention_hours";
+    public static final String EXTRA_NOTIFICATION_INTERVAL_MS = "notification_interval_ms";
+    public static final String EXTRA_TCP_CONNECT_TIMEOUT_MS = "tcp_connect_timeout_ms";
+    public static final String EXTRA_DNS_CACHE_TTL_MS = "dns_cache_ttl_ms";
+    public static final String EXTRA_MAX_BODY_BYTES = "max_body_bytes";
+    public static final String EXTRA_MIN_TIMEOUT_MS = "min_timeout_ms";
+    public static final String EXTRA_MAX_TIMEOUT_MS = "max_timeout_ms";
+    
+    private static final long KEEP_ALIVE_IDLE_TIMEOUT_MS = 30000;
+    // With the non-blocking engine the probe pool only dispatches (and runs ping probes)
+    private static final int NON_BLOCKING_PROBE_THREADS = 4;
     
     public static final String EXTRA_TIME_BETWEEN_REQUESTS = "time_between_requests";
     public static final String EXTRA_REQUEST_DELAY_MS = "request_delay_ms";
@@ -56,37 +93,124 @@ public class ServerTestService extends Service {
     public static final String EXTRA_NUMBER_OF_REQUESTS = "number_of_requests";
     public static final String EXTRA_CURRENT_REQUEST = "current_request";
     public static final String EXTRA_TOTAL_REQUESTS = "total_requests";
+    public static final String EXTRA_CONCURRENT_MODE = "concurrent_mode";
+    public static final String EXTRA_MAX_CONCURRENCY = "max_concurrency";
+    public static final String EXTRA_NON_BLOCKING_ENGINE = "non_blocking_engine";
+    public static final String EXTRA_LOAD_MAX_IN_FLIGHT = "load_max_in_flight";
+    public static final String EXTRA_PROBED_SERVER_COUNT = "probed_server_count";
+    
+    public static final String EXTRA_LOAD_MODE = "load_mode";
+    public static final String EXTRA_LOAD_TARGET = "load_target";
+    public static final String EXTRA_ACHIEVED_RPS = "achieved_rps";
+    public static final String EXTRA_IN_FLIGHT = "in_flight";
+    public static final String EXTRA_SENT = "sent";
+    public static final String EXTRA_COMPLETED = "completed";
+    public static final String EXTRA_ERRORS = "errors";
+    public static final String EXTRA_DROPPED = "dropped";
+    public static final String EXTRA_LATE = "late";
     
-    private AtomicBoolean isRunning = new AtomicBoolean(false);
-    private AtomicBoolean isPaused = new AtomicBoolean(false);
+    private final RunControl runControl = new RunControl();
     private ExecutorService executorService;
+    private ExecutorService probeExecutor;
+    private ProbeScheduler probeScheduler;
+    private ThreadPoolExecutor loadExecutor;
+    private ScheduledExecutorService loadTimer;
+    private final List<LoadGenerator> loadGenerators = new CopyOnWriteArrayList<>();
+    private final Map<Long, LoadGenerator.LoadStats> latestLoadStats = new ConcurrentHashMap<>();
+    private final AtomicInteger activeDrivers = new AtomicInteger(0);
+    private final Map<Long, ServerStats> serverStats = new ConcurrentHashMap<>();
     private Future<?> testTask;
+    private final IBinder binder = new LocalBinder();
     private ServerRepository serverRepository;
+    private SettingsRepository settingsRepository;
+    private ProbeResultWriter probeResultWriter;
     private LocalBroadcastManager localBroadcastManager;
+    private final ProbeEventChannel probeEventChannel = ProbeEventChannel.getInstance();
     private Random random = new Random();
-    private NotificationManager notificationManager;
+    private NotificationPublisher notificationPublisher;
     
     // Notification state tracking
-    private String currentServerName = "";
-    private int totalServers = 0;
-    private int currentServerIndex = 0;
-    private int requestCount = 0;
-    
-    private int timeBetweenRequests = 5000;
-    private int requestDelayMs = 100;
-    private int randomMinDelayMs = 50;
-    private int randomMaxDelayMs = 100;
+    private volatile int totalServers = 0;
+    // Written by the probe driver, read by the notification, progress broadcast and snapshots
+    private volatile int requestCount = 0;
+    private final AtomicLong probeCount = new AtomicLong(0);
+    private final AtomicLong successCount = new AtomicLong(0);
+    private final AtomicInteger inFlightCount = new AtomicInteger(0);
+    // Successful probes of every server since the run started, for the notification's p95
+    private final LatencyHistogram runLatency = new LatencyHistogram();
+    private AtomicIntegerArray roundCompletions;
+    
+    // Volatile settings are applied live when they change during a run, the others on the next start
+    private volatile int timeBetweenRequests = 5000;
+    private volatile int requestDelayMs = 100;
+    private volatile int randomMinDelayMs = 50;
+    private volatile int randomMaxDelayMs = 100;
     private boolean infiniteRequests = true;
     private int numberOfRequests = 10;
+    private boolean concurrentMode = false;
+    private int maxConcurrency = 8;
+    private boolean nonBlockingEngine = false;
+    private int loadMaxInFlight = 256;
+    private int maxConnectionsPerHost = 8;
+    private volatile int rawRetentionHours = 48;
+    private volatile int notificationIntervalMs = 1000;
+    private volatile int tcpConnectTimeoutMs = 3000;
+    private volatile int dnsCacheTtlMs = 60000;
+    private int maxBodyBytes = 1048576;
+    private volatile int minTimeoutMs = 1000;
+    private volatile int maxTimeoutMs = 10000;
+    // Kept across runs, so a restarted test does not resolve every host again
+    private final DnsCache dnsCache = new DnsCache(60000);
+    private ConnectionPool connectionPool;
+    private HttpProbeClient httpProbeClient;
+    // Probe plans of the current run, compiled once per server
+    private final Map<Long, HttpProbeClient.Target> targets = new ConcurrentHashMap<>();
+    // Latest result event of every server in the current run, for snapshots
+    private final Map<Long, ProbeEvent> latestResults = new ConcurrentHashMap<>();
+    // Circuit breaker of every probed server for the current run
+    private final Map<Long, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+    // Serializes the changes applied to a running test with the setup of the run
+    private final Object reconfigureLock = new Object();
+    // Definition of every server of the run as last applied, rejected ones included
+    private final Map<Long, Server> runServers = new HashMap<>();
+    private final Set<Long> rejectedServerIds = new HashSet<>();
+    private boolean runSetUp;
+    private boolean probeDriverStarted;
+    private boolean probeDriverFinished;
+    // Probed servers of a sequential run in order, replaced as a whole so a cycle never sees a partial change
+    private volatile List<Server> sequentialServers = Collections.emptyList();
+    private Future<?> sequentialTask;
+    // Hands edits of the servers and settings tables to applyChanges() while a run is set up
+    private InvalidationTracker.Observer changeObserver;
+    // Server definitions are compared through their JSON form, so a new field is never missed
+    private final Gson gson = new Gson();
+    private final LoadGenerator.Listener loadListener = new LoadGenerator.Listener() {
+        @Override
+        public void onLoadStats(Server server, LoadGenerator.LoadStats stats) {
+            latestLoadStats.put(server.getId(), stats);
+            broadcastLoadStats(server, stats);
+            notificationPublisher.requestUpdate();
+        }
+        
+        @Override
+        public void onLoadFinished(Server server) {
+            onDriverFinished();
+        }
+    };
+    // Runs TCP probes, and HTTP probes too when nonBlockingHttp is set
+    private NioProbeEngine nioProbeEngine;
+    private boolean nonBlockingHttp = false;
     
     @Override
     public void onCreate() {
         super.onCreate();
         executorService = Executors.newFixedThreadPool(4);
         serverRepository = new ServerRepository(getApplication());
+        settingsRepository = new SettingsRepository(getApplication());
+        probeResultWriter = new ProbeResultWriter(new ProbeResultRepository(getApplication()));
         localBroadcastManager = LocalBroadcastManager.getInstance(this);
-        notificationManager = getSystemService(NotificationManager.class);
         createNotificationChannel();
+        notificationPublisher = new NotificationPublisher(this, CHANNEL_ID, NOTIFICATION_ID, this::buildNotificationText);
     }
     
     @Override
@@ -112,6 +236,21 @@ public class ServerTestService extends Service {
             randomMaxDelayMs = intent.getIntExtra(EXTRA_RANDOM_MAX_DELAY_MS, 100);
             infiniteRequests = intent.getBooleanExtra(EXTRA_INFINITE_REQUESTS, true);
             numberOfRequests = intent.getIntExtra(EXTRA_NUMBER_OF_REQUESTS, 10);
+            concurrentMode = intent.getBooleanExtra(EXTRA_CONCURRENT_MODE, false);
+            maxConcurrency = Math.max(1, intent.getIntExtra(EXTRA_MAX_CONCURRENCY, 8));
+            nonBlockingEngine = intent.getBooleanExtra(EXTRA_NON_BLOCKING_ENGINE, false);
+            loadMaxInFlight = Math.max(1, intent.getIntExtra(EXTRA_LOAD_MAX_IN_FLIGHT, 256));
+            maxConnectionsPerHost = Math.max(1, intent.getIntExtra(EXTRA_MAX_CONNECTIONS_PER_HOST, 8));
+            rawRetentionHours = Math.max(1, intent.getIntExtra(EXTRA_RAW_RETENTION_HOURS, 48));
+            notificationIntervalMs = Math.max(1, intent.getIntExtra(EXTRA_NOTIFICATION_INTERVAL_MS, 1000));
+            tcpConnectTimeoutMs = Math.max(1, intent.getIntExtra(EXTRA_TCP_CONNECT_TIMEOUT_MS, 3000));
+            dnsCacheTtlMs = Math.max(1, intent.getIntExtra(EXTRA_DNS_CACHE_TTL_MS, 60000));
+            maxBodyBytes = Math.max(1, intent.getIntExtra(EXTRA_MAX_BODY_BYTES, 1048576));
+            minTimeoutMs = Math.max(1, intent.getIntExtra(EXTRA_MIN_TIMEOUT_MS, 1000));
+            maxTimeoutMs = Math.max(1, intent.getIntExtra(EXTRA_MAX_TIMEOUT_MS, 10000));
+            dnsCache.setTtlMs(dnsCacheTtlMs);
+            notificationPublisher.setIntervalMs(notificationIntervalMs);
+            probeResultWriter.setRawRetentionHours(rawRetentionHours);
             
             startForegroundService();
             startTesting();
@@ -122,7 +261,108 @@ public class ServerTestService extends Service {
     @Nullable
     @Override
     public IBinder onBind(Intent intent) {
-        return null;
+        return binder;
+    }
+    
+    /**
+     * In-process API of the service for bound clients. Every method is called on the main thread.
+     */
+    public class LocalBinder extends Binder {
+        
+        /**
+         * Starts a run with these settings on the servers of the database, exactly like the
+         * start Intent: the service is started in the foreground and outlives its clients.
+         */
+        public void start(Settings settings) {
+            Intent intent = createStartIntent(ServerTestService.this, settings);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                ServerTestService.this.startForegroundService(intent);
+            } else {
+                ServerTestService.this.startService(intent);
+            }
+        }
+        
+        public void pause() {
+            pauseTesting();
+        }
+        
+        public void resume() {
+            resumeTesting();
+        }
+        
+        public void stop() {
+            stopTesting();
+        }
+        
+        public RunSnapshot snapshot() {
+            return buildSnapshot();
+        }
+        
+        /**
+         * Delivers the results of every server, coalesced to at most one event per server per
+         * frame. Results published before the call and not yet delivered are included.
+         */
+        public void subscribe(ProbeEventChannel.Listener listener) {
+            probeEventChannel.addListener(listener);
+        }
+        
+        public void unsubscribe(ProbeEventChannel.Listener listener) {
+            probeEventChannel.removeListener(listener);
+        }
+    }
+    
+    /**
+     * Start Intent of a run with these settings, the defaults when null.
+     */
+    public static Intent createStartIntent(Context context, Settings settings) {
+        if (settings == null) {
+            settings = Settings.getDefault();
+        }
+        Intent intent = new Intent(context, ServerTestService.class);
+        intent.putExtra(EXTRA_TIME_BETWEEN_REQUESTS, settings.getTimeBetweenRequests());
+        intent.putExtra(EXTRA_REQUEST_DELAY_MS, settings.getRequestDelayMs());
+        intent.putExtra(EXTRA_RANDOM_MIN_DELAY_MS, settings.getRandomMinDelayMs());
+        intent.putExtra(EXTRA_RANDOM_MAX_DELAY_MS, settings.getRandomMaxDelayMs());
+        intent.putExtra(EXTRA_INFINITE_REQUESTS, settings.isInfiniteRequests());
+        intent.putExtra(EXTRA_NUMBER_OF_REQUESTS, settings.getNumberOfRequests());
+        intent.putExtra(EXTRA_CONCURRENT_MODE, settings.isConcurrentMode());
+        intent.putExtra(EXTRA_MAX_CONCURRENCY, settings.getMaxConcurrency());
+        intent.putExtra(EXTRA_NON_BLOCKING_ENGINE, settings.isNonBlockingEngine());
+        intent.putExtra(EXTRA_LOAD_MAX_IN_FLIGHT, settings.getLoadMaxInFlight());
+        intent.putExtra(EXTRA_MAX_CONNECTIONS_PER_HOST, settings.getMaxConnectionsPerHost());
+        intent.putExtra(EXTRA_RAW_RETENTION_HOURS, settings.getRawRetentionHours());
+        intent.putExtra(EXTRA_NOTIFICATION_INTERVAL_MS, settings.getNotificationIntervalMs());
+        intent.putExtra(EXTRA_TCP_CONNECT_TIMEOUT_MS, settings.getTcpConnectTimeoutMs());
+        intent.putExtra(EXTRA_DNS_CACHE_TTL_MS, settings.getDnsCacheTtlMs());
+        intent.putExtra(EXTRA_MAX_BODY_BYTES, settings.getMaxBodyBytes());
+        intent.putExtra(EXTRA_MIN_TIMEOUT_MS, settings.getMinTimeoutMs());
+        intent.putExtra(EXTRA_MAX_TIMEOUT_MS, settings.getMaxTimeoutMs());
+        return intent;
+    }
+    
+    private RunSnapshot buildSnapshot() {
+        RunSnapshot snapshot = new RunSnapshot();
+        snapshot.running = runControl.isRunning();
+        snapshot.paused = runControl.isPaused();
+        snapshot.concurrentMode = concurrentMode;
+        snapshot.probedServerCount = totalServers;
+        snapshot.infiniteRequests = infiniteRequests;
+        snapshot.completedRequests = requestCount;
+        snapshot.totalRequests = numberOfRequests;
+        snapshot.probeCount = probeCount.get();
+        snapshot.successCount = successCount.get();
+        snapshot.inFlight = inFlightCount.get();
+        snapshot.latestResults = new HashMap<>();
+        for (ProbeEvent event : latestResults.values()) {
+            ProbeEvent copy = event.copy();
+            CircuitBreaker breaker = breakers.get(event.serverId);
+            if (breaker != null) {
+                setCircuitState(copy, breaker);
+            }
+            snapshot.latestResults.put(copy.serverId, copy);
+        }
+        snapshot.loadStats = new HashMap<>(latestLoadStats);
+        return snapshot;
     }
     
     private void createNotificationChannel() {
@@ -143,279 +383,1014 @@ public class ServerTestService extends Service {
     }
     
     private void startForegroundService() {
-        updateNotification("Initializing...", false);
+        notificationPublisher.startForeground(getString(R.string.notification_initializing));
     }
     
-    private void updateNotification(String status, boolean pausedState) {
-        // Create main app intent
-        Intent mainIntent = new Intent(this, com.ltrudu.serverresponsetest.MainActivity.class);
-        mainIntent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TOP);
-        PendingIntent mainPendingIntent = PendingIntent.getActivity(this, 0, mainIntent, 
-                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
-        
-        // Create action intents
-        Intent stopIntent = new Intent(this, ServerTestService.class);
-        stopIntent.setAction(ACTION_STOP_SERVICE);
-        PendingIntent stopPendingIntent = PendingIntent.getService(this, 0, stopIntent, 
-                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
-        
-        Intent pauseResumeIntent = new Intent(this, ServerTestService.class);
-        pauseResumeIntent.setAction(pausedState ? ACTION_RESUME_SERVICE : ACTION_PAUSE_SERVICE);
-        PendingIntent pauseResumePendingIntent = PendingIntent.getService(this, 1, pauseResumeIntent, 
-                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
-        
-        // Build notification content
-        String title = pausedState ? "Server Load Test - Paused" : "Server Load Test - Running";
-        String content;
+    // Built by the publisher at most once per notification interval
+    private String buildNotificationText() {
+        StringBuilder text = new StringBuilder();
         if (totalServers > 0) {
             if (infiniteRequests) {
-                content = String.format("Testing %s (%d/%d) - Request #%d", 
-                        currentServerName, currentServerIndex + 1, totalServers, requestCount + 1);
+                text.append(getString(R.string.notification_progress, totalServers, probeCount.get(), inFlightCount.get()));
             } else {
-                content = String.format("Testing %s (%d/%d) - %d/%d requests", 
-                        currentServerName, currentServerIndex + 1, totalServers, requestCount + 1, numberOfRequests);
+                text.append(getString(R.string.notification_progress_finite, totalServers, requestCount, numberOfRequests,
+                        inFlightCount.get()));
+            }
+            long probes = probeCount.get();
+            if (probes > 0) {
+                text.append('\n').append(getString(R.string.notification_quality, 100.0 * successCount.get() / probes,
+                        runLatency.getValueAtPercentile(95) / 1e6));
             }
-        } else {
-            content = status;
         }
         
-        Notification notification = new NotificationCompat.Builder(this, CHANNEL_ID)
-                .setContentTitle(title)
-                .setContentText(content)
-                .setSmallIcon(R.drawable.ic_notification_server_test)
-                .setPriority(NotificationCompat.PRIORITY_LOW)
-                .setOngoing(true)
-                .setContentIntent(mainPendingIntent)
-                .addAction(pausedState ? R.drawable.ic_play_24 : R.drawable.ic_pause_24, 
-                           pausedState ? "Resume" : "Pause", pauseResumePendingIntent)
-                .addAction(R.drawable.ic_stop_24, "Stop", stopPendingIntent)
-                .setStyle(new NotificationCompat.BigTextStyle().bigText(content))
-                .build();
-        
-        if (isRunning.get() || isPaused.get()) {
-            if (notificationManager != null) {
-                notificationManager.notify(NOTIFICATION_ID, notification);
+        if (!latestLoadStats.isEmpty()) {
+            double achievedRps = 0;
+            int inFlight = 0;
+            for (LoadGenerator.LoadStats stats : latestLoadStats.values()) {
+                achievedRps += stats.achievedRps;
+                inFlight += stats.inFlight;
             }
-            if (!isPaused.get() && isRunning.get()) {
-                startForeground(NOTIFICATION_ID, notification);
+            if (text.length() > 0) {
+                text.append('\n');
             }
+            text.append(getString(R.string.notification_load, latestLoadStats.size(), achievedRps, inFlight));
         }
+        return text.length() > 0 ? text.toString() : getString(R.string.notification_initializing);
     }
     
     private void startTesting() {
-        if (isRunning.compareAndSet(false, true)) {
-            isPaused.set(false);
-            broadcastTestStarted();
+        if (runControl.start()) {
+            nioProbeEngine = null;
+            try {
+                // maxConcurrency bounds the exchanges in flight instead of the threads
+                nioProbeEngine = new NioProbeEngine(dnsCache, maxConcurrency, maxConnectionsPerHost,
+                        KEEP_ALIVE_IDLE_TIMEOUT_MS, maxBodyBytes);
+            } catch (IOException e) {
+                Log.e(TAG, "Non-blocking engine unavailable, using blocking probes", e);
+            }
+            nonBlockingHttp = nonBlockingEngine && nioProbeEngine != null;
+            probeExecutor = Executors.newFixedThreadPool(nonBlockingHttp
+                    ? Math.min(maxConcurrency, NON_BLOCKING_PROBE_THREADS) : maxConcurrency);
+            connectionPool = new ConnectionPool(maxConnectionsPerHost, KEEP_ALIVE_IDLE_TIMEOUT_MS);
+            serverStats.clear();
+            targets.clear();
+            breakers.clear();
+            latestResults.clear();
+            probeScheduler = null;
+            loadExecutor = null;
+            loadTimer = null;
+            synchronized (reconfigureLock) {
+                runServers.clear();
+                rejectedServerIds.clear();
+                runSetUp = false;
+                probeDriverStarted = false;
+                probeDriverFinished = false;
+                sequentialServers = Collections.emptyList();
+            }
+            probeEventChannel.clear();
+            runLatency.reset();
+            probeCount.set(0);
+            successCount.set(0);
+            httpProbeClient = new HttpProbeClient(connectionPool, dnsCache, runControl, maxBodyBytes);
             
             testTask = executorService.submit(() -> {
+                // Edits made from now on are applied to the running test
+                watchForChanges();
                 List<Server> servers = serverRepository.getAllServersSync();
                 
                 if (servers == null || servers.isEmpty()) {
                     Log.w(TAG, "No servers to test");
-                    updateNotification("No servers configured", false);
                     stopTesting();
                     return;
                 }
                 
-                totalServers = servers.size();
-                requestCount = 0;
-                
-                updateNotification("Starting tests...", false);
-                
-                // Broadcast initial request progress for finite mode
-                if (!infiniteRequests) {
-                    broadcastRequestProgress();
-                }
-                
-                while (isRunning.get() && (infiniteRequests || requestCount < numberOfRequests)) {
-                    // Wait while paused
-                    while (isPaused.get() && isRunning.get()) {
-                        try {
-                            Thread.sleep(1000);
-                        } catch (InterruptedException e) {
-                            Thread.currentThread().interrupt();
-                            return;
+                // An edit arriving meanwhile waits until the run is set up, then is diffed against it
+                synchronized (reconfigureLock) {
+                    // Servers whose definition does not compile are left out of the run
+                    Map<Long, String> rejectedServers = compileTargets(servers);
+                    rejectedServerIds.addAll(rejectedServers.keySet());
+                    
+                    // Load-test servers are driven by their own generator, the others are probed
+                    List<Server> probedServers = new ArrayList<>();
+                    List<Server> loadServers = new ArrayList<>();
+                    for (Server server : servers) {
+                        runServers.put(server.getId(), server);
+                        if (rejectedServers.containsKey(server.getId())) {
+                            continue;
+                        }
+                        if (server.isLoadTest()) {
+                            loadServers.add(server);
+                        } else {
+                            probedServers.add(server);
                         }
                     }
                     
-                    if (!isRunning.get()) break;
+                    totalServers = probedServers.size();
+                    requestCount = 0;
+                    activeDrivers.set(loadServers.size() + (probedServers.isEmpty() ? 0 : 1));
+                    broadcastTestStarted();
                     
-                    for (int i = 0; i < servers.size(); i++) {
-                        if (!isRunning.get()) {
-                            break;
-                        }
-                        
-                        // Wait while paused
-                        while (isPaused.get() && isRunning.get()) {
-                            try {
-                                Thread.sleep(1000);
-                            } catch (InterruptedException e) {
-                                Thread.currentThread().interrupt();
-                                return;
-                            }
-                        }
-                        
-                        if (!isRunning.get()) break;
-                        
-                        currentServerIndex = i;
-                        Server server = servers.get(i);
-                        currentServerName = server.getName();
-                        
-                        // Update notification with current server
-                        updateNotification("", isPaused.get());
-                        
-                        testServer(server);
-                        
-                        // Add delay between individual server requests (only if there are multiple servers)
-                        if (servers.size() > 1 && i < servers.size() - 1 && isRunning.get() && !isPaused.get()) {
-                            try {
-                                // Calculate total delay: base delay + random delay
-                                int totalDelay = requestDelayMs;
-                                if (randomMaxDelayMs > randomMinDelayMs) {
-                                    int randomDelay = randomMinDelayMs + random.nextInt(randomMaxDelayMs - randomMinDelayMs + 1);
-                                    totalDelay += randomDelay;
-                                } else if (randomMinDelayMs > 0) {
-                                    totalDelay += randomMinDelayMs;
-                                }
-                                
-                                if (totalDelay > 0) {
-                                    Thread.sleep(totalDelay);
-                                }
-                            } catch (InterruptedException e) {
-                                Thread.currentThread().interrupt();
-                                break;
-                            }
-                        }
+                    for (Map.Entry<Long, String> rejected : rejectedServers.entrySet()) {
+                        rejectServer(rejected.getKey(), rejected.getValue());
                     }
+                    if (activeDrivers.get() == 0) {
+                        Log.w(TAG, "No valid servers to test");
+                        stopTesting();
+                        return;
+                    }
+                    
+                    notificationPublisher.publishNow();
                     
+                    // Broadcast initial request progress for finite mode
                     if (!infiniteRequests) {
-                        requestCount++;
                         broadcastRequestProgress();
                     }
                     
-                    // Wait between cycles
-                    if (isRunning.get() && !isPaused.get()) {
-                        try {
-                            Thread.sleep(timeBetweenRequests);
-                        } catch (InterruptedException e) {
-                            Thread.currentThread().interrupt();
-                            break;
-                        }
+                    for (Server server : loadServers) {
+                        startLoadGenerator(server);
+                    }
+                    
+                    if (!probedServers.isEmpty()) {
+                        startProbeDriver(probedServers);
                     }
+                    runSetUp = true;
                 }
-                
-                stopTesting();
             });
         }
     }
     
-    private void testServer(Server server) {
-        // Broadcast that we're starting to test this server
-        Intent testingIntent = new Intent(ACTION_SERVER_TESTING);
-        testingIntent.putExtra(EXTRA_SERVER_ID, server.getId());
-        testingIntent.putExtra(EXTRA_SERVER_NAME, server.getName());
-        localBroadcastManager.sendBroadcast(testingIntent);
+    // Caller holds reconfigureLock and has counted the driver in activeDrivers
+    private void startProbeDriver(List<Server> probedServers) {
+        probeDriverStarted = true;
+        sequentialServers = probedServers;
+        if (concurrentMode) {
+            startScheduler(probedServers);
+        } else {
+            sequentialTask = executorService.submit(this::runSequentialLoop);
+        }
+    }
+    
+    private void runSequentialLoop() {
+        while (infiniteRequests || requestCount < numberOfRequests) {
+            // Parks while paused, returns at once on resume or stop; each cycle takes the servers as they are then
+            if (!runControl.awaitRunnable() || !runSequentialCycle(sequentialServers)) {
+                break;
+            }
+            
+            if (!infiniteRequests) {
+                requestCount++;
+                broadcastRequestProgress();
+            }
+            
+            // Wait between cycles, cut short by a stop
+            if (!runControl.sleep(timeBetweenRequests)) {
+                break;
+            }
+        }
         
-        long startTime = System.currentTimeMillis();
-        boolean success = false;
-        String errorMessage = null;
+        finishProbeDriver();
+    }
+    
+    // The probe loop or scheduler has run its budget; servers added from now on wait for the next run
+    private void finishProbeDriver() {
+        synchronized (reconfigureLock) {
+            if (probeDriverFinished) {
+                return;
+            }
+            probeDriverFinished = true;
+        }
+        onDriverFinished();
+    }
+    
+    // Returns false if the run was stopped during the cycle
+    private boolean runSequentialCycle(List<Server> servers) {
+        for (int i = 0; i < servers.size(); i++) {
+            Server server = servers.get(i);
+            if (!breakerFor(server).allowProbe()) {
+                // Open circuit: no request and no delay before the next server
+                skipProbe(server);
+                continue;
+            }
+            if (!runControl.awaitRunnable() || !runControl.enterTask()) {
+                return false;
+            }
+            
+            // Back-to-back cycles: each request is due when it is sent
+            inFlightCount.incrementAndGet();
+            try {
+                testServer(server, System.nanoTime());
+            } finally {
+                inFlightCount.decrementAndGet();
+                runControl.exitTask();
+            }
+            notificationPublisher.requestUpdate();
+            
+            // Add delay between individual server requests (only if there are multiple servers)
+            if (servers.size() > 1 && i < servers.size() - 1) {
+                // Calculate total delay: base delay + random delay
+                // Read once: the settings may change in between
+                int totalDelay = requestDelayMs;
+                int randomMinDelay = randomMinDelayMs;
+                int randomMaxDelay = randomMaxDelayMs;
+                if (randomMaxDelay > randomMinDelay) {
+                    int randomDelay = randomMinDelay + random.nextInt(randomMaxDelay - randomMinDelay + 1);
+                    totalDelay += randomDelay;
+                } else if (randomMinDelay > 0) {
+                    totalDelay += randomMinDelay;
+                }
+                
+                if (totalDelay > 0 && !runControl.sleep(totalDelay)) {
+                    return false;
+                }
+            }
+        }
+        return runControl.isRunning();
+    }
+    
+    private void startScheduler(List<Server> servers) {
+        // Each server fires on its own interval; the probe pool bounds the parallelism
+        if (!infiniteRequests && numberOfRequests <= 0) {
+            stopTesting();
+            return;
+        }
+        roundCompletions = infiniteRequests ? null : new AtomicIntegerArray(numberOfRequests);
+        
+        probeScheduler = new ProbeScheduler(probeExecutor, this::runScheduledProbe, new ProbeScheduler.Listener() {
+            @Override
+            public void onProbeCompleted(Server server, int serverProbes) {
+                if (roundCompletions != null && serverProbes <= roundCompletions.length()
+                        && roundCompletions.incrementAndGet(serverProbes - 1) >= totalServers) {
+                    // Every server has now run this many probes
+                    onRoundCompleted(serverProbes);
+                }
+                notificationPublisher.requestUpdate();
+            }
+            
+            @Override
+            public void onAllSchedulesFinished() {
+                finishProbeDriver();
+            }
+        }, infiniteRequests ? 0 : numberOfRequests);
         
+        probeScheduler.start(servers, timeBetweenRequests);
+    }
+    
+    private void runScheduledProbe(Server server, long intendedStartNanos, Runnable done) {
+        if (!breakerFor(server).allowProbe()) {
+            // Open circuit: the slot passes without a request
+            skipProbe(server);
+            done.run();
+            return;
+        }
+        boolean wasPaused = runControl.isPaused();
+        if (!runControl.awaitRunnable() || !runControl.enterTask()) {
+            done.run();
+            return;
+        }
+        if (wasPaused) {
+            // Time spent paused is not the server's fault
+            intendedStartNanos = System.nanoTime();
+        }
+        inFlightCount.incrementAndGet();
+        Server.RequestType requestType = server.getRequestType();
+        if (nioProbeEngine != null && (requestType == Server.RequestType.TCP
+                || nonBlockingHttp && requestType == Server.RequestType.HTTPS)) {
+            startNonBlockingProbe(server, intendedStartNanos, done);
+            return;
+        }
+        try {
+            testServer(server, intendedStartNanos);
+        } finally {
+            inFlightCount.decrementAndGet();
+            runControl.exitTask();
+            done.run();
+        }
+    }
+    
+    // Hands the request to the selector thread; the probe pool thread is free again at once
+    private void startNonBlockingProbe(Server server, long intendedStartNanos, Runnable done) {
+        probeEventChannel.publishTesting(server.getId());
+        boolean tcp = server.getRequestType() == Server.RequestType.TCP;
+        int timeoutMs = timeoutFor(server);
+        HttpProbeClient.Target target;
+        try {
+            target = targetFor(server);
+        } catch (MalformedURLException e) {
+            long now = System.nanoTime();
+            finishNonBlockingProbe(server, now, now, intendedStartNanos, timeoutMs, ProbeOutcome.failure(e.getMessage()),
+                    done);
+            return;
+        }
+        NioProbeEngine.Callback callback = new NioProbeEngine.Callback() {
+            @Override
+            public void onComplete(long startNanos, HttpProbeClient.Response response) {
+                finishNonBlockingProbe(server, startNanos, System.nanoTime(), intendedStartNanos, timeoutMs,
+                        tcp ? toTcpOutcome(response) : toOutcome(response, target), done);
+            }
+            
+            @Override
+            public void onFailure(long startNanos, IOException e) {
+                long endNanos = System.nanoTime();
+                Log.e(TAG, server.getRequestType() + " test failed for " + server.getName(), e);
+                finishNonBlockingProbe(server, startNanos, endNanos, intendedStartNanos, timeoutMs,
+                        ProbeOutcome.failure(e.getMessage()), done);
+            }
+        };
+        if (tcp) {
+            nioProbeEngine.connect(target, timeoutMs, callback);
+        } else {
+            nioProbeEngine.execute(target, server.isWarmConnection(), timeoutMs, callback);
+        }
+    }
+    
+    // Selector thread: recording is lock-free and cheap enough to stay there
+    private void finishNonBlockingProbe(Server server, long startNanos, long endNanos, long intendedStartNanos,
+                                        int timeoutMs, ProbeOutcome outcome, Runnable done) {
+        outcome.timeoutMs = timeoutMs;
         try {
-            if (server.getRequestType() == Server.RequestType.HTTPS) {
-                success = testHttpServer(server);
-            } else if (server.getRequestType() == Server.RequestType.PING) {
-                success = testPingServer(server);
+            recordProbe(server, startNanos, endNanos, intendedStartNanos, outcome, false);
+        } finally {
+            inFlightCount.decrementAndGet();
+            runControl.exitTask();
+            done.run();
+        }
+    }
+    
+    // Caller holds reconfigureLock and has counted the generator in activeDrivers
+    private void startLoadGenerator(Server server) {
+        if (loadExecutor == null) {
+            // Open-loop sends are dropped, not queued, once every load thread is busy
+            loadExecutor = new ThreadPoolExecutor(0, loadMaxInFlight, 30, TimeUnit.SECONDS, new SynchronousQueue<>());
+            loadTimer = Executors.newSingleThreadScheduledExecutor();
+        }
+        LoadGenerator generator = new LoadGenerator(server, infiniteRequests ? 0 : numberOfRequests, loadExecutor,
+                loadTimer, this::executeLoadRequest, loadListener);
+        loadGenerators.add(generator);
+        generator.start();
+        if (runControl.isPaused()) {
+            generator.pause();
+        }
+    }
+    
+    // Load pool thread: the request takes the same result path as a probe, marked as load traffic
+    private boolean executeLoadRequest(Server server, long intendedNanos) {
+        if (!runControl.enterTask()) {
+            return false;
+        }
+        try {
+            int timeoutMs = timeoutFor(server);
+            long startNanos = System.nanoTime();
+            ProbeOutcome outcome;
+            try {
+                outcome = executeProbe(server, timeoutMs);
+            } catch (Exception e) {
+                outcome = ProbeOutcome.failure(e.getMessage());
             }
+            outcome.timeoutMs = timeoutMs;
+            recordProbe(server, startNanos, System.nanoTime(), intendedNanos, outcome, true);
+            return outcome.success;
+        } finally {
+            runControl.exitTask();
+        }
+    }
+    
+    // A driver is the probe loop/scheduler or one load generator; the run ends with the last one
+    private void onDriverFinished() {
+        if (activeDrivers.decrementAndGet() <= 0) {
+            stopTesting();
+        }
+    }
+    
+    private synchronized void onRoundCompleted(int round) {
+        if (round > requestCount) {
+            requestCount = round;
+            broadcastRequestProgress();
+        }
+    }
+    
+    private void testServer(Server server, long intendedStartNanos) {
+        // Tell the UI we're starting to test this server
+        probeEventChannel.publishTesting(server.getId());
+        
+        int timeoutMs = timeoutFor(server);
+        long startNanos = System.nanoTime();
+        ProbeOutcome outcome;
+        
+        try {
+            outcome = executeProbe(server, timeoutMs);
         } catch (Exception e) {
-            success = false;
-            errorMessage = e.getMessage();
+            outcome = ProbeOutcome.failure(e.getMessage());
             Log.e(TAG, "Error testing server " + server.getName(), e);
         }
+        outcome.timeoutMs = timeoutMs;
+        
+        recordProbe(server, startNanos, System.nanoTime(), intendedStartNanos, outcome, false);
+    }
+    
+    // Shared result path of both engines and of load requests: statistics, UI event and stored
+    // result. Load requests stay out of the run totals and the cycle count, and are only rolled up
+    private void recordProbe(Server server, long startNanos, long endNanos, long intendedStartNanos,
+                             ProbeOutcome outcome, boolean load) {
+        if (!runControl.isRunning()) {
+            // Aborted by a stop, says nothing about the server
+            return;
+        }
+        
+        long responseNanos = endNanos - startNanos;
+        // Corrected latency runs from when the request should have been sent, so a stalled
+        // server is charged for the delay it imposed on the probes queued behind it
+        long correctedResponseNanos = endNanos - Math.min(intendedStartNanos, startNanos);
+        
+        // Only an unreachable server counts against its circuit
+        CircuitBreaker breaker = breakerFor(server);
+        CircuitBreaker.State previousState = breaker.onResult(outcome.errorClass != ProbeResult.ErrorClass.NETWORK);
+        if (previousState != null) {
+            Log.i(TAG, "Circuit of " + server.getName() + ": " + previousState + " -> " + breaker.getState());
+        }
         
-        long responseTime = System.currentTimeMillis() - startTime;
+        ServerStats stats = getServerStats(server);
+        if (outcome.errorClass != ProbeResult.ErrorClass.NETWORK) {
+            // A bad status or failed check still took the server's real response time
+            stats.timeout.recordResponse(responseNanos);
+        } else {
+            stats.timeout.recordNetworkFailure();
+        }
+        if (!load) {
+            probeCount.incrementAndGet();
+        }
+        if (outcome.success) {
+            stats.latency.record(responseNanos);
+            stats.correctedLatency.record(correctedResponseNanos);
+            if (!load) {
+                runLatency.record(responseNanos);
+                successCount.incrementAndGet();
+            }
+        }
         
-        Intent resultIntent = new Intent(ACTION_TEST_RESULT);
-        resultIntent.putExtra(EXTRA_SERVER_ID, server.getId());
-        resultIntent.putExtra(EXTRA_SERVER_NAME, server.getName());
-        resultIntent.putExtra(EXTRA_SUCCESS, success);
-        resultIntent.putExtra(EXTRA_ERROR_MESSAGE, errorMessage);
-        resultIntent.putExtra(EXTRA_RESPONSE_TIME, responseTime);
+        ProbeEvent event = new ProbeEvent(server.getId());
+        event.load = load;
+        event.success = outcome.success;
+        event.errorMessage = outcome.errorMessage;
+        event.responseNanos = responseNanos;
+        event.correctedResponseNanos = correctedResponseNanos;
+        event.percentileNanos = new long[5];
+        event.correctedPercentileNanos = new long[5];
+        stats.latency.getSummary(event.percentileNanos);
+        stats.correctedLatency.getSummary(event.correctedPercentileNanos);
+        event.connectionReused = outcome.connectionReused;
+        event.dnsCached = outcome.dnsCached;
+        event.bodyBytes = outcome.bodyBytes;
+        event.bodyTruncated = outcome.bodyTruncated;
+        event.phaseNanos = new long[] {
+                outcome.dnsNanos, outcome.connectNanos, outcome.tlsNanos, outcome.ttfbNanos, outcome.bodyNanos
+        };
+        setCircuitState(event, breaker);
+        // The channel may merge later results into the published event: the snapshot keeps its own
+        latestResults.put(server.getId(), event.copy());
+        probeEventChannel.publishResult(event);
         
-        localBroadcastManager.sendBroadcast(resultIntent);
+        ProbeResult result = new ProbeResult(server.getId(), System.currentTimeMillis(), outcome.success, responseNanos,
+                correctedResponseNanos, outcome.errorMessage);
+        result.setConnectionReused(outcome.connectionReused);
+        result.setDnsNanos(outcome.dnsNanos);
+        result.setDnsCached(outcome.dnsCached);
+        result.setConnectNanos(outcome.connectNanos);
+        result.setTlsNanos(outcome.tlsNanos);
+        result.setTtfbNanos(outcome.ttfbNanos);
+        result.setBodyNanos(outcome.bodyNanos);
+        result.setBodyBytes(outcome.bodyBytes);
+        result.setBodyTruncated(outcome.bodyTruncated);
+        result.setErrorClass(outcome.errorClass);
+        result.setTimeoutMs(outcome.timeoutMs);
+        result.setLoad(load);
+        probeResultWriter.enqueue(result);
+    }
+    
+    // A skipped slot still reaches the UI, so the Test tab can count the cycle as complete
+    private void skipProbe(Server server) {
+        ProbeEvent event = new ProbeEvent(server.getId());
+        event.skipped = true;
+        setCircuitState(event, breakerFor(server));
+        probeEventChannel.publishResult(event);
+    }
+    
+    private static void setCircuitState(ProbeEvent event, CircuitBreaker breaker) {
+        event.circuitState = breaker.getState();
+        event.consecutiveFailures = breaker.getConsecutiveFailures();
+        event.circuitRetryAtMillis = breaker.getRetryAtMillis();
     }
     
-    private boolean testHttpServer(Server server) {
+    // The first opening lasts about two of the server's intervals
+    private CircuitBreaker breakerFor(Server server) {
+        CircuitBreaker breaker = breakers.get(server.getId());
+        if (breaker == null) {
+            breaker = new CircuitBreaker(server.getIntervalMs() != null && server.getIntervalMs() > 0
+                    ? server.getIntervalMs() : timeBetweenRequests);
+            CircuitBreaker existing = breakers.putIfAbsent(server.getId(), breaker);
+            if (existing != null) {
+                breaker = existing;
+            }
+        }
+        return breaker;
+    }
+    
+    private ServerStats getServerStats(Server server) {
+        ServerStats stats = serverStats.get(server.getId());
+        if (stats == null) {
+            stats = new ServerStats();
+            ServerStats existing = serverStats.putIfAbsent(server.getId(), stats);
+            if (existing != null) {
+                stats = existing;
+            }
+        }
+        return stats;
+    }
+    
+    /**
+     * Latency histogram of a server for the current run, or null if it has not been probed yet.
+     */
+    public LatencyHistogram getLatencyHistogram(long serverId) {
+        ServerStats stats = serverStats.get(serverId);
+        return stats != null ? stats.latency : null;
+    }
+    
+    /**
+     * Compiles the probe plan of every server before the first probe, so the probes themselves
+     * parse nothing. Returns the servers whose definition was rejected, with the reason.
+     */
+    private Map<Long, String> compileTargets(List<Server> servers) {
+        Map<Long, String> rejected = new LinkedHashMap<>();
+        for (Server server : servers) {
+            String reason = compileTarget(server);
+            if (reason != null) {
+                rejected.put(server.getId(), reason);
+            }
+        }
+        return rejected;
+    }
+    
+    // Null once the server's plan is compiled, otherwise why its definition was rejected
+    private String compileTarget(Server server) {
         try {
-            String urlString = server.getAddress();
-            
-            if (!urlString.startsWith("http://") && !urlString.startsWith("https://")) {
-                urlString = "https://" + urlString;
+            targetFor(server);
+            return null;
+        } catch (MalformedURLException e) {
+            Log.w(TAG, "Invalid definition for " + server.getName() + ": " + e.getMessage());
+            return "Invalid address: " + e.getMessage();
+        }
+    }
+    
+    private HttpProbeClient.Target targetFor(Server server) throws MalformedURLException {
+        HttpProbeClient.Target target = targets.get(server.getId());
+        if (target == null) {
+            target = HttpProbeClient.Target.compile(server);
+            targets.put(server.getId(), target);
+        }
+        return target;
+    }
+    
+    // Reported once when the server joins the run; it is not probed and nothing is stored
+    private void rejectServer(long serverId, String reason) {
+        ProbeEvent event = new ProbeEvent(serverId);
+        event.rejected = true;
+        event.errorMessage = reason;
+        latestResults.put(serverId, event.copy());
+        probeEventChannel.publishResult(event);
+    }
+    
+    // Background thread: registering an observer may query the database
+    private void watchForChanges() {
+        InvalidationTracker.Observer observer = new InvalidationTracker.Observer("servers", "settings") {
+            @Override
+            public void onInvalidated(@NonNull Set<String> tables) {
+                try {
+                    executorService.execute(() -> applyChanges(tables));
+                } catch (RejectedExecutionException e) {
+                    // The service is being destroyed
+                }
             }
-            
-            if (server.getPort() != null) {
-                urlString += ":" + server.getPort();
+        };
+        changeObserver = observer;
+        AppDatabase.getDatabase(getApplication()).getInvalidationTracker().addObserver(observer);
+        if (!runControl.isRunning()) {
+            // Stopped while registering
+            stopWatchingChanges();
+        }
+    }
+    
+    private void stopWatchingChanges() {
+        InvalidationTracker.Observer observer = changeObserver;
+        if (observer == null) {
+            return;
+        }
+        changeObserver = null;
+        executorService.execute(() ->
+                AppDatabase.getDatabase(getApplication()).getInvalidationTracker().removeObserver(observer));
+    }
+    
+    private void applyChanges(Set<String> tables) {
+        if (tables.contains("settings")) {
+            applySettingsChanges();
+        }
+        if (tables.contains("servers")) {
+            applyServerChanges();
+        }
+    }
+    
+    /**
+     * Applies the settings that only retune a running test: the delays and default interval,
+     * the timeouts, the DNS cache TTL, the notification interval and the raw retention. The mode,
+     * request budget, engine, pools and body limit keep their start values until the next start.
+     */
+    private void applySettingsChanges() {
+        Settings settings = settingsRepository.getSettingsSync();
+        if (settings == null || !runControl.isRunning()) {
+            return;
+        }
+        timeBetweenRequests = settings.getTimeBetweenRequests();
+        requestDelayMs = settings.getRequestDelayMs();
+        randomMinDelayMs = settings.getRandomMinDelayMs();
+        randomMaxDelayMs = settings.getRandomMaxDelayMs();
+        rawRetentionHours = Math.max(1, settings.getRawRetentionHours());
+        notificationIntervalMs = Math.max(1, settings.getNotificationIntervalMs());
+        tcpConnectTimeoutMs = Math.max(1, settings.getTcpConnectTimeoutMs());
+        dnsCacheTtlMs = Math.max(1, settings.getDnsCacheTtlMs());
+        minTimeoutMs = Math.max(1, settings.getMinTimeoutMs());
+        maxTimeoutMs = Math.max(1, settings.getMaxTimeoutMs());
+        dnsCache.setTtlMs(dnsCacheTtlMs);
+        notificationPublisher.setIntervalMs(notificationIntervalMs);
+        probeResultWriter.setRawRetentionHours(rawRetentionHours);
+        synchronized (reconfigureLock) {
+            if (probeScheduler != null) {
+                probeScheduler.setDefaultIntervalMs(timeBetweenRequests);
+            }
+        }
+    }
+    
+    /**
+     * Diffs the servers table against the run: a removed server's probes stop, an added one
+     * starts on its own schedule and a changed one goes on with its new definition. Every
+     * other server keeps its schedule, connections, circuit and statistics.
+     */
+    private void applyServerChanges() {
+        List<Server> servers = serverRepository.getAllServersSync();
+        synchronized (reconfigureLock) {
+            if (!runSetUp || !runControl.isRunning() || servers == null) {
+                return;
+            }
+            if (servers.isEmpty()) {
+                Log.i(TAG, "Every server was removed, stopping the test");
+                stopTesting();
+                return;
+            }
+            Map<Long, Server> current = new HashMap<>();
+            for (Server server : servers) {
+                current.put(server.getId(), server);
             }
             
-            URL url = new URL(urlString);
-            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestMethod("GET");
-            connection.setConnectTimeout(10000);
-            connection.setReadTimeout(10000);
-            
-            int responseCode = connection.getResponseCode();
-            connection.disconnect();
-            
-            return responseCode >= 200 && responseCode < 400;
+            // Holds the run open while a changed server that was its last driver is replaced
+            activeDrivers.incrementAndGet();
+            try {
+                boolean changed = false;
+                for (Server server : new ArrayList<>(runServers.values())) {
+                    Server updated = current.get(server.getId());
+                    if (updated == null) {
+                        removeFromRun(server);
+                        changed = true;
+                    } else if (!gson.toJson(server).equals(gson.toJson(updated))) {
+                        updateInRun(server, updated);
+                        changed = true;
+                    }
+                }
+                for (Server server : servers) {
+                    if (!runServers.containsKey(server.getId())) {
+                        addToRun(server);
+                        changed = true;
+                    }
+                }
+                if (!changed) {
+                    return;
+                }
+                
+                List<Server> probedServers = new ArrayList<>();
+                for (Server server : servers) {
+                    if (!server.isLoadTest() && !rejectedServerIds.contains(server.getId())) {
+                        probedServers.add(server);
+                    }
+                }
+                totalServers = probedServers.size();
+                if (!probeDriverStarted && !probedServers.isEmpty()) {
+                    // The run started with load tests only
+                    activeDrivers.incrementAndGet();
+                    startProbeDriver(probedServers);
+                } else if (!probeDriverFinished) {
+                    sequentialServers = probedServers;
+                }
+                Log.d(TAG, "Servers changed, " + runServers.size() + " in the run");
+                broadcastServersChanged();
+                notificationPublisher.requestUpdate();
+            } finally {
+                onDriverFinished();
+            }
+        }
+    }
+    
+    // Caller holds reconfigureLock. The server's plan, circuit and statistics go with it
+    private void removeFromRun(Server server) {
+        long serverId = server.getId();
+        runServers.remove(serverId);
+        targets.remove(serverId);
+        breakers.remove(serverId);
+        serverStats.remove(serverId);
+        latestResults.remove(serverId);
+        if (rejectedServerIds.remove(serverId)) {
+            return;
+        }
+        if (server.isLoadTest()) {
+            for (LoadGenerator generator : loadGenerators) {
+                if (generator.getServer().getId() == serverId) {
+                    loadGenerators.remove(generator);
+                    latestLoadStats.remove(serverId);
+                    // A generator that already ran its budget has been counted out
+                    if (generator.stop()) {
+                        onDriverFinished();
+                    }
+                }
+            }
+        } else if (probeScheduler != null) {
+            probeScheduler.remove(serverId);
+        }
+    }
+    
+    // Caller holds reconfigureLock. A probed server keeps its schedule and probe count, so an edit
+    // never restarts its budget or ends a finite run; its plan, circuit and statistics are only
+    // rebuilt when what it probes changed. A load test whose request or load changed is restarted
+    private void updateInRun(Server server, Server updated) {
+        long serverId = server.getId();
+        boolean sameProbe = probeDefinition(server).equals(probeDefinition(updated));
+        if (rejectedServerIds.contains(serverId) || server.isLoadTest() != updated.isLoadTest()
+                || (updated.isLoadTest() && !sameProbe)) {
+            removeFromRun(server);
+            addToRun(updated);
+            return;
+        }
+        runServers.put(serverId, updated);
+        if (!sameProbe) {
+            targets.remove(serverId);
+            breakers.remove(serverId);
+            serverStats.remove(serverId);
+            latestResults.remove(serverId);
+            String reason = compileTarget(updated);
+            if (reason != null) {
+                rejectedServerIds.add(serverId);
+                rejectServer(serverId, reason);
+                if (probeScheduler != null) {
+                    probeScheduler.remove(serverId);
+                }
+                return;
+            }
+        }
+        if (updated.isLoadTest()) {
+            for (LoadGenerator generator : loadGenerators) {
+                if (generator.getServer().getId() == serverId) {
+                    generator.update(updated);
+                }
+            }
+        } else if (probeScheduler != null) {
+            // A server that already ran its budget has no schedule left to update
+            probeScheduler.update(updated);
+        }
+    }
+    
+    // What a server probes and checks, without its name, pacing and timeout
+    private String probeDefinition(Server server) {
+        Server definition = gson.fromJson(gson.toJson(server), Server.class);
+        definition.setName(null);
+        definition.setIntervalMs(null);
+        definition.setInitialOffsetMs(null);
+        definition.setTimeoutMs(null);
+        return gson.toJson(definition);
+    }
+    
+    // Caller holds reconfigureLock. A sequential run picks the server up from its next cycle
+    private void addToRun(Server server) {
+        runServers.put(server.getId(), server);
+        String reason = compileTarget(server);
+        if (reason != null) {
+            rejectedServerIds.add(server.getId());
+            rejectServer(server.getId(), reason);
+            return;
+        }
+        if (server.isLoadTest()) {
+            activeDrivers.incrementAndGet();
+            startLoadGenerator(server);
+        } else if (probeDriverFinished) {
+            Log.i(TAG, server.getName() + " is probed from the next run, this one has run its requests");
+        } else if (probeScheduler != null) {
+            probeScheduler.add(server);
+        }
+    }
+    
+    /**
+     * Connect and read timeout of a server's next probe: its own if set, otherwise derived from
+     * its recent latency and bounded by the timeout settings (the TCP connect timeout is the upper
+     * bound of a TCP probe). Load requests feed that latency history like probes do, so a
+     * load-tested server gets an adaptive timeout too. -1 for a DNS probe, whose lookup cannot be
+     * given a timeout.
+     */
+    private int timeoutFor(Server server) {
+        if (server.getRequestType() == Server.RequestType.DNS) {
+            return -1;
+        }
+        if (server.getTimeoutMs() != null && server.getTimeoutMs() > 0) {
+            return server.getTimeoutMs();
+        }
+        int maxMs = server.getRequestType() == Server.RequestType.TCP ? tcpConnectTimeoutMs : maxTimeoutMs;
+        return getServerStats(server).timeout.getTimeoutMs(Math.min(minTimeoutMs, maxMs), maxMs);
+    }
+    
+    private ProbeOutcome executeProbe(Server server, int timeoutMs) {
+        if (server.getRequestType() == Server.RequestType.HTTPS) {
+            return testHttpServer(server, timeoutMs);
+        } else if (server.getRequestType() == Server.RequestType.PING) {
+            return testPingServer(server, timeoutMs);
+        } else if (server.getRequestType() == Server.RequestType.TCP) {
+            return testTcpServer(server, timeoutMs);
+        } else if (server.getRequestType() == Server.RequestType.DNS) {
+            return testDnsServer(server);
+        }
+        return ProbeOutcome.failure("Unsupported request type");
+    }
+    
+    private ProbeOutcome testHttpServer(Server server, int timeoutMs) {
+        try {
+            HttpProbeClient.Target target = targetFor(server);
+            // Warm servers reuse a pooled keep-alive connection, cold ones pay the full handshake every time
+            HttpProbeClient.Response response = nonBlockingHttp
+                    ? nioProbeEngine.executeBlocking(target, server.isWarmConnection(), timeoutMs)
+                    : httpProbeClient.execute(target, server.isWarmConnection(), timeoutMs);
+            return toOutcome(response, target);
             
         } catch (IOException e) {
             Log.e(TAG, "HTTP test failed for " + server.getName(), e);
-            return false;
+            return ProbeOutcome.failure(e.getMessage());
         }
     }
     
-    private boolean testPingServer(Server server) {
+    /**
+     * Success is a 2xx or 3xx status, or the server's accepted statuses, and every other check of
+     * the server passed. A failed check is reported as an ASSERTION error.
+     */
+    private static ProbeOutcome toOutcome(HttpProbeClient.Response response, HttpProbeClient.Target target) {
+        ResponseAssertions assertions = target.assertions;
+        boolean statusOk = (assertions != null && assertions.hasStatusCheck())
+                || (response.statusCode >= 200 && response.statusCode < 400);
+        String failure = statusOk && assertions != null ? assertions.check(response) : null;
+        ProbeOutcome outcome = ProbeOutcome.of(statusOk && failure == null);
+        outcome.connectionReused = response.connectionReused;
+        outcome.dnsNanos = response.dnsNanos;
+        outcome.dnsCached = response.dnsCached;
+        outcome.connectNanos = response.connectNanos;
+        outcome.tlsNanos = response.tlsNanos;
+        outcome.ttfbNanos = response.ttfbNanos;
+        outcome.bodyNanos = response.bodyNanos;
+        outcome.bodyBytes = response.bodyBytes;
+        outcome.bodyTruncated = response.bodyTruncated;
+        if (!statusOk) {
+            outcome.errorClass = ProbeResult.ErrorClass.HTTP_STATUS;
+            outcome.errorMessage = "HTTP " + response.statusCode;
+        } else if (failure != null) {
+            outcome.errorClass = ProbeResult.ErrorClass.ASSERTION;
+            outcome.errorMessage = failure;
+        }
+        return outcome;
+    }
+    
+    private static ProbeOutcome toTcpOutcome(HttpProbeClient.Response response) {
+        ProbeOutcome outcome = ProbeOutcome.of(true);
+        outcome.dnsNanos = response.dnsNanos;
+        outcome.dnsCached = response.dnsCached;
+        outcome.connectNanos = response.connectNanos;
+        return outcome;
+    }
+    
+    // Connect-only probe to the server's port; a refused connection is a failure
+    private ProbeOutcome testTcpServer(Server server, int timeoutMs) {
         try {
-            String address = server.getAddress();
+            HttpProbeClient.Target target = targetFor(server);
+            if (nioProbeEngine != null) {
+                return toTcpOutcome(nioProbeEngine.connectBlocking(target, timeoutMs));
+            }
             
-            if (address.startsWith("http://")) {
-                address = address.substring(7);
-            } else if (address.startsWith("https://")) {
-                address = address.substring(8);
+            DnsCache.Resolution resolution = dnsCache.resolve(target.host);
+            long resolved = System.nanoTime();
+            Socket socket = new Socket();
+            runControl.register(socket);
+            try {
+                socket.connect(new InetSocketAddress(resolution.address, target.port), timeoutMs);
+                ProbeOutcome outcome = ProbeOutcome.of(true);
+                outcome.dnsNanos = resolution.nanos;
+                outcome.dnsCached = resolution.cached;
+                outcome.connectNanos = System.nanoTime() - resolved;
+                return outcome;
+            } finally {
+                runControl.unregister(socket);
+                socket.close();
             }
             
-            InetAddress inetAddress = InetAddress.getByName(address);
-            return inetAddress.isReachable(10000);
+        } catch (IOException e) {
+            Log.e(TAG, "TCP test failed for " + server.getName(), e);
+            return ProbeOutcome.failure(e.getMessage());
+        }
+    }
+    
+    // Always a fresh lookup, timed on its own; the answer refreshes the cache the other probes use
+    private ProbeOutcome testDnsServer(Server server) {
+        try {
+            DnsCache.Resolution resolution = dnsCache.refresh(targetFor(server).host);
+            ProbeOutcome outcome = ProbeOutcome.of(true);
+            outcome.dnsNanos = resolution.nanos;
+            return outcome;
+            
+        } catch (IOException e) {
+            Log.e(TAG, "DNS test failed for " + server.getName(), e);
+            return ProbeOutcome.failure(e.getMessage());
+        }
+    }
+    
+    private ProbeOutcome testPingServer(Server server, int timeoutMs) {
+        try {
+            DnsCache.Resolution resolution = dnsCache.resolve(targetFor(server).host);
+            
+            ProbeOutcome outcome = ProbeOutcome.of(resolution.address.isReachable(timeoutMs));
+            outcome.dnsNanos = resolution.nanos;
+            outcome.dnsCached = resolution.cached;
+            return outcome;
             
         } catch (IOException e) {
             Log.e(TAG, "Ping test failed for " + server.getName(), e);
-            return false;
+            return ProbeOutcome.failure(e.getMessage());
         }
     }
     
     private void pauseTesting() {
-        if (isRunning.get() && isPaused.compareAndSet(false, true)) {
+        if (runControl.pause()) {
+            for (LoadGenerator generator : loadGenerators) {
+                generator.pause();
+            }
             Log.d(TAG, "Test paused");
-            updateNotification("", true);
+            notificationPublisher.setPaused(true);
         }
     }
     
     private void resumeTesting() {
-        if (isRunning.get() && isPaused.compareAndSet(true, false)) {
+        if (runControl.resume()) {
+            for (LoadGenerator generator : loadGenerators) {
+                generator.resume();
+            }
             Log.d(TAG, "Test resumed");
-            updateNotification("", false);
+            notificationPublisher.setPaused(false);
         }
     }
     
     public void stopTesting() {
-        if (isRunning.compareAndSet(true, false)) {
-            isPaused.set(false);
-            
+        // Wakes parked threads and aborts in-flight sockets before the pools are torn down
+        if (runControl.stop()) {
             if (testTask != null) {
                 testTask.cancel(true);
             }
+            if (sequentialTask != null) {
+                sequentialTask.cancel(true);
+            }
+            stopWatchingChanges();
+            if (probeScheduler != null) {
+                probeScheduler.stop();
+            }
+            if (probeExecutor != null) {
+                probeExecutor.shutdownNow();
+            }
+            for (LoadGenerator generator : loadGenerators) {
+                generator.stop();
+            }
+            loadGenerators.clear();
+            latestLoadStats.clear();
+            if (loadTimer != null) {
+                loadTimer.shutdownNow();
+            }
+            if (loadExecutor != null) {
+                loadExecutor.shutdownNow();
+            }
+            if (nioProbeEngine != null) {
+                // Fails every pending exchange at once
+                nioProbeEngine.close();
+            }
+            if (connectionPool != null) {
+                connectionPool.close();
+            }
             
             Log.d(TAG, "Test stopped");
             broadcastTestStopped();
+            notificationPublisher.stop();
             stopForeground(true);
             stopSelf();
         }
@@ -423,6 +1398,14 @@ public class ServerTestService extends Service {
     
     private void broadcastTestStarted() {
         Intent intent = new Intent(ACTION_TEST_STARTED);
+        intent.putExtra(EXTRA_CONCURRENT_MODE, concurrentMode);
+        intent.putExtra(EXTRA_PROBED_SERVER_COUNT, totalServers);
+        localBroadcastManager.sendBroadcast(intent);
+    }
+    
+    private void broadcastServersChanged() {
+        Intent intent = new Intent(ACTION_SERVERS_CHANGED);
+        intent.putExtra(EXTRA_PROBED_SERVER_COUNT, totalServers);
         localBroadcastManager.sendBroadcast(intent);
     }
     
@@ -439,6 +1422,25 @@ public class ServerTestService extends Service {
         localBroadcastManager.sendBroadcast(intent);
     }
     
+    private void broadcastLoadStats(Server server, LoadGenerator.LoadStats stats) {
+        Intent intent = new Intent(ACTION_LOAD_STATS);
+        intent.putExtra(EXTRA_SERVER_ID, server.getId());
+        intent.putExtra(EXTRA_LOAD_MODE, stats.mode.name());
+        intent.putExtra(EXTRA_LOAD_TARGET, stats.target);
+        intent.putExtra(EXTRA_ACHIEVED_RPS, stats.achievedRps);
+        intent.putExtra(EXTRA_IN_FLIGHT, stats.inFlight);
+        intent.putExtra(EXTRA_SENT, stats.sent);
+        intent.putExtra(EXTRA_COMPLETED, stats.completed);
+        intent.putExtra(EXTRA_ERRORS, stats.errors);
+        intent.putExtra(EXTRA_DROPPED, stats.dropped);
+        intent.putExtra(EXTRA_LATE, stats.late);
+        intent.putExtra(EXTRA_RESPONSE_TIME, stats.meanResponseTimeMs);
+        intent.putExtra(EXTRA_CORRECTED_RESPONSE_TIME, stats.meanCorrectedResponseTimeMs);
+        intent.putExtra(EXTRA_P99_NANOS, stats.p99Nanos);
+        intent.putExtra(EXTRA_CORRECTED_P99_NANOS, stats.correctedP99Nanos);
+        localBroadcastManager.sendBroadcast(intent);
+    }
+    
     @Override
     public void onDestroy() {
         super.onDestroy();
@@ -446,5 +1448,12 @@ public class ServerTestService extends Service {
         if (executorService != null) {
             executorService.shutdown();
         }
+        if (probeResultWriter != null) {
+            // Queued results are still committed by the writer thread
+            probeResultWriter.close();
+        }
+        if (settingsRepository != null) {
+            settingsRepository.shutdown();
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,65 @@
+package com.ltrudu.serverresponsetest.service;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveTimeoutTest {
+    
+    private static final long MS = 1000000L;
+    
+    @Test
+    public void upperBound_appliesUntilEnoughSamples() {
+        AdaptiveTimeout timeout = new AdaptiveTimeout();
+        for (int i = 1; i < AdaptiveTimeout.MIN_SAMPLES; i++) {
+            timeout.recordResponse(10 * MS);
+        }
+        assertEquals(10000, timeout.getTimeoutMs(100, 10000));
+        timeout.recordResponse(10 * MS);
+        assertEquals(50, timeout.getTimeoutMs(1, 10000));
+    }
+    
+    @Test
+    public void timeout_isMultipleOfP99WithinBounds() {
+        AdaptiveTimeout timeout = new AdaptiveTimeout();
+        // 99 fast answers and one slow one per hundred: the p99 is the fast tail
+        for (int i = 0; i < AdaptiveTimeout.WINDOW; i++) {
+            timeout.recordResponse(i % 100 == 99 ? 900 * MS : (i % 100 + 1) * MS);
+        }
+        assertEquals(99 * AdaptiveTimeout.MULTIPLIER, timeout.getTimeoutMs(1, 10000));
+        assertEquals(1000, timeout.getTimeoutMs(1000, 10000));
+        assertEquals(300, timeout.getTimeoutMs(1, 300));
+    }
+    
+    @Test
+    public void oldSamples_leaveTheWindow() {
+        AdaptiveTimeout timeout = new AdaptiveTimeout();
+        for (int i = 0; i < AdaptiveTimeout.WINDOW; i++) {
+            timeout.recordResponse(1000 * MS);
+        }
+        assertEquals(5000, timeout.getTimeoutMs(1, 10000));
+        for (int i = 0; i < AdaptiveTimeout.WINDOW; i++) {
+            timeout.recordResponse(20 * MS);
+        }
+        assertEquals(100, timeout.getTimeoutMs(1, 10000));
+    }
+    
+    @Test
+    public void networkFailures_widenUntilTheNextResponse() {
+        AdaptiveTimeout timeout = new AdaptiveTimeout();
+        for (int i = 0; i < AdaptiveTimeout.MIN_SAMPLES; i++) {
+            timeout.recordResponse(20 * MS);
+        }
+        assertEquals(100, timeout.getTimeoutMs(1, 10000));
+        timeout.recordNetworkFailure();
+        assertEquals(200, timeout.getTimeoutMs(1, 10000));
+        timeout.recordNetworkFailure();
+        assertEquals(400, timeout.getTimeoutMs(1, 10000));
+        for (int i = 0; i < 40; i++) {
+            timeout.recordNetworkFailure();
+        }
+        assertEquals(10000, timeout.getTimeoutMs(1, 10000));
+        timeout.recordResponse(20 * MS);
+        assertEquals(100, timeout.getTimeoutMs(1, 10000));
+    }
+}
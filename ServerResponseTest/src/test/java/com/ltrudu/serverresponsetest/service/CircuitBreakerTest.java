@@ -0,0 +1,95 @@
+package com.ltrudu.serverresponsetest.service;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CircuitBreakerTest {
+    
+    @Test
+    public void opensAfterConsecutiveFailures() {
+        CircuitBreaker breaker = new CircuitBreaker(60000);
+        for (int i = 1; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            assertNull(breaker.onResult(false));
+            assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+            assertTrue(breaker.allowProbe());
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.onResult(false));
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(CircuitBreaker.FAILURE_THRESHOLD, breaker.getConsecutiveFailures());
+        assertFalse(breaker.allowProbe());
+    }
+    
+    @Test
+    public void reachingTheServer_resetsTheFailureCount() {
+        CircuitBreaker breaker = new CircuitBreaker(60000);
+        for (int i = 1; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            breaker.onResult(false);
+        }
+        assertNull(breaker.onResult(true));
+        assertEquals(0, breaker.getConsecutiveFailures());
+        for (int i = 1; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            breaker.onResult(false);
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+    
+    @Test
+    public void firstBackoff_isBetweenOneAndTwoIntervals() {
+        CircuitBreaker breaker = new CircuitBreaker(1000);
+        long before = System.currentTimeMillis();
+        open(breaker);
+        long after = System.currentTimeMillis();
+        // Twice the interval, drawn between half and all of it
+        assertTrue(breaker.getRetryAtMillis() >= before + 1000);
+        assertTrue(breaker.getRetryAtMillis() <= after + 2000);
+    }
+    
+    @Test
+    public void afterTheBackoff_aSuccessfulTrialCloses() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(1);
+        open(breaker);
+        Thread.sleep(20);
+        assertTrue(breaker.allowProbe());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.onResult(true));
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowProbe());
+    }
+    
+    @Test
+    public void failedTrial_opensAgainForLonger() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(1);
+        open(breaker);
+        Thread.sleep(20);
+        assertTrue(breaker.allowProbe());
+        // A single failure is enough in half-open
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.onResult(false));
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        
+        // Keep failing trials until the delay reaches whole seconds: 2 ms doubled nine times
+        for (int i = 0; i < 9; i++) {
+            while (!breaker.allowProbe()) {
+                Thread.sleep(1);
+            }
+            breaker.onResult(false);
+        }
+        long remaining = breaker.getRetryAtMillis() - System.currentTimeMillis();
+        assertTrue("Backoff " + remaining + " ms", remaining >= 400);
+    }
+    
+    @Test
+    public void backoff_isCappedAtTheMaximum() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(CircuitBreaker.MAX_BACKOFF_MS);
+        long before = System.currentTimeMillis();
+        open(breaker);
+        assertTrue(breaker.getRetryAtMillis() <= before + CircuitBreaker.MAX_BACKOFF_MS + 100);
+    }
+    
+    private static void open(CircuitBreaker breaker) {
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            breaker.onResult(false);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+}
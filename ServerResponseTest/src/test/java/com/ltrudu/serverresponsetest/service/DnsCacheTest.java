@@ -0,0 +1,79 @@
+package com.ltrudu.serverresponsetest.service;
+
+import org.junit.Test;
+
+import java.net.UnknownHostException;
+
+import static org.junit.Assert.*;
+
+// Literal addresses only: they resolve without a network, and an invalid one fails at once
+public class DnsCacheTest {
+    
+    private static final String HOST = "127.0.0.1";
+    private static final String BAD_HOST = "[1::";
+    
+    @Test
+    public void resolve_cachesTheAnswer() throws Exception {
+        DnsCache cache = new DnsCache(60000);
+        assertNull(cache.lookup(HOST));
+        
+        DnsCache.Resolution first = cache.resolve(HOST);
+        assertFalse(first.cached);
+        DnsCache.Resolution second = cache.resolve(HOST);
+        assertTrue(second.cached);
+        assertEquals(first.address, second.address);
+    }
+    
+    @Test
+    public void expiredEntry_isLookedUpAgain() throws Exception {
+        DnsCache cache = new DnsCache(0);
+        cache.resolve(HOST);
+        assertNull(cache.lookup(HOST));
+        assertFalse(cache.resolve(HOST).cached);
+    }
+    
+    @Test
+    public void refresh_bypassesTheCache() throws Exception {
+        DnsCache cache = new DnsCache(60000);
+        cache.resolve(HOST);
+        assertFalse(cache.refresh(HOST).cached);
+        assertTrue(cache.resolve(HOST).cached);
+    }
+    
+    @Test
+    public void failure_isCachedForTheNegativeTtl() throws Exception {
+        DnsCache cache = new DnsCache(60000);
+        try {
+            cache.resolve(BAD_HOST);
+            fail("Invalid host resolved");
+        } catch (UnknownHostException expected) {
+            // Now cached
+        }
+        try {
+            cache.lookup(BAD_HOST);
+            fail("Cached failure not thrown again");
+        } catch (UnknownHostException expected) {
+            // Served from the cache without a lookup
+        }
+    }
+    
+    @Test
+    public void negativeTtl_isCappedByTheTtl() throws Exception {
+        DnsCache cache = new DnsCache(0);
+        try {
+            cache.resolve(BAD_HOST);
+            fail("Invalid host resolved");
+        } catch (UnknownHostException expected) {
+            // Cached for no time at all
+        }
+        assertNull(cache.lookup(BAD_HOST));
+    }
+    
+    @Test
+    public void clear_dropsEveryEntry() throws Exception {
+        DnsCache cache = new DnsCache(60000);
+        cache.resolve(HOST);
+        cache.clear();
+        assertNull(cache.lookup(HOST));
+    }
+}
@@ -0,0 +1,138 @@
+package com.ltrudu.serverresponsetest.service;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+    
+    private static final long MS = 1000000L;
+    
+    @Test
+    public void smallValues_areExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long nanos = 0; nanos < 32; nanos++) {
+            histogram.record(nanos);
+        }
+        assertEquals(32, histogram.getCount());
+        assertEquals(0, histogram.getMinNanos());
+        assertEquals(31, histogram.getMaxNanos());
+        assertEquals(15, histogram.getValueAtPercentile(50));
+    }
+    
+    @Test
+    public void percentiles_stayWithinBucketError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * MS);
+        }
+        assertWithinError(500 * MS, histogram.getValueAtPercentile(50));
+        assertWithinError(900 * MS, histogram.getValueAtPercentile(90));
+        assertWithinError(990 * MS, histogram.getValueAtPercentile(99));
+        assertEquals(1000 * MS, histogram.getValueAtPercentile(100));
+        assertEquals(500500 * MS / 1000, histogram.getMeanNanos());
+        
+        long[] summary = new long[5];
+        histogram.getSummary(summary);
+        assertEquals(histogram.getValueAtPercentile(50), summary[0]);
+        assertEquals(histogram.getValueAtPercentile(90), summary[1]);
+        assertEquals(histogram.getValueAtPercentile(99), summary[2]);
+        assertEquals(histogram.getValueAtPercentile(99.9), summary[3]);
+        assertEquals(1000 * MS, summary[4]);
+    }
+    
+    @Test
+    public void emptyHistogram_reportsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        long[] summary = new long[5];
+        histogram.getSummary(summary);
+        assertArrayEquals(new long[5], summary);
+        assertEquals(0, histogram.getValueAtPercentile(99));
+        assertEquals(0, histogram.getMinNanos());
+        assertEquals(0, LatencyHistogram.fromBytes(histogram.toBytes()).getCount());
+    }
+    
+    @Test
+    public void toBytes_roundTrips() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 5000; i++) {
+            histogram.record((i * 7919L) % 3000 * MS + i);
+        }
+        LatencyHistogram copy = LatencyHistogram.fromBytes(histogram.toBytes());
+        assertEquals(histogram.getCount(), copy.getCount());
+        assertEquals(histogram.getMinNanos(), copy.getMinNanos());
+        assertEquals(histogram.getMaxNanos(), copy.getMaxNanos());
+        assertEquals(histogram.getTotalNanos(), copy.getTotalNanos());
+        assertArrayEquals(summaryOf(histogram), summaryOf(copy));
+        assertArrayEquals(histogram.toBytes(), copy.toBytes());
+    }
+    
+    @Test
+    public void mergeOfSketches_equalsRecordingEverything() {
+        LatencyHistogram first = new LatencyHistogram();
+        LatencyHistogram second = new LatencyHistogram();
+        LatencyHistogram all = new LatencyHistogram();
+        for (int i = 1; i <= 2000; i++) {
+            long nanos = i * 37 * MS / 10;
+            (i % 3 == 0 ? first : second).record(nanos);
+            all.record(nanos);
+        }
+        LatencyHistogram merged = new LatencyHistogram();
+        merged.merge(first.toBytes());
+        merged.merge(second.toBytes());
+        assertEquals(all.getCount(), merged.getCount());
+        assertEquals(all.getMinNanos(), merged.getMinNanos());
+        assertEquals(all.getMaxNanos(), merged.getMaxNanos());
+        assertArrayEquals(summaryOf(all), summaryOf(merged));
+    }
+    
+    @Test
+    public void truncatedSketch_isRejectedWithoutChanges() {
+        LatencyHistogram source = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            source.record(i * MS);
+        }
+        byte[] serialized = source.toBytes();
+        
+        LatencyHistogram target = new LatencyHistogram();
+        target.record(5 * MS);
+        byte[] before = target.toBytes();
+        try {
+            target.merge(Arrays.copyOf(serialized, serialized.length - 3));
+            fail("Truncated sketch was accepted");
+        } catch (IllegalArgumentException expected) {
+            // Nothing of it may have been applied
+        }
+        assertArrayEquals(before, target.toBytes());
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void sketchWithWrongCount_isRejected() {
+        LatencyHistogram source = new LatencyHistogram();
+        source.record(10 * MS);
+        source.record(20 * MS);
+        byte[] serialized = source.toBytes();
+        // The count is the varint right after the version byte
+        serialized[1] = 3;
+        new LatencyHistogram().merge(serialized);
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownVersion_isRejected() {
+        new LatencyHistogram().merge(new byte[] {42, 0});
+    }
+    
+    private static long[] summaryOf(LatencyHistogram histogram) {
+        long[] summary = new long[5];
+        histogram.getSummary(summary);
+        return summary;
+    }
+    
+    // Buckets hold 32 sub-buckets per power of two: about 3% relative error, never below the value
+    private static void assertWithinError(long expected, long actual) {
+        assertTrue("Expected about " + expected + ", got " + actual,
+                actual >= expected && actual <= expected + expected / 32 + 1);
+    }
+}
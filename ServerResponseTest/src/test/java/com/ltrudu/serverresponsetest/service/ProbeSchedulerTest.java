@@ -0,0 +1,118 @@
+package com.ltrudu.serverresponsetest.service;
+
+import com.ltrudu.serverresponsetest.data.Server;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ProbeSchedulerTest {
+    
+    private static final int BUDGET = 5;
+    
+    private final List<String> probedNames = Collections.synchronizedList(new ArrayList<>());
+    private final List<Integer> completions = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger finishedCalls = new AtomicInteger();
+    private final CountDownLatch finished = new CountDownLatch(1);
+    
+    private static Server server(String name, int intervalMs) {
+        Server server = new Server(name, "127.0.0.1", 80, Server.RequestType.TCP);
+        server.setId(1);
+        server.setIntervalMs(intervalMs);
+        return server;
+    }
+    
+    // Finite scheduler whose probes complete at once; onCompleted runs on every completion
+    private ProbeScheduler scheduler(ExecutorService executor, OnCompleted onCompleted) {
+        ProbeScheduler[] scheduler = new ProbeScheduler[1];
+        scheduler[0] = new ProbeScheduler(executor, (server, intendedStartNanos, done) -> {
+            probedNames.add(server.getName());
+            done.run();
+        }, new ProbeScheduler.Listener() {
+            @Override
+            public void onProbeCompleted(Server server, int completedProbes) {
+                completions.add(completedProbes);
+                onCompleted.run(scheduler[0], completedProbes);
+            }
+            
+            @Override
+            public void onAllSchedulesFinished() {
+                finishedCalls.incrementAndGet();
+                finished.countDown();
+            }
+        }, BUDGET);
+        return scheduler[0];
+    }
+    
+    private interface OnCompleted {
+        void run(ProbeScheduler scheduler, int completedProbes);
+    }
+    
+    @Test
+    public void editingTheOnlyServer_keepsTheFiniteRunGoing() throws InterruptedException {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        ProbeScheduler scheduler = scheduler(executor, (s, completedProbes) -> {
+            if (completedProbes == 2) {
+                assertTrue(s.update(server("renamed", 1)));
+            }
+        });
+        scheduler.start(Collections.singletonList(server("original", 1)), 1000);
+        try {
+            assertTrue("run never finished", finished.await(5, TimeUnit.SECONDS));
+            Thread.sleep(50);
+            assertEquals(1, finishedCalls.get());
+            assertEquals(BUDGET, probedNames.size());
+            assertEquals(BUDGET, completions.size());
+            for (int i = 0; i < BUDGET; i++) {
+                assertEquals(i + 1, (int) completions.get(i));
+                assertEquals(i < 2 ? "original" : "renamed", probedNames.get(i));
+            }
+            assertEquals(0, scheduler.getScheduleCount());
+        } finally {
+            scheduler.stop();
+            executor.shutdownNow();
+        }
+    }
+    
+    @Test
+    public void newInterval_appliesFromTheNextSlot() throws InterruptedException {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        // The first probe is due at once, the next ones would wait a minute each
+        ProbeScheduler scheduler = scheduler(executor, (s, completedProbes) -> {
+            if (completedProbes == 1) {
+                s.update(server("original", 1));
+            }
+        });
+        scheduler.start(Collections.singletonList(server("original", 60000)), 1000);
+        try {
+            assertTrue("new interval not applied", finished.await(5, TimeUnit.SECONDS));
+            assertEquals(BUDGET, probedNames.size());
+        } finally {
+            scheduler.stop();
+            executor.shutdownNow();
+        }
+    }
+    
+    @Test
+    public void updatingAServerWithoutSchedule_isRefused() {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        ProbeScheduler scheduler = scheduler(executor, (s, completedProbes) -> { });
+        try {
+            assertFalse(scheduler.update(server("unknown", 1)));
+            assertEquals(0, scheduler.getScheduleCount());
+            assertEquals(0, finishedCalls.get());
+        } finally {
+            scheduler.stop();
+            executor.shutdownNow();
+        }
+    }
+}
\ No newline at end of file
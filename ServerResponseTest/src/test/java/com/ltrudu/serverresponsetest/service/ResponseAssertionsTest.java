@@ -0,0 +1,124 @@
+package com.ltrudu.serverresponsetest.service;
+
+import com.ltrudu.serverresponsetest.data.Server;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class ResponseAssertionsTest {
+    
+    @Test
+    public void parseStatusRanges_acceptsCodesRangesAndClasses() {
+        assertArrayEquals(new int[] {200, 200}, ResponseAssertions.parseStatusRanges("200"));
+        assertArrayEquals(new int[] {200, 299, 404, 404}, ResponseAssertions.parseStatusRanges("200-299, 404"));
+        assertArrayEquals(new int[] {200, 299, 300, 399}, ResponseAssertions.parseStatusRanges("2xx,3XX"));
+        assertArrayEquals(new int[] {301, 308}, ResponseAssertions.parseStatusRanges(" 301 - 308 "));
+    }
+    
+    @Test
+    public void parseStatusRanges_rejectsInvalidEntries() {
+        assertNull(ResponseAssertions.parseStatusRanges("abc"));
+        assertNull(ResponseAssertions.parseStatusRanges(",200"));
+        assertNull(ResponseAssertions.parseStatusRanges("299-200"));
+        assertNull(ResponseAssertions.parseStatusRanges("99"));
+        assertNull(ResponseAssertions.parseStatusRanges("600"));
+        assertNull(ResponseAssertions.parseStatusRanges("6xx"));
+        assertNull(ResponseAssertions.parseStatusRanges("200-"));
+    }
+    
+    @Test
+    public void statusCheck_usesTheParsedRanges() {
+        ResponseAssertions assertions = assertions("2xx, 404", null, null);
+        assertNull(assertions.check(response(204)));
+        assertNull(assertions.check(response(404)));
+        assertNotNull(assertions.check(response(301)));
+    }
+    
+    @Test
+    public void serverWithoutChecks_hasNoAssertions() {
+        assertNull(assertions(null, null, null));
+        // An invalid status is ignored like the server dialog would have rejected it
+        assertNull(assertions("oops", " \n", ""));
+    }
+    
+    @Test
+    public void headerMask_setsOneBitPerSatisfiedHeader() {
+        ResponseAssertions assertions = assertions(null, "Content-Type: JSON\nX-Cache\nServer: nginx", null);
+        long matches = 0;
+        matches = match(assertions, "content-type: application/json; charset=utf-8", matches);
+        assertEquals(0b001, matches);
+        matches = match(assertions, "X-Cache: MISS", matches);
+        assertEquals(0b011, matches);
+        // Right name, wrong value
+        matches = match(assertions, "Server: Apache", matches);
+        assertEquals(0b011, matches);
+        // A name that only starts like an expected one
+        matches = match(assertions, "X-Cache-Status: HIT", 0);
+        assertEquals(0, matches);
+        
+        HttpProbeClient.Response response = response(200);
+        response.headerMatches = 0b011;
+        assertEquals("Header Server does not contain \"nginx\"", assertions.check(response));
+        response.headerMatches = 0b111;
+        assertNull(assertions.check(response));
+    }
+    
+    @Test
+    public void bodyMatcher_findsTextSplitAcrossChunks() {
+        ResponseAssertions assertions = assertions(null, null, "abcabd");
+        byte[] body = "xxabcabcabdyy".getBytes(StandardCharsets.UTF_8);
+        // Every split point, including ones inside a partial match that has to fall back
+        for (int split = 0; split <= body.length; split++) {
+            int state = assertions.advance(0, body, 0, split);
+            state = assertions.advance(state, body, split, body.length);
+            assertTrue("Split at " + split, assertions.bodyFound(state));
+        }
+    }
+    
+    @Test
+    public void bodyMatcher_byteAtATimeOverBuffers() {
+        ResponseAssertions assertions = assertions(null, null, "\"status\":\"ok\"");
+        byte[] body = "{\"status\":\"okay\",\"x\":1,\"status\":\"ok\"}".getBytes(StandardCharsets.UTF_8);
+        int state = 0;
+        for (int i = 0; i < body.length; i++) {
+            ByteBuffer chunk = ByteBuffer.wrap(new byte[] {body[i]});
+            state = assertions.advance(state, chunk, 0, 1);
+        }
+        assertTrue(assertions.bodyFound(state));
+    }
+    
+    @Test
+    public void bodyMatcher_reportsMissingText() {
+        ResponseAssertions assertions = assertions(null, null, "needle");
+        byte[] body = "haystack with a needl".getBytes(StandardCharsets.UTF_8);
+        int state = assertions.advance(0, body, 0, 10);
+        state = assertions.advance(state, body, 10, body.length);
+        assertFalse(assertions.bodyFound(state));
+        
+        HttpProbeClient.Response response = response(200);
+        response.bodyMatchState = state;
+        assertEquals("Body does not contain \"needle\"", assertions.check(response));
+    }
+    
+    private static ResponseAssertions assertions(String status, String headers, String body) {
+        Server server = new Server();
+        server.setExpectedStatus(status);
+        server.setExpectedHeaders(headers);
+        server.setExpectedBody(body);
+        return ResponseAssertions.fromServer(server);
+    }
+    
+    private static HttpProbeClient.Response response(int statusCode) {
+        HttpProbeClient.Response response = new HttpProbeClient.Response();
+        response.statusCode = statusCode;
+        return response;
+    }
+    
+    private static long match(ResponseAssertions assertions, String header, long matches) {
+        byte[] line = header.getBytes(StandardCharsets.ISO_8859_1);
+        return assertions.matchHeader(line, line.length, matches);
+    }
+}